@@ -0,0 +1,93 @@
+package org.example.AbstractSyntaxTree;
+
+import java.util.Arrays;
+
+/**
+ * The arrays of Tekla. As long as an array only holds numbers they are kept unboxed in a double[], so a million of
+ * them take 8 MB instead of a million Double objects (24 MB, plus the references to them). Storing anything else
+ * moves the elements to an Object[] for good.
+ */
+public class ArrayValue {
+    //Exactly one of them is in use
+    private double[] numbers;
+    private Object[] values;
+    private int size = 0;
+
+    ArrayValue(int capacity) {
+        this.numbers = new double[Math.max(capacity, 4)];
+    }
+
+    //Holds the numbers, which aren't used for anything else afterwards
+    ArrayValue(double[] numbers) {
+        this.numbers = numbers.length >= 4 ? numbers : Arrays.copyOf(numbers, 4);
+        this.size = numbers.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean holdsNumbers() {
+        return values == null;
+    }
+
+    //Only while it holds numbers
+    double number(int index) {
+        return numbers[index];
+    }
+
+    Object get(int index) {
+        if (values == null) return numbers[index];
+        return values[index];
+    }
+
+    void set(int index, Object value) {
+        if (values == null) {
+            if (value instanceof Double number) {
+                numbers[index] = number;
+                return;
+            }
+            generalize();
+        }
+
+        values[index] = value;
+    }
+
+    void setNumber(int index, double value) {
+        if (values == null) {
+            numbers[index] = value;
+        } else {
+            values[index] = value;
+        }
+    }
+
+    void append(Object value) {
+        if (values == null) {
+            if (value instanceof Double number) {
+                if (size == numbers.length) numbers = Arrays.copyOf(numbers, size * 2);
+                numbers[size++] = number;
+                return;
+            }
+            generalize();
+        }
+
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    private void generalize() {
+        values = new Object[numbers.length];
+        for (int i = 0; i < size; i++) values[i] = numbers[i];
+        numbers = null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(Interpreter.stringify(get(i)));
+        }
+        return builder.append("]").toString();
+    }
+}
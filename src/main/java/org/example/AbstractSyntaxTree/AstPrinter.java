@@ -15,6 +15,13 @@ public class AstPrinter implements ExpressionVisitor<String> {
                 new Expression.LiteralExpression(assignExpr.name.getValue()), assignExpr.value);
     }
 
+    @Override
+    public String visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpr) {
+        String name = (compoundExpr.postfix ? "Postfix " : "Compound ") + compoundExpr.operator.getTokenType();
+        return parenthesize(withType(name, compoundExpr.operandType),
+                new Expression.LiteralExpression(compoundExpr.name.getValue()), compoundExpr.value);
+    }
+
     @Override
     public String visitVarExpression(Expression.VarExpression varExpr) {
         return parenthesize("Var " + varExpr.name.getValue());
@@ -22,12 +29,13 @@ public class AstPrinter implements ExpressionVisitor<String> {
 
     @Override
     public String visitBinary(Expression.BinaryExpression binExpr) {
-        return parenthesize(binExpr.operator.getTokenType().toString(), binExpr.left, binExpr.right);
+        return parenthesize(withType(binExpr.operator.getTokenType().toString(), binExpr.operandType),
+                binExpr.left, binExpr.right);
     }
 
     @Override
     public String visitUnary(Expression.UnaryExpression unarExpr) {
-        return parenthesize(unarExpr.operator.getTokenType().toString(), unarExpr.right);
+        return parenthesize(withType(unarExpr.operator.getTokenType().toString(), unarExpr.operandType), unarExpr.right);
     }
 
     @Override
@@ -46,6 +54,88 @@ public class AstPrinter implements ExpressionVisitor<String> {
         return parenthesize(logicExp.operator.getTokenType().toString(), logicExp.left, logicExp.right);
     }
 
+    @Override
+    public String visitHoistedExpression(Expression.HoistedExpression hoistedExpr) {
+        return parenthesize("Hoisted " + hoistedExpr.name.getValue(), hoistedExpr.expr);
+    }
+
+    @Override
+    public String visitCallExpression(Expression.CallExpression callExpr) {
+        Expression[] exprs = new Expression[callExpr.arguments.size() + 1];
+        exprs[0] = callExpr.callee;
+        for (int i = 0; i < callExpr.arguments.size(); i++) exprs[i + 1] = callExpr.arguments.get(i);
+        return parenthesize("Call", exprs);
+    }
+
+    @Override
+    public String visitArrayExpression(Expression.ArrayExpression arrayExpr) {
+        return parenthesize("Array", arrayExpr.elements.toArray(new Expression[0]));
+    }
+
+    @Override
+    public String visitMapExpression(Expression.MapExpression mapExpr) {
+        Expression[] entries = new Expression[mapExpr.keys.size() * 2];
+        for (int i = 0; i < mapExpr.keys.size(); i++) {
+            entries[2 * i] = mapExpr.keys.get(i);
+            entries[2 * i + 1] = mapExpr.values.get(i);
+        }
+        return parenthesize("Map", entries);
+    }
+
+    @Override
+    public String visitStructExpression(Expression.StructExpression structExpr) {
+        StringBuilder builder = new StringBuilder("(Struct");
+        for (int i = 0; i < structExpr.names.size(); i++) {
+            builder.append(" ").append(structExpr.names.get(i).getValue()).append(": ")
+                    .append(structExpr.values.get(i).accept(this));
+        }
+        return builder.append(")").toString();
+    }
+
+    @Override
+    public String visitGetExpression(Expression.GetExpression getExpr) {
+        return parenthesize("Get " + getExpr.name.getValue(), getExpr.object);
+    }
+
+    @Override
+    public String visitSetExpression(Expression.SetExpression setExpr) {
+        String name = "Set ";
+        if (setExpr.operator != null) {
+            name = (setExpr.postfix ? "Set Postfix " : "Set Compound ") + setExpr.operator.getTokenType() + " ";
+        }
+        return parenthesize(name + setExpr.name.getValue(), setExpr.object, setExpr.value);
+    }
+
+    @Override
+    public String visitIndexExpression(Expression.IndexExpression indexExpr) {
+        return parenthesize("Index", indexExpr.object, indexExpr.index);
+    }
+
+    @Override
+    public String visitIndexAssignExpression(Expression.IndexAssignExpression indexAssignExpr) {
+        String name = "Index Equal";
+        if (indexAssignExpr.operator != null) {
+            name = (indexAssignExpr.postfix ? "Index Postfix " : "Index Compound ")
+                    + indexAssignExpr.operator.getTokenType();
+        }
+        return parenthesize(name, indexAssignExpr.object, indexAssignExpr.index, indexAssignExpr.value);
+    }
+
+    //The body is printed by Statement.FunctionStatement, an expression only shows its signature
+    @Override
+    public String visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+        StringBuilder builder = new StringBuilder("(Function");
+        if (functionExpr.name != null) builder.append(" ").append(functionExpr.name.getValue());
+        for (var param : functionExpr.params) builder.append(" ").append(param.getValue());
+        return builder.append(")").toString();
+    }
+
+    //Operators whose operands were proven by the type inference are printed as Operator:Type
+    private String withType(String name, Expression.OperandType type) {
+        if (type == Expression.OperandType.Unknown) return name;
+        return name + ":" + type;
+    }
+
     private String parenthesize(String name, Expression... exprs) {
         StringBuilder builder = new StringBuilder();
 
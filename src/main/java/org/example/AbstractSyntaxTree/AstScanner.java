@@ -0,0 +1,228 @@
+package org.example.AbstractSyntaxTree;
+
+import java.util.List;
+
+/**
+ * Walks every statement and expression of a tree without doing anything. The analysis passes extend it and
+ * only override the nodes they care about (calling super to keep walking into the children).
+ */
+abstract class AstScanner implements ExpressionVisitor<Void>, StatementVisitor {
+
+    void scan(List<Statement> statements) {
+        for (Statement st : statements) scan(st);
+    }
+
+    void scan(Statement statement) {
+        if (statement == null) return;
+
+        try {
+            statement.accept(this);
+        } catch (Interpreter.ControlFlow cf) {
+            //Only the interpreter throws control flow, scanning never does
+            throw new IllegalStateException(cf);
+        }
+    }
+
+    void scan(Expression expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+        scan(statement.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.PrintStatement statement) {
+        scan(statement.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitLetStatement(Statement.LetStatement letStatement) {
+        scan(letStatement.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.BlockStatement blockStatement) {
+        scan(blockStatement.statementList);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.IfStatement ifStatement) {
+        scan(ifStatement.condit);
+        scan(ifStatement.thenBranch);
+        scan(ifStatement.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitMatchStatement(Statement.MatchStatement matchStatement) {
+        scan(matchStatement.subject);
+        for (Statement arm : matchStatement.arms) scan(arm);
+        scan(matchStatement.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStatement(Statement.BreakStatement breakStatement) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStatement(Statement.ContinueStatement continueStatement) {
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+        scan(whileStatement.condition);
+        scan(whileStatement.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForRangeStatement(Statement.ForRangeStatement forRangeStatement) {
+        scan(forRangeStatement.start);
+        scan(forRangeStatement.end);
+        scan(forRangeStatement.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.FunctionStatement functionStatement) {
+        scan(functionStatement.function);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.ReturnStatement returnStatement) {
+        scan(returnStatement.value);
+        return null;
+    }
+
+    //The module is a tree of its own, which was scanned when it was loaded
+    @Override
+    public Void visitImportStatement(Statement.ImportStatement importStatement) {
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpression(Expression.AssignExpression assignExpr) {
+        scan(assignExpr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpr) {
+        scan(compoundExpr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpression(Expression.VarExpression varExpr) {
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Expression.BinaryExpression binExpr) {
+        scan(binExpr.left);
+        scan(binExpr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Expression.UnaryExpression unarExpr) {
+        scan(unarExpr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Expression.GroupingExpression groupExpr) {
+        scan(groupExpr.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Expression.LiteralExpression litExpr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(Expression.LogicalExpression logicExp) {
+        scan(logicExp.left);
+        scan(logicExp.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(Expression.CallExpression callExpr) {
+        scan(callExpr.callee);
+        for (Expression argument : callExpr.arguments) scan(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+        scan(functionExpr.body);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpression(Expression.ArrayExpression arrayExpr) {
+        for (Expression element : arrayExpr.elements) scan(element);
+        return null;
+    }
+
+    @Override
+    public Void visitMapExpression(Expression.MapExpression mapExpr) {
+        for (int i = 0; i < mapExpr.keys.size(); i++) {
+            scan(mapExpr.keys.get(i));
+            scan(mapExpr.values.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitStructExpression(Expression.StructExpression structExpr) {
+        for (Expression value : structExpr.values) scan(value);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpression(Expression.GetExpression getExpr) {
+        scan(getExpr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpression(Expression.SetExpression setExpr) {
+        scan(setExpr.object);
+        scan(setExpr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpression(Expression.IndexExpression indexExpr) {
+        scan(indexExpr.object);
+        scan(indexExpr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexAssignExpression(Expression.IndexAssignExpression indexAssignExpr) {
+        scan(indexAssignExpr.object);
+        scan(indexAssignExpr.index);
+        scan(indexAssignExpr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitHoistedExpression(Expression.HoistedExpression hoistedExpr) {
+        scan(hoistedExpr.expr);
+        return null;
+    }
+}
@@ -0,0 +1,160 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A buffer of numbers outside of the Java heap, so tens of millions of them don't make the collector of the program
+ * hosting the interpreter any slower. It's made of direct byte buffers (or of a file mapped into memory), read and
+ * written with a fixed element type, always little endian.
+ * <p>
+ * Slices share the memory of the buffer they come from. Freeing any of them frees the memory of all of them: the
+ * memory is given back as soon as the collector finds the byte buffers unreachable, and using any of them after that
+ * is an error.
+ */
+public class BufferValue {
+    //Byte buffers are indexed with ints, so the memory is split in chunks. Every element size divides it
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK = 1L << CHUNK_SHIFT;
+
+    enum ElementType {
+        F64(8), F32(4), I64(8), I32(4), I16(2), U8(1);
+
+        final int size;
+
+        ElementType(int size) {
+            this.size = size;
+        }
+
+        double get(ByteBuffer chunk, int offset) {
+            return switch (this) {
+                case F64 -> chunk.getDouble(offset);
+                case F32 -> chunk.getFloat(offset);
+                case I64 -> chunk.getLong(offset);
+                case I32 -> chunk.getInt(offset);
+                case I16 -> chunk.getShort(offset);
+                case U8 -> chunk.get(offset) & 0xFF;
+            };
+        }
+
+        //Integers are truncated, and wrap around when they don't fit
+        void put(ByteBuffer chunk, int offset, double value) {
+            switch (this) {
+                case F64 -> chunk.putDouble(offset, value);
+                case F32 -> chunk.putFloat(offset, (float) value);
+                case I64 -> chunk.putLong(offset, (long) value);
+                case I32 -> chunk.putInt(offset, (int) (long) value);
+                case I16 -> chunk.putShort(offset, (short) (long) value);
+                case U8 -> chunk.put(offset, (byte) (long) value);
+            }
+        }
+
+        static ElementType named(String name) {
+            for (ElementType type : values()) {
+                if (type.name().equalsIgnoreCase(name)) return type;
+            }
+            return null;
+        }
+    }
+
+    //What the buffer and its slices share
+    private static final class Memory {
+        ByteBuffer[] chunks;
+
+        Memory(ByteBuffer[] chunks) {
+            this.chunks = chunks;
+        }
+    }
+
+    private final Memory memory;
+    private final ElementType type;
+    //In bytes
+    private final long start;
+    private final long length;
+
+    private BufferValue(Memory memory, ElementType type, long start, long length) {
+        this.memory = memory;
+        this.type = type;
+        this.start = start;
+        this.length = length;
+    }
+
+    static BufferValue allocate(ElementType type, long length) {
+        long bytes = length * type.size;
+        ByteBuffer[] chunks = new ByteBuffer[(int) ((bytes + CHUNK - 1) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            int size = (int) Math.min(CHUNK, bytes - i * CHUNK);
+            chunks[i] = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new BufferValue(new Memory(chunks), type, 0, length);
+    }
+
+    /**
+     * Maps a whole file (read only), the elements are read from the page cache when they are used. A trailing part
+     * smaller than an element is left out.
+     */
+    static BufferValue map(Path path, ElementType type) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long bytes = channel.size();
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((bytes + CHUNK - 1) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long size = Math.min(CHUNK, bytes - i * CHUNK);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, i * CHUNK, size).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            //The mapping outlives the channel
+            return new BufferValue(new Memory(chunks), type, 0, bytes / type.size);
+        }
+    }
+
+    long length() {
+        return length;
+    }
+
+    //The index was checked already
+    double get(TokenUtils.Token at, long index) {
+        long position = start + index * type.size;
+        return type.get(chunk(at, position), (int) (position & (CHUNK - 1)));
+    }
+
+    void set(TokenUtils.Token at, long index, double value) {
+        long position = start + index * type.size;
+        try {
+            type.put(chunk(at, position), (int) (position & (CHUNK - 1)), value);
+        } catch (ReadOnlyBufferException e) {
+            throw new Interpreter.RuntimeError(at, "The buffer is read only.");
+        }
+    }
+
+    //The elements from one index to the one before another, without copying them
+    BufferValue slice(TokenUtils.Token at, long from, long to) {
+        if (from < 0 || to > length || from > to) throw new Interpreter.RuntimeError(at, "Slice out of bounds.");
+        chunks(at);
+        return new BufferValue(memory, type, start + from * type.size, to - from);
+    }
+
+    void free() {
+        memory.chunks = null;
+    }
+
+    private ByteBuffer chunk(TokenUtils.Token at, long position) {
+        return chunks(at)[(int) (position >>> CHUNK_SHIFT)];
+    }
+
+    private ByteBuffer[] chunks(TokenUtils.Token at) {
+        ByteBuffer[] chunks = memory.chunks;
+        if (chunks == null) throw new Interpreter.RuntimeError(at, "The buffer was freed.");
+        return chunks;
+    }
+
+    @Override
+    public String toString() {
+        return "<buffer " + type.name().toLowerCase() + " x " + length + ">";
+    }
+}
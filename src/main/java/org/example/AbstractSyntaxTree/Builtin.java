@@ -0,0 +1,29 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+
+/**
+ * A function that comes with the interpreter, like {@code len}. They are values of the global environment (see
+ * {@link Builtins}), so a program can pass them around or shadow them like any other variable.
+ */
+public class Builtin {
+    final String name;
+    final int arity;
+    final Body body;
+
+    Builtin(String name, int arity, Body body) {
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public String toString() {
+        return "<builtin " + name + ">";
+    }
+
+    interface Body {
+        //The errors are reported at the closing parenthesis of the call. The interpreter is there to call functions
+        Object call(Interpreter interpreter, TokenUtils.Token paren, Object[] arguments);
+    }
+}
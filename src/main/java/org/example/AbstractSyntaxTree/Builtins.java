@@ -0,0 +1,223 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+
+/**
+ * The global environment every interpreter starts with. It's a {@link ConcurrentEnvironment}, since tasks share it.
+ */
+class Builtins {
+
+    static Environment globals() {
+        Environment globals = new ConcurrentEnvironment();
+
+        define(globals, "len", 1, (interpreter, paren, arguments) -> {
+            if (arguments[0] instanceof ArrayValue array) return (double) array.size();
+            if (arguments[0] instanceof MapValue map) return (double) map.size();
+            if (arguments[0] instanceof String string) return (double) string.length();
+            if (arguments[0] instanceof BufferValue buffer) return (double) buffer.length();
+            if (arguments[0] instanceof RecordValue record) return (double) record.size();
+            throw new Interpreter.RuntimeError(paren, "len() expects an array, a map, a string, a buffer or a record.");
+        });
+
+        define(globals, "append", 2, (interpreter, paren, arguments) -> {
+            if (!(arguments[0] instanceof ArrayValue array)) {
+                throw new Interpreter.RuntimeError(paren, "append() expects an array.");
+            }
+            array.append(arguments[1]);
+            return null;
+        });
+
+        define(globals, "has", 2, (interpreter, paren, arguments) -> map("has", paren, arguments[0]).has(arguments[1]));
+        define(globals, "remove", 2, (interpreter, paren, arguments) -> map("remove", paren, arguments[0]).remove(arguments[1]));
+        define(globals, "keys", 1, (interpreter, paren, arguments) -> map("keys", paren, arguments[0]).keys());
+        define(globals, "values", 1, (interpreter, paren, arguments) -> map("values", paren, arguments[0]).values());
+
+        define(globals, "buffer", 2, (interpreter, paren, arguments) -> {
+            if (!(arguments[0] instanceof Double length) || length < 0 || length != Math.floor(length)) {
+                throw new Interpreter.RuntimeError(paren, "The length of a buffer must be a whole number.");
+            }
+            return BufferValue.allocate(elementType(paren, arguments[1]), (long) (double) length);
+        });
+
+        define(globals, "mapfile", 2, (interpreter, paren, arguments) -> {
+            if (!(arguments[0] instanceof String path)) {
+                throw new Interpreter.RuntimeError(paren, "mapfile() expects the path of a file.");
+            }
+            BufferValue.ElementType type = elementType(paren, arguments[1]);
+            try {
+                return BufferValue.map(Path.of(path), type);
+            } catch (IOException | InvalidPathException e) {
+                throw new Interpreter.RuntimeError(paren, "Couldn't map '" + path + "'.");
+            }
+        });
+
+        define(globals, "slice", 3, (interpreter, paren, arguments) -> {
+            if (!(arguments[1] instanceof Double from) || !(arguments[2] instanceof Double to)
+                    || from != Math.floor(from) || to != Math.floor(to)) {
+                throw new Interpreter.RuntimeError(paren, "A slice goes between whole numbers.");
+            }
+            return buffer("slice", paren, arguments[0]).slice(paren, (long) (double) from, (long) (double) to);
+        });
+
+        define(globals, "free", 1, (interpreter, paren, arguments) -> {
+            buffer("free", paren, arguments[0]).free();
+            return null;
+        });
+
+        define(globals, "range", 2, (interpreter, paren, arguments) -> {
+            if (!(arguments[0] instanceof Double from) || !(arguments[1] instanceof Double to)) {
+                throw new Interpreter.RuntimeError(paren, "range() expects two numbers.");
+            }
+            return SequenceValue.range(from, to);
+        });
+
+        define(globals, "map", 2, (interpreter, paren, arguments) ->
+                sequence("map", paren, arguments[0]).then(SequenceValue.Kind.MAP, arguments[1], 0));
+        define(globals, "filter", 2, (interpreter, paren, arguments) ->
+                sequence("filter", paren, arguments[0]).then(SequenceValue.Kind.FILTER, arguments[1], 0));
+
+        define(globals, "take", 2, (interpreter, paren, arguments) -> {
+            if (!(arguments[1] instanceof Double count) || count < 0 || count != Math.floor(count)) {
+                throw new Interpreter.RuntimeError(paren, "take() expects a whole number of elements.");
+            }
+            return sequence("take", paren, arguments[0]).then(SequenceValue.Kind.TAKE, null, (long) (double) count);
+        });
+
+        define(globals, "reduce", 3, (interpreter, paren, arguments) -> {
+            Object function = arguments[1];
+            Object[] pair = new Object[2];
+            pair[0] = arguments[2];
+            sequence("reduce", paren, arguments[0]).drain(interpreter, paren, value -> {
+                pair[1] = value;
+                pair[0] = interpreter.call(paren, function, pair);
+            });
+            return pair[0];
+        });
+
+        define(globals, "collect", 1, (interpreter, paren, arguments) -> {
+            ArrayValue array = new ArrayValue(0);
+            sequence("collect", paren, arguments[0]).drain(interpreter, paren, array::append);
+            return array;
+        });
+
+        define(globals, "open", 1, (interpreter, paren, arguments) -> {
+            if (!(arguments[0] instanceof String path)) throw new Interpreter.RuntimeError(paren, "open() expects the path of a file.");
+            try {
+                return ReaderValue.open(Path.of(path));
+            } catch (IOException | InvalidPathException e) {
+                throw new Interpreter.RuntimeError(paren, "Couldn't open '" + path + "'.");
+            }
+        });
+
+        define(globals, "readline", 1, (interpreter, paren, arguments) -> reader("readline", paren, arguments[0]).readLine(paren));
+
+        define(globals, "readrecord", 2, (interpreter, paren, arguments) -> {
+            ReaderValue reader = reader("readrecord", paren, arguments[0]);
+            //The delimiter is found in the bytes, so it has to be one byte in UTF-8
+            if (!(arguments[1] instanceof String delimiter) || delimiter.length() != 1 || delimiter.charAt(0) > 127) {
+                throw new Interpreter.RuntimeError(paren, "The delimiter of a record is one ASCII character.");
+            }
+            return reader.readRecord(paren, (byte) delimiter.charAt(0));
+        });
+
+        define(globals, "field", 2, (interpreter, paren, arguments) ->
+                record("field", paren, arguments[0]).field(paren, fieldIndex(paren, arguments[1])));
+        define(globals, "fieldnum", 2, (interpreter, paren, arguments) ->
+                record("fieldnum", paren, arguments[0]).number(paren, fieldIndex(paren, arguments[1])));
+
+        define(globals, "java", 1, (interpreter, paren, arguments) -> {
+            if (!(arguments[0] instanceof String name)) throw new Interpreter.RuntimeError(paren, "java() expects the name of a class.");
+            return JavaClassValue.forName(paren, name);
+        });
+
+        define(globals, "spawn", 1, (interpreter, paren, arguments) -> {
+            boolean takesNothing = arguments[0] instanceof Closure closure ? closure.arity() == 0
+                    : arguments[0] instanceof Builtin builtin && builtin.arity == 0;
+            if (!takesNothing) throw new Interpreter.RuntimeError(paren, "spawn() expects a function without parameters.");
+            return TaskValue.spawn(paren, arguments[0], interpreter.out);
+        });
+
+        define(globals, "join", 1, (interpreter, paren, arguments) -> {
+            if (!(arguments[0] instanceof TaskValue task)) throw new Interpreter.RuntimeError(paren, "join() expects a task.");
+            return task.join(paren);
+        });
+
+        define(globals, "channel", 1, (interpreter, paren, arguments) -> {
+            if (!(arguments[0] instanceof Double capacity) || capacity < 1 || capacity != Math.floor(capacity)
+                    || capacity > Integer.MAX_VALUE) {
+                throw new Interpreter.RuntimeError(paren, "The capacity of a channel must be a whole number above 0.");
+            }
+            return new ChannelValue((int) (double) capacity);
+        });
+
+        define(globals, "send", 2, (interpreter, paren, arguments) -> {
+            channel("send", paren, arguments[0]).send(paren, arguments[1]);
+            return null;
+        });
+        define(globals, "receive", 1, (interpreter, paren, arguments) -> channel("receive", paren, arguments[0]).receive(paren));
+        define(globals, "close", 1, (interpreter, paren, arguments) -> {
+            if (arguments[0] instanceof ReaderValue reader) reader.close(paren);
+            else channel("close", paren, arguments[0]).close();
+            return null;
+        });
+
+        return globals;
+    }
+
+    private static ChannelValue channel(String builtin, TokenUtils.Token paren, Object argument) {
+        if (argument instanceof ChannelValue channel) return channel;
+        throw new Interpreter.RuntimeError(paren, builtin + "() expects a channel.");
+    }
+
+    //Arrays, buffers and readers (their lines) are the sources of sequences too
+    private static SequenceValue sequence(String builtin, TokenUtils.Token paren, Object argument) {
+        if (argument instanceof SequenceValue sequence) return sequence;
+        if (argument instanceof ArrayValue array) return SequenceValue.of(array);
+        if (argument instanceof BufferValue buffer) return SequenceValue.of(buffer);
+        if (argument instanceof ReaderValue reader) return SequenceValue.of(reader);
+        throw new Interpreter.RuntimeError(paren, builtin + "() expects a sequence, an array, a buffer or a reader.");
+    }
+
+    private static ReaderValue reader(String builtin, TokenUtils.Token paren, Object argument) {
+        if (argument instanceof ReaderValue reader) return reader;
+        throw new Interpreter.RuntimeError(paren, builtin + "() expects a reader.");
+    }
+
+    private static RecordValue record(String builtin, TokenUtils.Token paren, Object argument) {
+        if (argument instanceof RecordValue record) return record;
+        throw new Interpreter.RuntimeError(paren, builtin + "() expects a record.");
+    }
+
+    private static long fieldIndex(TokenUtils.Token paren, Object argument) {
+        if (!(argument instanceof Double index) || index != Math.floor(index)) {
+            throw new Interpreter.RuntimeError(paren, "A field is given by a whole number.");
+        }
+        return (long) (double) index;
+    }
+
+    private static BufferValue buffer(String builtin, TokenUtils.Token paren, Object argument) {
+        if (argument instanceof BufferValue buffer) return buffer;
+        throw new Interpreter.RuntimeError(paren, builtin + "() expects a buffer.");
+    }
+
+    private static BufferValue.ElementType elementType(TokenUtils.Token paren, Object argument) {
+        BufferValue.ElementType type = argument instanceof String name ? BufferValue.ElementType.named(name) : null;
+        if (type == null) {
+            throw new Interpreter.RuntimeError(paren, "The type of a buffer is one of f64, f32, i64, i32, i16 or u8.");
+        }
+        return type;
+    }
+
+    private static MapValue map(String builtin, TokenUtils.Token paren, Object argument) {
+        if (argument instanceof MapValue map) return map;
+        throw new Interpreter.RuntimeError(paren, builtin + "() expects a map.");
+    }
+
+    private static void define(Environment globals, String name, int arity, Builtin.Body body) {
+        globals.define(name, new Builtin(name, arity, body));
+    }
+}
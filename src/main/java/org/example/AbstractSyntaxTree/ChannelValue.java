@@ -0,0 +1,86 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue for tasks to hand values to each other: sending waits while it's full and receiving waits while
+ * it's empty. Once it's closed nothing more can be sent, and receiving gives nil when what was sent before has been
+ * received.
+ * <p>
+ * It waits on a lock instead of a monitor, since a virtual thread waiting inside a synchronized block keeps its
+ * carrier thread busy.
+ */
+public class ChannelValue {
+    private final Object[] buffer;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    ChannelValue(int capacity) {
+        this.buffer = new Object[capacity];
+    }
+
+    void send(TokenUtils.Token paren, Object value) {
+        lock.lock();
+        try {
+            while (count == buffer.length && !closed) notFull.await();
+            if (closed) throw new Interpreter.RuntimeError(paren, "Can't send to a closed channel.");
+
+            buffer[(head + count) % buffer.length] = value;
+            count++;
+            notEmpty.signal();
+        } catch (InterruptedException e) {
+            throw interrupted(paren);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object receive(TokenUtils.Token paren) {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) notEmpty.await();
+            if (count == 0) return null;
+
+            Object value = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return value;
+        } catch (InterruptedException e) {
+            throw interrupted(paren);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Wakes up everyone waiting: the receivers get nil and the senders fail
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Interpreter.RuntimeError interrupted(TokenUtils.Token paren) {
+        Thread.currentThread().interrupt();
+        return new Interpreter.RuntimeError(paren, "Interrupted while waiting on a channel.");
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.AbstractSyntaxTree;
+
+/**
+ * A function value. It doesn't keep the frame it was created in: the variables of the enclosing functions it uses
+ * are copied into {@link #captured} when it's created, and only the ones that can still change after that are
+ * shared, through a {@link Cell}. The names that aren't variables of any function (the globals, mostly) are looked
+ * up by name from the environment it was created in.
+ */
+public class Closure {
+    final Expression.FunctionExpression declaration;
+    final Object[] captured;
+    final Environment env;
+
+    Closure(Expression.FunctionExpression declaration, Object[] captured, Environment env) {
+        this.declaration = declaration;
+        this.captured = captured;
+        this.env = env;
+    }
+
+    int arity() {
+        return declaration.params.size();
+    }
+
+    @Override
+    public String toString() {
+        return declaration.name != null ? "<fn " + declaration.name.getValue() + ">" : "<fn>";
+    }
+
+    /**
+     * The storage of a variable that is captured by a closure and assigned after that, so the function that declares
+     * it and every closure that captured it see the same value.
+     */
+    static final class Cell {
+        Object value;
+
+        Cell(Object value) {
+            this.value = value;
+        }
+    }
+}
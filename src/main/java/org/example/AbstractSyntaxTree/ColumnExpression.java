@@ -0,0 +1,370 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.Lexer;
+import org.example.Lexer.TokenUtils;
+import org.example.Lexer.TokenUtils.TokenType;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An expression evaluated over columns of rows instead of one row at a time: the variables it reads are given as
+ * {@code double[]} or {@code boolean[]} (or as a number or a boolean, the same for every row) and it gives back a
+ * column with its value for each row. Only numbers, booleans, arithmetic, comparisons, {@code !} and the logical
+ * operators can be in it, so nothing in it has side effects.
+ * <p>
+ * Every node of the expression is computed for a block of rows before the node above it, with loops over primitive
+ * arrays that don't box anything and that the JIT turns into SIMD instructions. The blocks are small enough for the
+ * columns of the nodes to stay in the cache, and those are only allocated once for each evaluation.
+ * <p>
+ * The results are those of the interpreter: {@code ==} compares like {@link Double#equals}, numbers are true for
+ * the logical operators, and a type error is reported at the operator, before any row is computed.
+ */
+public final class ColumnExpression {
+    static final int BLOCK = 1024;
+
+    private final Expression expr;
+
+    private ColumnExpression(Expression expr) {
+        this.expr = expr;
+    }
+
+    public static ColumnExpression of(Expression expr) {
+        check(expr);
+        return new ColumnExpression(expr);
+    }
+
+    //The source is a single expression, without the semicolon
+    public static ColumnExpression parse(String source) {
+        Lexer lex = new Lexer(source + ";");
+        List<TokenUtils.Token> tokens = lex.readUntilEOF();
+        if (lex.hadError()) throw new IllegalArgumentException("'" + source + "' doesn't lex.");
+
+        Parser parser = new Parser(tokens);
+        List<Statement> statements = parser.parse();
+        if (parser.hadErrors() || statements.size() != 1 || !(statements.get(0) instanceof Statement.ExpressionStatement st)) {
+            throw new IllegalArgumentException("'" + source + "' isn't an expression.");
+        }
+        return of(st.expr);
+    }
+
+    public double[] numbers(Map<String, ?> columns) {
+        Batch batch = new Batch(columns);
+        Node root = batch.bind(expr);
+        if (root.numbers == null) throw new IllegalArgumentException("The expression gives booleans, not numbers.");
+
+        double[] result = new double[batch.rows];
+        for (int from = 0; from < batch.rows; from += BLOCK) {
+            int count = Math.min(BLOCK, batch.rows - from);
+            root.compute(from, count);
+            System.arraycopy(root.numbers, 0, result, from, count);
+        }
+        return result;
+    }
+
+    public boolean[] conditions(Map<String, ?> columns) {
+        Batch batch = new Batch(columns);
+        Node root = batch.bind(expr);
+        if (root.flags == null) throw new IllegalArgumentException("The expression gives numbers, not booleans.");
+
+        boolean[] result = new boolean[batch.rows];
+        for (int from = 0; from < batch.rows; from += BLOCK) {
+            int count = Math.min(BLOCK, batch.rows - from);
+            root.compute(from, count);
+            System.arraycopy(root.flags, 0, result, from, count);
+        }
+        return result;
+    }
+
+    private static void check(Expression expr) {
+        if (expr instanceof Expression.GroupingExpression group) {
+            check(group.expr);
+        } else if (expr instanceof Expression.UnaryExpression unary) {
+            check(unary.right);
+        } else if (expr instanceof Expression.BinaryExpression bin) {
+            check(bin.left);
+            check(bin.right);
+        } else if (expr instanceof Expression.LogicalExpression logic) {
+            check(logic.left);
+            check(logic.right);
+        } else if (expr instanceof Expression.LiteralExpression literal) {
+            if (!(literal.value instanceof Double) && !(literal.value instanceof Boolean)) {
+                throw new IllegalArgumentException("Columns only hold numbers and booleans, not " + literal + ".");
+            }
+        } else if (!(expr instanceof Expression.VarExpression)) {
+            throw new IllegalArgumentException("Can't evaluate " + expr + " over columns.");
+        }
+    }
+
+    //The columns of one evaluation, and the nodes bound to them
+    private static final class Batch {
+        private final Map<String, ?> columns;
+        private int rows = -1;
+
+        Batch(Map<String, ?> columns) {
+            this.columns = columns;
+            for (Map.Entry<String, ?> column : columns.entrySet()) {
+                int length;
+                if (column.getValue() instanceof double[] numbers) length = numbers.length;
+                else if (column.getValue() instanceof boolean[] flags) length = flags.length;
+                else continue;
+
+                if (rows >= 0 && length != rows) {
+                    throw new IllegalArgumentException("The column '" + column.getKey() + "' has " + length
+                            + " rows, the others have " + rows + ".");
+                }
+                rows = length;
+            }
+            if (rows < 0) throw new IllegalArgumentException("There's no column to take the rows from.");
+        }
+
+        Node bind(Expression expr) {
+            if (expr instanceof Expression.GroupingExpression group) return bind(group.expr);
+
+            if (expr instanceof Expression.LiteralExpression literal) return constant(literal.value);
+
+            if (expr instanceof Expression.VarExpression var) {
+                String name = var.name.getValue();
+                if (!columns.containsKey(name)) throw new Interpreter.RuntimeError(var.name, "Undefined variable '" + name + "'.");
+
+                Object column = columns.get(name);
+                if (column instanceof double[] numbers) return new NumberColumn(numbers);
+                if (column instanceof boolean[] flags) return new FlagColumn(flags);
+                if (column instanceof Number number) return constant(number.doubleValue());
+                if (column instanceof Boolean flag) return constant(flag);
+                throw new IllegalArgumentException("'" + name + "' is neither a column nor a number or a boolean.");
+            }
+
+            if (expr instanceof Expression.UnaryExpression unary) {
+                Node right = bind(unary.right);
+                if (unary.operator.getTokenType() == TokenType.Bang) return new Not(truthy(right));
+                if (right.numbers == null) throw new Interpreter.RuntimeError(unary.operator, "Operand must be a number");
+                return new Negate(right);
+            }
+
+            if (expr instanceof Expression.LogicalExpression logic) {
+                return new Logical(logic.operator.getTokenType(), truthy(bind(logic.left)), truthy(bind(logic.right)));
+            }
+
+            Expression.BinaryExpression bin = (Expression.BinaryExpression) expr;
+            Node left = bind(bin.left);
+            Node right = bind(bin.right);
+            if (left.numbers == null || right.numbers == null) {
+                String message = bin.operator.getTokenType() == TokenType.Plus
+                        ? "Operands must be two numbers or two strings."
+                        : "Operand must be a number";
+                throw new Interpreter.RuntimeError(bin.operator, message);
+            }
+
+            return switch (bin.operator.getTokenType()) {
+                case Plus, Minus, Star, Slash -> new Arithmetic(bin.operator.getTokenType(), left, right);
+                default -> new Comparison(bin.operator.getTokenType(), left, right);
+            };
+        }
+
+        //Numbers are always true, a column of them is as good as a constant
+        private Node truthy(Node node) {
+            return node.flags != null ? node : constant(true);
+        }
+
+        private static Node constant(Object value) {
+            Node node = value instanceof Double ? new Constant(new double[BLOCK], null) : new Constant(null, new boolean[BLOCK]);
+            if (value instanceof Double number) Arrays.fill(node.numbers, number);
+            else Arrays.fill(node.flags, (Boolean) value);
+            return node;
+        }
+    }
+
+    /**
+     * A node of the expression, with the values of the block it last computed in one of its two arrays (the other is
+     * null, and tells its type).
+     */
+    private abstract static class Node {
+        final double[] numbers;
+        final boolean[] flags;
+
+        Node(double[] numbers, boolean[] flags) {
+            this.numbers = numbers;
+            this.flags = flags;
+        }
+
+        //Computes the rows from `from` on, into the first `count` elements of its array
+        abstract void compute(int from, int count);
+    }
+
+    private static final class Constant extends Node {
+        Constant(double[] numbers, boolean[] flags) {
+            super(numbers, flags);
+        }
+
+        @Override
+        void compute(int from, int count) {
+        }
+    }
+
+    private static final class NumberColumn extends Node {
+        private final double[] column;
+
+        NumberColumn(double[] column) {
+            super(new double[BLOCK], null);
+            this.column = column;
+        }
+
+        @Override
+        void compute(int from, int count) {
+            System.arraycopy(column, from, numbers, 0, count);
+        }
+    }
+
+    private static final class FlagColumn extends Node {
+        private final boolean[] column;
+
+        FlagColumn(boolean[] column) {
+            super(null, new boolean[BLOCK]);
+            this.column = column;
+        }
+
+        @Override
+        void compute(int from, int count) {
+            System.arraycopy(column, from, flags, 0, count);
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node right;
+
+        Negate(Node right) {
+            super(new double[BLOCK], null);
+            this.right = right;
+        }
+
+        @Override
+        void compute(int from, int count) {
+            right.compute(from, count);
+            double[] r = right.numbers;
+            for (int i = 0; i < count; i++) numbers[i] = -r[i];
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node right;
+
+        Not(Node right) {
+            super(null, new boolean[BLOCK]);
+            this.right = right;
+        }
+
+        @Override
+        void compute(int from, int count) {
+            right.compute(from, count);
+            boolean[] r = right.flags;
+            for (int i = 0; i < count; i++) flags[i] = !r[i];
+        }
+    }
+
+    //The loops are one for each operator, so there's nothing in them but the operation
+    private static final class Arithmetic extends Node {
+        private final TokenType operator;
+        private final Node left;
+        private final Node right;
+
+        Arithmetic(TokenType operator, Node left, Node right) {
+            super(new double[BLOCK], null);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void compute(int from, int count) {
+            left.compute(from, count);
+            right.compute(from, count);
+            double[] l = left.numbers;
+            double[] r = right.numbers;
+            switch (operator) {
+                case Plus -> {
+                    for (int i = 0; i < count; i++) numbers[i] = l[i] + r[i];
+                }
+                case Minus -> {
+                    for (int i = 0; i < count; i++) numbers[i] = l[i] - r[i];
+                }
+                case Star -> {
+                    for (int i = 0; i < count; i++) numbers[i] = l[i] * r[i];
+                }
+                default -> {
+                    for (int i = 0; i < count; i++) numbers[i] = l[i] / r[i];
+                }
+            }
+        }
+    }
+
+    private static final class Comparison extends Node {
+        private final TokenType operator;
+        private final Node left;
+        private final Node right;
+
+        Comparison(TokenType operator, Node left, Node right) {
+            super(null, new boolean[BLOCK]);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void compute(int from, int count) {
+            left.compute(from, count);
+            right.compute(from, count);
+            double[] l = left.numbers;
+            double[] r = right.numbers;
+            switch (operator) {
+                case Greater -> {
+                    for (int i = 0; i < count; i++) flags[i] = l[i] > r[i];
+                }
+                case Greater_Equal -> {
+                    for (int i = 0; i < count; i++) flags[i] = l[i] >= r[i];
+                }
+                case Less -> {
+                    for (int i = 0; i < count; i++) flags[i] = l[i] < r[i];
+                }
+                case Less_Equal -> {
+                    for (int i = 0; i < count; i++) flags[i] = l[i] <= r[i];
+                }
+                //Like Double.equals, NaN is equal to itself and 0 isn't equal to -0
+                case Equal_Equal -> {
+                    for (int i = 0; i < count; i++) flags[i] = Double.doubleToLongBits(l[i]) == Double.doubleToLongBits(r[i]);
+                }
+                default -> {
+                    for (int i = 0; i < count; i++) flags[i] = Double.doubleToLongBits(l[i]) != Double.doubleToLongBits(r[i]);
+                }
+            }
+        }
+    }
+
+    //Both sides are computed, without side effects that's the same as stopping at the first one
+    private static final class Logical extends Node {
+        private final TokenType operator;
+        private final Node left;
+        private final Node right;
+
+        Logical(TokenType operator, Node left, Node right) {
+            super(null, new boolean[BLOCK]);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void compute(int from, int count) {
+            left.compute(from, count);
+            right.compute(from, count);
+            boolean[] l = left.flags;
+            boolean[] r = right.flags;
+            if (operator == TokenType.Or) {
+                for (int i = 0; i < count; i++) flags[i] = l[i] | r[i];
+            } else {
+                for (int i = 0; i < count; i++) flags[i] = l[i] & r[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.example.AbstractSyntaxTree;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A parsed program that has been optimized and resolved once, and can then run any number of times, on any number of
+ * threads at once.
+ * <p>
+ * The tree isn't changed by running it. The interpreter does keep some caches in its nodes, but those only hold
+ * immutable values that are the same for every run (constant subtrees, the shapes of struct literals, the slots of
+ * fields) or are only compared against (the function a call site called last), so runs racing on them are harmless.
+ * Everything else a run changes is in its interpreter: the environments, the frames of the calls and the errors.
+ * <p>
+ * Each run gets its own globals, and an interpreter that some earlier run has finished with, if there's one.
+ * <p>
+ * The modules it imports are loaded when it's compiled, and the runs use those versions of them.
+ * <p>
+ * With -Dtekla.ssa=true, a program that can be lowered to {@link Ir} (no functions, calls, imports, arrays, maps or
+ * structs) is also lowered and optimized in SSA form when it's compiled, and runs in the {@link IrInterpreter}. Any
+ * other program, and the evaluations that want a value back, still run in the interpreter.
+ */
+public final class CompiledProgram {
+    private final List<Statement> statements;
+    //The program in SSA form, or null when it runs in the interpreter
+    private final Ir.Program ir;
+    //Interpreters that finished a run, ready for the next one
+    private final ConcurrentLinkedQueue<Interpreter> idle = new ConcurrentLinkedQueue<>();
+
+    private CompiledProgram(List<Statement> statements, Ir.Program ir) {
+        this.statements = statements;
+        this.ir = ir;
+    }
+
+    //The statements must come from a parse without errors, and can't be used for anything else afterwards
+    public static CompiledProgram compile(List<Statement> statements) {
+        return compile(statements, Path.of(""));
+    }
+
+    //Like compile(statements), with the paths it imports relative to directory instead of the working directory
+    public static CompiledProgram compile(List<Statement> statements, Path directory) {
+        Modules.load(statements, directory);
+        //Lowered from the tree as it was parsed, the passes below annotate it for the interpreter alone
+        Ir.Program ir = "true".equals(System.getProperty("tekla.ssa")) ? lower(statements) : null;
+        Optimizer.optimize(statements);
+        new Resolver().resolve(statements);
+        return new CompiledProgram(List.copyOf(statements), ir);
+    }
+
+    private static Ir.Program lower(List<Statement> statements) {
+        try {
+            return IrOptimizer.optimize(IrBuilder.build(statements));
+        } catch (IrBuilder.Unsupported e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs the program on the calling thread, printing its runtime errors if it has any. Gives back whether it ran
+     * without them.
+     */
+    public boolean run() {
+        return run(System.out);
+    }
+
+    //Like run(), with what the program prints (its errors too) going to out
+    public boolean run(PrintStream out) {
+        return run(Builtins.globals(), out);
+    }
+
+    //Like run(out), starting from the globals a prelude left instead of the builtins alone
+    public boolean run(Snapshot prelude, PrintStream out) {
+        return run(prelude.globals(), out);
+    }
+
+    /**
+     * Runs the program as a prelude, and gives back the globals it left. Null when it has runtime errors, or leaves
+     * something in its globals that a snapshot can't keep, which is printed to out.
+     */
+    public Snapshot snapshot(PrintStream out) {
+        Environment globals = Builtins.globals();
+        if (!run(globals, out)) return null;
+
+        try {
+            return Snapshot.of(globals);
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean run(Environment globals, PrintStream out) {
+        if (ir != null) {
+            IrInterpreter interpreter = new IrInterpreter(globals, out);
+            interpreter.interpret(ir);
+            if (interpreter.hadError()) interpreter.printErrors();
+            return !interpreter.hadError();
+        }
+
+        Interpreter interpreter = interpreter(globals, out);
+        try {
+            interpreter.run(statements);
+            if (interpreter.hadError()) interpreter.printErrors();
+            return !interpreter.hadError();
+        } finally {
+            idle.offer(interpreter);
+        }
+    }
+
+    //Runs the program with the globals it's given, see Interpreter.eval
+    Object eval(Environment globals, PrintStream out) {
+        Interpreter interpreter = interpreter(globals, out);
+        try {
+            return interpreter.eval(statements);
+        } finally {
+            idle.offer(interpreter);
+        }
+    }
+
+    List<Statement> statements() {
+        return statements;
+    }
+
+    private Interpreter interpreter(Environment globals, PrintStream out) {
+        Interpreter interpreter = idle.poll();
+        if (interpreter == null) {
+            interpreter = new Interpreter(globals);
+            interpreter.out = out;
+        } else {
+            interpreter.reset(globals, out);
+        }
+        return interpreter;
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.AbstractSyntaxTree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The global scope, which every thread of a program shares: the tasks, the ranges of parallel loops and whatever
+ * runs scripts on several threads at once.
+ * <p>
+ * Every variable has a slot of its own, found through a concurrent map. Reading a variable takes no lock (a lookup
+ * and a volatile read), and writing one only writes its slot, so threads that touch different variables never wait
+ * for each other. Compound assignments compare-and-set the slot with what they read, and are done again on the new
+ * value when another thread got there first, so shared counters don't lose increments. That's unless their right
+ * side calls a function or assigns the variable itself: then the variable may have changed on the same thread, and
+ * the update is written without comparing.
+ * <p>
+ * Globals can also be layered over builtins that are made once and shared by every run: those are found through them
+ * but never written, a builtin that's assigned is copied into the globals first.
+ */
+class ConcurrentEnvironment extends Environment {
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+
+    ConcurrentEnvironment() {
+        super(null, null);
+    }
+
+    //Globals over the shared builtins, which only this environment encloses
+    ConcurrentEnvironment(Environment builtins) {
+        super(builtins, null);
+    }
+
+    @Override
+    public void define(String name, Object value) {
+        Slot slot = slots.get(name);
+        if (slot == null) {
+            slot = slots.putIfAbsent(name, new Slot(value));
+            if (slot == null) return;
+        }
+        Slot.VALUE.setRelease(slot, value);
+    }
+
+    @Override
+    Environment holder(String name) {
+        if (slots.containsKey(name)) return this;
+        if (enclosing == null) return null;
+
+        Object builtin = enclosing.find(name);
+        if (builtin == ABSENT) return null;
+        //Another thread may have copied it already, and maybe updated it since
+        slots.putIfAbsent(name, new Slot(builtin));
+        return this;
+    }
+
+    @Override
+    Object getLocal(String name) {
+        Slot slot = slots.get(name);
+        return slot == null ? null : Slot.VALUE.getAcquire(slot);
+    }
+
+    @Override
+    Map<String, Object> variables() {
+        Map<String, Object> variables = new HashMap<>();
+        slots.forEach((name, slot) -> variables.put(name, Slot.VALUE.getAcquire(slot)));
+        return variables;
+    }
+
+    @Override
+    Object find(String name) {
+        Slot slot = slots.get(name);
+        return slot == null ? ABSENT : Slot.VALUE.getAcquire(slot);
+    }
+
+    @Override
+    boolean replace(String name, Object expected, Object value) {
+        Slot slot = slots.get(name);
+        return slot != null && Slot.VALUE.compareAndSet(slot, expected, value);
+    }
+
+    private static final class Slot {
+        static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(Slot.class, "value", Object.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        //Read with acquire and written with release, that's enough for a thread to see what it was given whole
+        private Object value;
+
+        Slot(Object value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils.TokenType;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Recognizes the classic for loops that just count, {@code for (let i = a; i < b; i = i + step)} (or with {@code <=}
+ * and any positive literal step, also written {@code i += step} or {@code i++}), so they run as a
+ * {@link Statement.ForRangeStatement} instead of a while loop that reads, compares and assigns {@code i} through the
+ * environment on every iteration.
+ * <p>
+ * That only gives the same result when {@code b} is the same on every iteration and nothing else moves the counter:
+ * the body must not declare or assign {@code i}, nor continue the loop (a continue skips the increment of a for
+ * loop), and {@code b} must not assign anything nor read {@code i}, what the body changes or what an array, a map
+ * or a struct holds (which changes without assigning any variable). A call may change any variable, so when the
+ * body or {@code b} calls a function, {@code b} can't read variables at all.
+ * <p>
+ * The body can't have a function that reads {@code i} either: it would capture the one variable of the while loop,
+ * which ends up past the last value, while a range loop gives each iteration a variable of its own.
+ */
+class CountedLoops {
+
+    static Statement.ForRangeStatement recognize(Statement.LetStatement initializer, Expression condition,
+                                                 Expression increment, Statement body) {
+        if (initializer.initializer == null || condition == null || increment == null) return null;
+
+        String name = initializer.name.getValue();
+        if (!(unwrap(condition) instanceof Expression.BinaryExpression comparison)) return null;
+
+        TokenType type = comparison.operator.getTokenType();
+        if (type != TokenType.Less && type != TokenType.Less_Equal) return null;
+        if (!isVar(comparison.left, name)) return null;
+
+        Double step = step(increment, name);
+        if (step == null) return null;
+
+        LoopInvariantCodeMotion.AssignedNames assigned = new LoopInvariantCodeMotion.AssignedNames();
+        assigned.scan(body);
+        if (assigned.names.contains(name)) return null;
+
+        Reads bound = new Reads();
+        bound.scan(comparison.right);
+        if (bound.assigns || bound.readsContents || bound.names.contains(name)) return null;
+        boolean calls = LoopInvariantCodeMotion.Calls.in(comparison.right) || LoopInvariantCodeMotion.Calls.in(body);
+        if (calls && !bound.names.isEmpty()) return null;
+        for (String read : bound.names) {
+            if (assigned.names.contains(read)) return null;
+        }
+
+        Continues continues = new Continues();
+        continues.scan(body);
+        if (continues.found) return null;
+
+        if (captures(body, name)) return null;
+
+        return new Statement.ForRangeStatement(initializer.name, initializer.initializer, comparison.right,
+                comparison.operator, step, body);
+    }
+
+    /**
+     * Whether the statement reads the variable anywhere (or a variable that shadows it, which is fine for those
+     * that only want to know if they can skip defining it).
+     */
+    static boolean reads(Statement statement, String name) {
+        Reads reads = new Reads();
+        reads.scan(statement);
+        return reads.names.contains(name);
+    }
+
+    //Whether a function declared in the statement reads the variable (or a variable that shadows it)
+    static boolean captures(Statement statement, String name) {
+        Captures captures = new Captures(name);
+        captures.scan(statement);
+        return captures.found;
+    }
+
+    //The step of an increment like i = i + 1, i += 1 or i++, if that's what it is
+    static Double step(Expression increment, String name) {
+        if (increment instanceof Expression.CompoundAssignExpression compound) {
+            if (!compound.name.getValue().equals(name)) return null;
+            if (compound.operator.getTokenType() != TokenType.Plus) return null;
+            if (!(unwrap(compound.value) instanceof Expression.LiteralExpression lit)) return null;
+            if (!(lit.value instanceof Double step) || !(step > 0)) return null;
+
+            return step;
+        }
+
+        if (!(increment instanceof Expression.AssignExpression assign)) return null;
+        if (!assign.name.getValue().equals(name)) return null;
+        if (!(unwrap(assign.value) instanceof Expression.BinaryExpression bin)) return null;
+        if (bin.operator.getTokenType() != TokenType.Plus || !isVar(bin.left, name)) return null;
+        if (!(unwrap(bin.right) instanceof Expression.LiteralExpression lit)) return null;
+        if (!(lit.value instanceof Double step) || !(step > 0)) return null;
+
+        return step;
+    }
+
+    private static boolean isVar(Expression expr, String name) {
+        return unwrap(expr) instanceof Expression.VarExpression var && var.name.getValue().equals(name);
+    }
+
+    private static Expression unwrap(Expression expr) {
+        while (expr instanceof Expression.GroupingExpression group) expr = group.expr;
+        return expr;
+    }
+
+    private static class Reads extends AstScanner {
+        final Set<String> names = new HashSet<>();
+        boolean assigns = false;
+        //Elements and fields can change without assigning any variable
+        boolean readsContents = false;
+
+        @Override
+        public Void visitIndexExpression(Expression.IndexExpression indexExpr) {
+            readsContents = true;
+            return super.visitIndexExpression(indexExpr);
+        }
+
+        @Override
+        public Void visitGetExpression(Expression.GetExpression getExpr) {
+            readsContents = true;
+            return super.visitGetExpression(getExpr);
+        }
+
+        @Override
+        public Void visitSetExpression(Expression.SetExpression setExpr) {
+            assigns = true;
+            return super.visitSetExpression(setExpr);
+        }
+
+        @Override
+        public Void visitIndexAssignExpression(Expression.IndexAssignExpression indexAssignExpr) {
+            assigns = true;
+            return super.visitIndexAssignExpression(indexAssignExpr);
+        }
+
+        @Override
+        public Void visitVarExpression(Expression.VarExpression varExpr) {
+            names.add(varExpr.name.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpression(Expression.AssignExpression assignExpr) {
+            assigns = true;
+            return super.visitAssignExpression(assignExpr);
+        }
+
+        @Override
+        public Void visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpr) {
+            names.add(compoundExpr.name.getValue());
+            assigns = true;
+            return super.visitCompoundAssignExpression(compoundExpr);
+        }
+    }
+
+    //Finds the functions that read the variable, or a variable that shadows it
+    private static class Captures extends AstScanner {
+        private final String name;
+        boolean found = false;
+
+        Captures(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Void visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+            Reads reads = new Reads();
+            reads.scan(functionExpr.body);
+            if (reads.names.contains(name)) found = true;
+            return null;
+        }
+    }
+
+    //Finds the continue statements that belong to the loop being scanned, not to one nested in it
+    private static class Continues extends AstScanner {
+        private int depth = 0;
+        boolean found = false;
+
+        @Override
+        public Void visitContinueStatement(Statement.ContinueStatement continueStatement) {
+            if (depth == 0) found = true;
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+            depth++;
+            super.visitWhileStatement(whileStatement);
+            depth--;
+            return null;
+        }
+
+        @Override
+        public Void visitForRangeStatement(Statement.ForRangeStatement forRangeStatement) {
+            depth++;
+            super.visitForRangeStatement(forRangeStatement);
+            depth--;
+            return null;
+        }
+    }
+}
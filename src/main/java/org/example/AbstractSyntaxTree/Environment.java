@@ -7,6 +7,9 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class Environment {
+    //What find gives back for a variable this environment doesn't hold, since nil is null
+    static final Object ABSENT = new Object();
+
     final Environment enclosing;
     private final Map<String, Object> values;
 
@@ -21,37 +24,73 @@ public class Environment {
         this.enclosing = enclosing;
     }
 
+    //For the environments that keep their variables some other way
+    Environment(Environment enclosing, Map<String, Object> values) {
+        this.values = values;
+        this.enclosing = enclosing;
+    }
+
     public void define(String name, Object value) {
         values.put(name, value);
     }
 
     public Object get(ValueToken<String> name) {
         String identifier = name.getValue();
-        if (values.containsKey(identifier)) {
-            return values.get(identifier);
+        for (Environment env = this; env != null; env = env.enclosing) {
+            Object value = env.find(identifier);
+            if (value != ABSENT) return value;
         }
 
-        if (enclosing != null) {
-            return enclosing.get(name);
+        throw new Interpreter.RuntimeError(name, "Undefined variable '" + identifier + "'.");
+    }
+
+    //The environment that holds the variable, so it can be read and written without looking it up twice
+    Environment resolve(ValueToken<String> name) {
+        String identifier = name.getValue();
+        for (Environment env = this; env != null; env = env.enclosing) {
+            Environment holder = env.holder(identifier);
+            if (holder != null) return holder;
         }
 
         throw new Interpreter.RuntimeError(name, "Undefined variable '" + identifier + "'.");
     }
 
-    public void assign(ValueToken<String> name, Object value) {
-        if (values.containsKey(name.getValue())) {
-            values.put(name.getValue(), value);
-            return;
-        }
+    //This environment, if it holds the variable itself, or null. It's where the variable is written when it's assigned
+    Environment holder(String name) {
+        return find(name) != ABSENT ? this : null;
+    }
 
-        Environment currEnv = this.enclosing;
-        while (currEnv != null) {
-            if (currEnv.values.containsKey(name.getValue())) {
-                currEnv.values.put(name.getValue(), value);
+    //Only for the variables this environment holds itself
+    Object getLocal(String name) {
+        return values.get(name);
+    }
+
+    //The variables this environment holds itself, by name
+    Map<String, Object> variables() {
+        return new HashMap<>(values);
+    }
+
+    //The value of a variable this environment holds itself, in a single lookup, or ABSENT
+    Object find(String name) {
+        return values.getOrDefault(name, ABSENT);
+    }
+
+    /**
+     * Writes a variable this environment holds, if it still holds what a compound assignment read from it. Only one
+     * thread uses the environments of blocks, so here it always does.
+     */
+    boolean replace(String name, Object expected, Object value) {
+        values.put(name, value);
+        return true;
+    }
+
+    public void assign(ValueToken<String> name, Object value) {
+        for (Environment env = this; env != null; env = env.enclosing) {
+            Environment holder = env.holder(name.getValue());
+            if (holder != null) {
+                holder.define(name.getValue(), value);
                 return;
             }
-
-            currEnv = currEnv.enclosing;
         }
 
         throw new RuntimeException("Tried to assign to an undefined variable '" + name.getValue() + "'.");
@@ -5,13 +5,28 @@ import org.example.Lexer.SimpleToken;
 import org.example.Lexer.TokenUtils;
 import org.example.Lexer.ValueToken;
 
+import java.util.List;
+
 public abstract class Expression {
+    //Set by ExpressionFactory.HashConsing on the subtrees whose value can never change
+    boolean constant = false;
+    //The value of a constant subtree, once the interpreter has computed it (nil values are never cached)
+    Object cachedValue;
 
     abstract <R> R accept(ExpressionVisitor<R> visitor);
 
+    /**
+     * What {@link TypeInference} proved about the operands of an operator. Anything but Unknown lets the interpreter
+     * skip the runtime type checks of that node.
+     */
+    enum OperandType {
+        Unknown, Number, String
+    }
+
     public static class UnaryExpression extends Expression {
         final TokenUtils.Token operator;
         final Expression right;
+        OperandType operandType = OperandType.Unknown;
 
         public UnaryExpression(TokenUtils.Token operator, Expression right) {
             this.right = right;
@@ -41,6 +56,7 @@ public abstract class Expression {
         final Expression left;
         final SimpleToken operator;
         final Expression right;
+        OperandType operandType = OperandType.Unknown;
 
         public BinaryExpression(Expression left, TokenUtils.Token operator, Expression right) {
             this.left = left;
@@ -70,6 +86,10 @@ public abstract class Expression {
 
     public static class VarExpression extends Expression {
         ValueToken<String> name;
+        //Set by the Resolver: the slot of the variable in the frame of its function, or -1 to look it up by name
+        int slot = -1;
+        //Whether the slot holds a Closure.Cell shared with the closures that capture the variable
+        boolean boxed;
 
         public VarExpression(ValueToken<String> name) {
             this.name = name;
@@ -84,6 +104,9 @@ public abstract class Expression {
     public static class AssignExpression extends Expression {
         ValueToken<String> name;
         Expression value;
+        //Same as in VarExpression
+        int slot = -1;
+        boolean boxed;
 
         public AssignExpression(ValueToken<String> name, Expression value) {
             this.name = name;
@@ -97,6 +120,241 @@ public abstract class Expression {
         }
     }
 
+    /**
+     * {@code x += value} (and -=, *=, /=), {@code ++x} and {@code x++} (and --). The operator is the arithmetic one,
+     * and a postfix increment evaluates to the value the variable had before.
+     */
+    public static class CompoundAssignExpression extends Expression {
+        final ValueToken<String> name;
+        final SimpleToken operator;
+        final Expression value;
+        final boolean postfix;
+        OperandType operandType = OperandType.Unknown;
+        //Same as in VarExpression
+        int slot = -1;
+        boolean boxed;
+        //The value can't change the variable itself, so when another thread changes a global in between, the update
+        //can be done again on what it wrote. Otherwise it's done once, the same as with a single thread
+        final boolean retryable;
+
+        public CompoundAssignExpression(ValueToken<String> name, TokenUtils.Token operator, Expression value,
+                                        boolean postfix) {
+            this.name = name;
+            this.operator = (SimpleToken) operator;
+            this.value = value;
+            this.postfix = postfix;
+
+            LoopInvariantCodeMotion.AssignedNames assigned = new LoopInvariantCodeMotion.AssignedNames();
+            assigned.scan(value);
+            this.retryable = !assigned.names.contains(name.getValue()) && !LoopInvariantCodeMotion.Calls.in(value);
+        }
+
+        @Override
+        public <R> R accept(ExpressionVisitor<R> visitor) {
+            return visitor.visitCompoundAssignExpression(this);
+        }
+    }
+
+    public static class CallExpression extends Expression {
+        final Expression callee;
+        //The closing parenthesis, where the errors of the call are reported
+        final TokenUtils.Token paren;
+        final List<Expression> arguments;
+        //The last function called from here, already checked to be callable with these arguments
+        Closure cachedCallee;
+        //The last Java method or constructor called from here, for the classes of the arguments it was called with
+        JavaTarget javaTarget;
+
+        public CallExpression(Expression callee, TokenUtils.Token paren, List<Expression> arguments) {
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public <R> R accept(ExpressionVisitor<R> visitor) {
+            return visitor.visitCallExpression(this);
+        }
+    }
+
+    /**
+     * A function, named when it comes from a {@link Statement.FunctionStatement}. Evaluating it creates a
+     * {@link Closure}.
+     */
+    public static class FunctionExpression extends Expression {
+        final ValueToken<String> name;
+        final List<ValueToken<String>> params;
+        final List<Statement> body;
+        //Set by the Resolver: the params are the first slots of the frame
+        int frameSize;
+        boolean[] boxedParams;
+        //What the closure copies from the frame it is created in, and where each one goes in the frame of a call
+        int[] captureFrom;
+        int[] captureTo;
+
+        public FunctionExpression(ValueToken<String> name, List<ValueToken<String>> params, List<Statement> body) {
+            this.name = name;
+            this.params = params;
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(ExpressionVisitor<R> visitor) {
+            return visitor.visitFunctionExpression(this);
+        }
+    }
+
+    public static class ArrayExpression extends Expression {
+        final TokenUtils.Token bracket;
+        final List<Expression> elements;
+
+        public ArrayExpression(TokenUtils.Token bracket, List<Expression> elements) {
+            this.bracket = bracket;
+            this.elements = elements;
+        }
+
+        @Override
+        public <R> R accept(ExpressionVisitor<R> visitor) {
+            return visitor.visitArrayExpression(this);
+        }
+    }
+
+    public static class MapExpression extends Expression {
+        final TokenUtils.Token brace;
+        final List<Expression> keys;
+        final List<Expression> values;
+
+        public MapExpression(TokenUtils.Token brace, List<Expression> keys, List<Expression> values) {
+            this.brace = brace;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public <R> R accept(ExpressionVisitor<R> visitor) {
+            return visitor.visitMapExpression(this);
+        }
+    }
+
+    public static class StructExpression extends Expression {
+        final TokenUtils.Token keyword;
+        final List<ValueToken<String>> names;
+        final List<Expression> values;
+        //The shape of the structs it creates, found the first time it runs
+        Shape shape;
+
+        public StructExpression(TokenUtils.Token keyword, List<ValueToken<String>> names, List<Expression> values) {
+            this.keyword = keyword;
+            this.names = names;
+            this.values = values;
+        }
+
+        @Override
+        public <R> R accept(ExpressionVisitor<R> visitor) {
+            return visitor.visitStructExpression(this);
+        }
+    }
+
+    public static class GetExpression extends Expression {
+        final Expression object;
+        final ValueToken<String> name;
+        //Inline cache, where the field was in the last struct read here
+        FieldCache cache;
+
+        public GetExpression(Expression object, ValueToken<String> name) {
+            this.object = object;
+            this.name = name;
+        }
+
+        @Override
+        public <R> R accept(ExpressionVisitor<R> visitor) {
+            return visitor.visitGetExpression(this);
+        }
+    }
+
+    /**
+     * Assigns a field, with an operator like IndexAssignExpression.
+     */
+    public static class SetExpression extends Expression {
+        final Expression object;
+        final ValueToken<String> name;
+        final TokenUtils.Token operator;
+        final Expression value;
+        final boolean postfix;
+        //Same as in GetExpression
+        FieldCache cache;
+
+        public SetExpression(Expression object, ValueToken<String> name, TokenUtils.Token operator, Expression value,
+                             boolean postfix) {
+            this.object = object;
+            this.name = name;
+            this.operator = operator;
+            this.value = value;
+            this.postfix = postfix;
+        }
+
+        @Override
+        public <R> R accept(ExpressionVisitor<R> visitor) {
+            return visitor.visitSetExpression(this);
+        }
+    }
+
+    /**
+     * The slot of a field in the structs of a shape. When an assignment adds the field, next is the shape the struct
+     * goes to (otherwise it's the same shape). It's replaced as a whole, so a thread never sees half of it.
+     */
+    record FieldCache(Shape shape, int slot, Shape next) {
+    }
+
+    /**
+     * Reads an element of an array, or the value of a key in a map.
+     */
+    public static class IndexExpression extends Expression {
+        final Expression object;
+        //The opening bracket, where the errors of the indexing are reported
+        final TokenUtils.Token bracket;
+        final Expression index;
+
+        public IndexExpression(Expression object, TokenUtils.Token bracket, Expression index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        public <R> R accept(ExpressionVisitor<R> visitor) {
+            return visitor.visitIndexExpression(this);
+        }
+    }
+
+    /**
+     * {@code a[i] = v}, and also {@code a[i] += v} or {@code a[i]++} when it has an operator (the arithmetic one, like
+     * in CompoundAssignExpression).
+     */
+    public static class IndexAssignExpression extends Expression {
+        final Expression object;
+        final TokenUtils.Token bracket;
+        final Expression index;
+        final TokenUtils.Token operator;
+        final Expression value;
+        final boolean postfix;
+
+        public IndexAssignExpression(Expression object, TokenUtils.Token bracket, Expression index,
+                                     TokenUtils.Token operator, Expression value, boolean postfix) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.operator = operator;
+            this.value = value;
+            this.postfix = postfix;
+        }
+
+        @Override
+        public <R> R accept(ExpressionVisitor<R> visitor) {
+            return visitor.visitIndexAssignExpression(this);
+        }
+    }
+
     public static class LogicalExpression extends Expression {
         Expression left;
         SimpleToken operator;
@@ -113,4 +371,26 @@ public abstract class Expression {
             return visitor.visitLogicalExpression(this);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A loop-invariant subexpression that was moved out of a loop by {@link LoopInvariantCodeMotion}.
+     * Its value lives in a pre-header binding declared by the enclosing loop, and is computed the first
+     * time the loop actually needs it, so errors and never-taken branches behave as before.
+     */
+    public static class HoistedExpression extends Expression {
+        ValueToken<String> name;
+        Expression expr;
+        //Inside a function the binding is a slot of its frame, see VarExpression
+        int slot = -1;
+
+        public HoistedExpression(ValueToken<String> name, Expression expr) {
+            this.name = name;
+            this.expr = expr;
+        }
+
+        @Override
+        public <R> R accept(ExpressionVisitor<R> visitor) {
+            return visitor.visitHoistedExpression(this);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+import org.example.Lexer.TokenUtils.TokenType;
+import org.example.Lexer.ValueToken;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Creates the expression nodes for the {@link Parser}. This one allocates a new node every time, {@link HashConsing}
+ * gives back the same node for structurally identical subexpressions.
+ */
+class ExpressionFactory {
+
+    Expression literal(Object value) {
+        return new Expression.LiteralExpression(value);
+    }
+
+    Expression var(ValueToken<String> name) {
+        return new Expression.VarExpression(name);
+    }
+
+    Expression assign(ValueToken<String> name, Expression value) {
+        return new Expression.AssignExpression(name, value);
+    }
+
+    Expression compoundAssign(ValueToken<String> name, TokenUtils.Token operator, Expression value, boolean postfix) {
+        return new Expression.CompoundAssignExpression(name, operator, value, postfix);
+    }
+
+    Expression binary(Expression left, TokenUtils.Token operator, Expression right) {
+        return new Expression.BinaryExpression(left, operator, right);
+    }
+
+    Expression unary(TokenUtils.Token operator, Expression right) {
+        return new Expression.UnaryExpression(operator, right);
+    }
+
+    Expression logical(Expression left, TokenUtils.Token operator, Expression right) {
+        return new Expression.LogicalExpression(left, operator, right);
+    }
+
+    Expression grouping(Expression expr) {
+        return new Expression.GroupingExpression(expr);
+    }
+
+    Expression call(Expression callee, TokenUtils.Token paren, List<Expression> arguments) {
+        return new Expression.CallExpression(callee, paren, arguments);
+    }
+
+    Expression.FunctionExpression function(ValueToken<String> name, List<ValueToken<String>> params,
+                                           List<Statement> body) {
+        return new Expression.FunctionExpression(name, params, body);
+    }
+
+    Expression array(TokenUtils.Token bracket, List<Expression> elements) {
+        return new Expression.ArrayExpression(bracket, elements);
+    }
+
+    Expression map(TokenUtils.Token brace, List<Expression> keys, List<Expression> values) {
+        return new Expression.MapExpression(brace, keys, values);
+    }
+
+    Expression struct(TokenUtils.Token keyword, List<ValueToken<String>> names, List<Expression> values) {
+        return new Expression.StructExpression(keyword, names, values);
+    }
+
+    Expression get(Expression object, ValueToken<String> name) {
+        return new Expression.GetExpression(object, name);
+    }
+
+    Expression set(Expression object, ValueToken<String> name, TokenUtils.Token operator, Expression value,
+                   boolean postfix) {
+        return new Expression.SetExpression(object, name, operator, value, postfix);
+    }
+
+    Expression index(Expression object, TokenUtils.Token bracket, Expression index) {
+        return new Expression.IndexExpression(object, bracket, index);
+    }
+
+    Expression indexAssign(Expression object, TokenUtils.Token bracket, Expression index, TokenUtils.Token operator,
+                           Expression value, boolean postfix) {
+        return new Expression.IndexAssignExpression(object, bracket, index, operator, value, postfix);
+    }
+
+    //The parser is going into the body of a function, and coming out of it
+    void enterFunction() {
+    }
+
+    void exitFunction() {
+    }
+
+    /**
+     * Hash-consing: every node is looked up by its kind, operator and children before it's created, and since the
+     * children were looked up the same way, comparing them by identity is comparing them by structure. Big generated
+     * programs that repeat the same literals and conditions end up with one node for each of them.
+     * <p>
+     * The nodes that can fail at runtime (variables, and operators on anything but constants) keep the line of their
+     * token in the key, so an error still points at the line where it happened. Constant subtrees are shared across
+     * lines, the one that fails (like {@code -"a"}) points at the first. Assignments (compound ones too), calls,
+     * functions and anything to do with arrays, maps or structs are never shared (every evaluation of their literals
+     * makes a new one), and neither are the variables inside functions: the {@link Resolver} gives each of them the
+     * slot of the declaration it sees.
+     * <p>
+     * It also marks the subtrees made only of literals and pure operators as {@link Expression#constant}, so the
+     * interpreter computes them once for all the places that share them. The passes that annotate nodes join what
+     * they find over every place a node is used, but they only see one program, so a factory must not be reused
+     * across parses.
+     */
+    static class HashConsing extends ExpressionFactory {
+        private final Map<Object, Expression> nodes = new HashMap<>();
+        private int functionDepth = 0;
+
+        @Override
+        Expression literal(Object value) {
+            return intern(new LiteralKey(value), () -> super.literal(value));
+        }
+
+        @Override
+        Expression var(ValueToken<String> name) {
+            if (functionDepth > 0) return super.var(name);
+            return intern(new VarKey(name.getValue(), name.getPos()), () -> super.var(name));
+        }
+
+        @Override
+        Expression binary(Expression left, TokenUtils.Token operator, Expression right) {
+            int line = left.constant && right.constant ? -1 : operator.getPos();
+            BinaryKey key = new BinaryKey(left, operator.getTokenType(), right, line);
+            return intern(key, () -> super.binary(left, operator, right));
+        }
+
+        @Override
+        Expression unary(TokenUtils.Token operator, Expression right) {
+            int line = right.constant ? -1 : operator.getPos();
+            return intern(new UnaryKey(operator.getTokenType(), right, line), () -> super.unary(operator, right));
+        }
+
+        @Override
+        Expression logical(Expression left, TokenUtils.Token operator, Expression right) {
+            return intern(new LogicalKey(left, operator.getTokenType(), right), () -> super.logical(left, operator, right));
+        }
+
+        @Override
+        Expression grouping(Expression expr) {
+            return intern(new GroupingKey(expr), () -> super.grouping(expr));
+        }
+
+        @Override
+        void enterFunction() {
+            functionDepth++;
+        }
+
+        @Override
+        void exitFunction() {
+            functionDepth--;
+        }
+
+        private Expression intern(Object key, Supplier<Expression> create) {
+            Expression node = nodes.get(key);
+            if (node != null) return node;
+
+            node = create.get();
+            node.constant = isConstant(node);
+            nodes.put(key, node);
+            return node;
+        }
+
+        private static boolean isConstant(Expression node) {
+            if (node instanceof Expression.LiteralExpression) return true;
+            if (node instanceof Expression.GroupingExpression group) return group.expr.constant;
+            if (node instanceof Expression.UnaryExpression unary) return unary.right.constant;
+            if (node instanceof Expression.BinaryExpression bin) return bin.left.constant && bin.right.constant;
+            if (node instanceof Expression.LogicalExpression logic) return logic.left.constant && logic.right.constant;
+            return false;
+        }
+
+        //Literal values are compared with equals, so 1 and "1" (or 0 and -0) are different keys
+        private record LiteralKey(Object value) {
+        }
+
+        private record VarKey(String name, int line) {
+        }
+
+        //The children are already shared nodes, so records comparing them with Object.equals compare identities. The
+        //line is -1 for the constant ones
+        private record BinaryKey(Expression left, TokenType operator, Expression right, int line) {
+        }
+
+        private record UnaryKey(TokenType operator, Expression right, int line) {
+        }
+
+        private record LogicalKey(Expression left, TokenType operator, Expression right) {
+        }
+
+        private record GroupingKey(Expression expr) {
+        }
+    }
+}
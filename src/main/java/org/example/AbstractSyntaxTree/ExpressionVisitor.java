@@ -3,6 +3,8 @@ package org.example.AbstractSyntaxTree;
 public interface ExpressionVisitor<R> {
     R visitAssignExpression(Expression.AssignExpression assignExpr);
 
+    R visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpr);
+
     R visitVarExpression(Expression.VarExpression varExpr);
 
     R visitBinary(Expression.BinaryExpression binExpr);
@@ -14,4 +16,24 @@ public interface ExpressionVisitor<R> {
     R visitLiteral(Expression.LiteralExpression litExpr);
 
     R visitLogicalExpression(Expression.LogicalExpression logicExp);
+
+    R visitHoistedExpression(Expression.HoistedExpression hoistedExpr);
+
+    R visitCallExpression(Expression.CallExpression callExpr);
+
+    R visitFunctionExpression(Expression.FunctionExpression functionExpr);
+
+    R visitArrayExpression(Expression.ArrayExpression arrayExpr);
+
+    R visitMapExpression(Expression.MapExpression mapExpr);
+
+    R visitStructExpression(Expression.StructExpression structExpr);
+
+    R visitGetExpression(Expression.GetExpression getExpr);
+
+    R visitSetExpression(Expression.SetExpression setExpr);
+
+    R visitIndexExpression(Expression.IndexExpression indexExpr);
+
+    R visitIndexAssignExpression(Expression.IndexAssignExpression indexAssignExpr);
 }
@@ -1,24 +1,65 @@
 package org.example.AbstractSyntaxTree;
 
 import org.example.Lexer.TokenUtils;
+import org.example.Lexer.ValueToken;
 
+import java.io.PrintStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor {
+    //Marks a hoisted binding whose expression has not been evaluated yet in the current loop entry
+    private static final Object UNSET = new Object();
 
     private final List<RuntimeError> errors = new ArrayList<>();
-    private Environment env = new Environment();
+    private Environment env;
     private boolean hadError = false;
+    //Where the prints and the errors go (System.out, whichever it is at the time, when null), the tasks and loops it
+    //starts print to the same place
+    PrintStream out = null;
+    //Can be turned off for a whole run with -Dtekla.parallelLoops=false
+    private boolean parallelLoops = !"false".equals(System.getProperty("tekla.parallelLoops"));
+    //The frames of the running calls, one after the other: the current one starts at base and the next one at top
+    private Object[] stack = new Object[256];
+    private int base = 0;
+    private int top = 0;
+    //The modules this run has imported, an import only runs one the first time
+    private final Set<Path> imported = new HashSet<>();
+
+    public Interpreter() {
+        this(Builtins.globals());
+    }
+
+    Interpreter(Environment env) {
+        this.env = env;
+    }
+
+    //The environment of the code that's running
+    Environment environment() {
+        return env;
+    }
 
     public void interpret(List<Statement> statements) {
-        //If only an expression is inputted, evaluate it and print it as if it were inside a print st
-        if (statements.size() == 1 && statements.get(0) instanceof Statement.ExpressionStatement) {
-            Object val = evaluate(((Statement.ExpressionStatement) statements.get(0)).expr);
-            System.out.println(stringify(val));
-            return;
-        }
+        Modules.load(statements, Path.of(""));
+        new Resolver().resolve(statements);
+        run(statements);
+    }
+
+    //Runs statements the Resolver has been over already
+    void run(List<Statement> statements) {
         try {
+            //If only an expression is inputted, evaluate it and print it as if it were inside a print st
+            if (statements.size() == 1 && statements.get(0) instanceof Statement.ExpressionStatement) {
+                Object val = evaluate(((Statement.ExpressionStatement) statements.get(0)).expr);
+                out().println(stringify(val));
+                return;
+            }
+
             for (Statement st : statements) {
                 try {
                     execute(st);
@@ -33,9 +74,41 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
         }
     }
 
+    /**
+     * Runs statements the Resolver has been over already, for a caller that wants a value back instead of output: that
+     * of the last statement if it's an expression, or nil. A runtime error isn't kept, it's thrown to the caller.
+     */
+    Object eval(List<Statement> statements) {
+        Object value = null;
+        for (int i = 0; i < statements.size(); i++) {
+            Statement st = statements.get(i);
+            try {
+                if (i == statements.size() - 1 && st instanceof Statement.ExpressionStatement last) {
+                    value = evaluate(last.expr);
+                } else {
+                    execute(st);
+                }
+            } catch (ControlFlow cf) {
+                throw new RuntimeError(cf.getToken(), cf.getToken().toString() + " outside of a loop.");
+            }
+        }
+        return value;
+    }
+
+    //Gets an interpreter that finished a run ready for another one, with new globals and where to print
+    void reset(Environment globals, PrintStream out) {
+        this.env = globals;
+        this.out = out;
+        this.errors.clear();
+        this.hadError = false;
+        this.base = 0;
+        this.top = 0;
+        this.imported.clear();
+    }
+
     public void print(List<Statement> statements) {
         try {
-            for (Statement st : statements) System.out.println(st.toString());
+            for (Statement st : statements) out().println(st.toString());
         } catch (RuntimeError err) {
             this.hadError = true;
             this.errors.add(err);
@@ -51,7 +124,7 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
     @Override
     public Void visitPrintStatement(Statement.PrintStatement statement) {
         Object val = evaluate(statement.expr);
-        System.out.println(stringify(val));
+        out().println(stringify(val));
         return null;
     }
 
@@ -62,13 +135,21 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
             value = evaluate(letStatement.initializer);
         }
 
-        env.define(letStatement.name.getValue(), value);
+        if (letStatement.slot >= 0) {
+            declareLocal(letStatement.slot, letStatement.boxed, value);
+        } else {
+            env.define(letStatement.name.getValue(), value);
+        }
         return null;
     }
 
     @Override
     public Void visitBlockStatement(Statement.BlockStatement blockStatement) throws ControlFlow {
-        executeBlock(blockStatement.statementList, new Environment(env));
+        if (blockStatement.scoped) {
+            executeBlock(blockStatement.statementList, new Environment(env));
+        } else {
+            for (Statement st : blockStatement.statementList) execute(st);
+        }
         return null;
     }
 
@@ -84,22 +165,102 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
     }
 
     @Override
-    public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+    public Void visitWhileStatement(Statement.WhileStatement whileStatement) throws ControlFlow {
+        declareHoisted(whileStatement.preheader);
+
+        if (parallelLoops && whileStatement.parallel != null && whileStatement.parallel.run(this, env)) return null;
+
         while (isTruthy(evaluate(whileStatement.condition))) {
-            try {
-                execute(whileStatement.body);
-            } catch (ControlFlow cf) {
-                if (cf instanceof ControlFlow.Break) {
-                    break;
-                } else if (cf instanceof ControlFlow.Continue) {
-                } else {
-                    System.err.println("Unhandled control flow exception: " + cf);
+            if (!iterate(whileStatement.body)) break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitForRangeStatement(Statement.ForRangeStatement forRange) throws ControlFlow {
+        Object start = evaluate(forRange.start);
+        Object end = evaluate(forRange.end);
+        checkNumberOperands(forRange.comparison, start, end);
+
+        declareHoisted(forRange.preheader);
+
+        double first = (double) start;
+        double last = (double) end;
+        if (parallelLoops && forRange.parallel != null && forRange.parallel.run(env, first, last) >= 0) return null;
+        //Inside a function the iterations would need its frame, so a pfor runs like any range loop there
+        if (forRange.pfor != null && forRange.slot < 0) {
+            forRange.pfor.run(out, env, forRange, first, last);
+            return null;
+        }
+
+        boolean inclusive = forRange.comparison.getTokenType() == TokenUtils.TokenType.Less_Equal;
+
+        //The counter stays a primitive, the variable is only written when the body reads it
+        if (forRange.slot >= 0) {
+            for (double i = first; inclusive ? i <= last : i < last; i += forRange.step) {
+                if (forRange.counterRead) declareLocal(forRange.slot, forRange.boxed, i);
+                if (!iterate(forRange.body)) break;
+            }
+            return null;
+        }
+
+        String name = forRange.name.getValue();
+        Environment previous = this.env;
+        try {
+            this.env = new Environment(previous);
+            env.define(name, null);
+
+            for (double i = first; inclusive ? i <= last : i < last; i += forRange.step) {
+                //The functions of the body keep the variable they saw, so then each iteration gets one of its own
+                if (forRange.counterCaptured) {
+                    this.env = new Environment(previous);
+                    env.define(name, i);
+                } else if (forRange.counterRead) {
+                    env.define(name, i);
                 }
+                if (!iterate(forRange.body)) break;
             }
+        } finally {
+            this.env = previous;
         }
         return null;
     }
 
+    //Runs one iteration of a loop, false when it breaks out of it. A return goes on to the call
+    private boolean iterate(Statement body) throws ControlFlow {
+        try {
+            execute(body);
+        } catch (ControlFlow.Break br) {
+            return false;
+        } catch (ControlFlow.Continue cont) {
+            //Next iteration
+        }
+        return true;
+    }
+
+    void declareHoisted(List<Expression.HoistedExpression> preheader) {
+        for (Expression.HoistedExpression hoisted : preheader) {
+            if (hoisted.slot >= 0) {
+                stack[base + hoisted.slot] = UNSET;
+            } else {
+                env.define(hoisted.name.getValue(), UNSET);
+            }
+        }
+    }
+
+    @Override
+    public Void visitMatchStatement(Statement.MatchStatement matchStatement) throws ControlFlow {
+        int arm = matchStatement.table.arm(evaluate(matchStatement.subject));
+
+        if (arm >= 0) {
+            execute(matchStatement.arms.get(arm));
+        } else if (matchStatement.elseBranch != null) {
+            execute(matchStatement.elseBranch);
+        }
+
+        return null;
+    }
+
     @Override
     public Void visitBreakStatement(Statement.BreakStatement breakStatement) throws ControlFlow {
         throw new ControlFlow.Break(breakStatement.breakTok);
@@ -110,6 +271,42 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
         throw new ControlFlow.Continue(continueStatement.continueStatement);
     }
 
+    @Override
+    public Void visitFunctionStatement(Statement.FunctionStatement functionStatement) {
+        if (functionStatement.slot < 0) {
+            env.define(functionStatement.function.name.getValue(), closure(functionStatement.function));
+        } else if (functionStatement.boxed) {
+            //The closure captures the cell it is stored in, so the cell has to be there first
+            Closure.Cell cell = new Closure.Cell(null);
+            stack[base + functionStatement.slot] = cell;
+            cell.value = closure(functionStatement.function);
+        } else {
+            stack[base + functionStatement.slot] = closure(functionStatement.function);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.ReturnStatement returnStatement) throws ControlFlow {
+        Object value = returnStatement.value != null ? evaluate(returnStatement.value) : null;
+        throw new ControlFlow.Return(returnStatement.keyword, value);
+    }
+
+    @Override
+    public Void visitImportStatement(Statement.ImportStatement importStatement) throws ControlFlow {
+        Module module = Modules.module(importStatement);
+        //Imports are only at the top level, so what the module declares goes in the globals, as the program's does
+        if (imported.add(module.path)) {
+            for (Statement st : module.statements) execute(st);
+        }
+        return null;
+    }
+
+    //Runs a statement in another environment, like the body of a loop whose iterations each have their own
+    void execute(Statement st, Environment environment) throws ControlFlow {
+        executeBlock(List.of(st), environment);
+    }
+
     private void executeBlock(List<Statement> statementList, Environment environment) throws ControlFlow {
         Environment prevEnv = this.env;
 
@@ -124,48 +321,463 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
     @Override
     public Object visitAssignExpression(Expression.AssignExpression assignExpression) {
         Object value = evaluate(assignExpression.value);
-        env.assign(assignExpression.name, value);
+        if (assignExpression.slot >= 0) {
+            writeLocal(assignExpression.slot, assignExpression.boxed, value);
+        } else {
+            env.assign(assignExpression.name, value);
+        }
         return value;
     }
 
+    @Override
+    public Object visitCompoundAssignExpression(Expression.CompoundAssignExpression compound) {
+        if (compound.slot >= 0) {
+            Object old = readLocal(compound.slot, compound.boxed);
+            Object result = compound(compound, old, evaluate(compound.value));
+            writeLocal(compound.slot, compound.boxed, result);
+            return compound.postfix ? old : result;
+        }
+
+        //One lookup for both the read and the write
+        Environment storage = env.resolve(compound.name);
+        String name = compound.name.getValue();
+
+        Object old = storage.getLocal(name);
+        Object value = evaluate(compound.value);
+        Object result = compound(compound, old, value);
+
+        //Another thread changed the global in between, so it's done again on what the variable holds now
+        while (!storage.replace(name, old, result)) {
+            if (!compound.retryable) {
+                storage.define(name, result);
+                break;
+            }
+            old = storage.getLocal(name);
+            result = compound(compound, old, value);
+        }
+        return compound.postfix ? old : result;
+    }
+
+    private static Object compound(Expression.CompoundAssignExpression compound, Object old, Object value) {
+        if (compound.operandType == Expression.OperandType.Number) {
+            return numberBinary(compound.operator.getTokenType(), (double) old, (double) value);
+        }
+        if (compound.operandType == Expression.OperandType.String) return (String) old + (String) value;
+
+        return binary(compound.operator, old, value);
+    }
+
+    @Override
+    public Object visitCallExpression(Expression.CallExpression call) {
+        Object callee = evaluate(call.callee);
+
+        //The checks only depend on the function, so a call site that keeps calling the same one does them once
+        if (callee != call.cachedCallee) {
+            if (callee instanceof Builtin builtin) return callBuiltin(call, builtin);
+            if (callee instanceof JavaCallable java) return callJava(call, java);
+            if (!(callee instanceof Closure closure)) throw new RuntimeError(call.paren, "Can only call functions.");
+            if (closure.arity() != call.arguments.size()) {
+                throw new RuntimeError(call.paren,
+                        "Expected " + closure.arity() + " arguments but got " + call.arguments.size() + ".");
+            }
+            call.cachedCallee = closure;
+        }
+
+        Closure closure = (Closure) callee;
+        Expression.FunctionExpression function = closure.declaration;
+
+        //The frame is taken before the arguments are evaluated, the calls among them go on top of it
+        int frame = pushFrame(function.frameSize);
+        try {
+            for (int i = 0; i < call.arguments.size(); i++) {
+                Object argument = evaluate(call.arguments.get(i));
+                stack[frame + i] = function.boxedParams[i] ? new Closure.Cell(argument) : argument;
+            }
+            return run(closure, frame, call.paren);
+        } finally {
+            popFrame(frame, function.frameSize);
+        }
+    }
+
+    /**
+     * Calls a function with arguments that were already evaluated, for the builtins that take functions. The checks
+     * are done on every call, the builtins that call the same function for every element check it once first.
+     */
+    Object call(TokenUtils.Token paren, Object callee, Object[] arguments) {
+        if (callee instanceof Builtin builtin) {
+            if (builtin.arity != arguments.length) {
+                throw new RuntimeError(paren, "Expected " + builtin.arity + " arguments but got " + arguments.length + ".");
+            }
+            return builtin.body.call(this, paren, arguments);
+        }
+        if (callee instanceof JavaCallable java) return java.call(paren, arguments);
+        if (!(callee instanceof Closure closure)) throw new RuntimeError(paren, "Can only call functions.");
+        if (closure.arity() != arguments.length) {
+            throw new RuntimeError(paren, "Expected " + closure.arity() + " arguments but got " + arguments.length + ".");
+        }
+
+        Expression.FunctionExpression function = closure.declaration;
+        int frame = pushFrame(function.frameSize);
+        try {
+            for (int i = 0; i < arguments.length; i++) {
+                stack[frame + i] = function.boxedParams[i] ? new Closure.Cell(arguments[i]) : arguments[i];
+            }
+            return run(closure, frame, paren);
+        } finally {
+            popFrame(frame, function.frameSize);
+        }
+    }
+
+    private int pushFrame(int size) {
+        int frame = top;
+        if (frame + size > stack.length) stack = Arrays.copyOf(stack, Math.max(stack.length * 2, frame + size));
+        top = frame + size;
+        return frame;
+    }
+
+    private void popFrame(int frame, int size) {
+        //Nothing in a finished frame is reachable anymore, the collector can have it
+        Arrays.fill(stack, frame, frame + size, null);
+        top = frame;
+    }
+
+    //Runs the body of a function whose arguments are already in its frame
+    private Object run(Closure closure, int frame, TokenUtils.Token paren) {
+        calling(closure, paren);
+        Expression.FunctionExpression function = closure.declaration;
+        for (int i = 0; i < function.captureTo.length; i++) {
+            stack[frame + function.captureTo[i]] = closure.captured[i];
+        }
+
+        int previousBase = base;
+        Environment previousEnv = env;
+        try {
+            base = frame;
+            env = closure.env;
+            for (Statement st : function.body) execute(st);
+            return null;
+        } catch (ControlFlow.Return ret) {
+            return ret.value;
+        } catch (ControlFlow cf) {
+            throw new RuntimeError(cf.getToken(), cf.getToken().toString() + " outside of a loop.");
+        } catch (StackOverflowError overflow) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        } finally {
+            base = previousBase;
+            env = previousEnv;
+        }
+    }
+
+    private Object callJava(Expression.CallExpression call, JavaCallable java) {
+        Object[] arguments = new Object[call.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) arguments[i] = evaluate(call.arguments.get(i));
+
+        JavaTarget target = call.javaTarget;
+        if (target == null || !target.accepts(java, arguments)) {
+            target = JavaTarget.resolve(call.paren, java, arguments);
+            call.javaTarget = target;
+        }
+        return target.invoke(call.paren, arguments);
+    }
+
+    private Object callBuiltin(Expression.CallExpression call, Builtin builtin) {
+        if (builtin.arity != call.arguments.size()) {
+            throw new RuntimeError(call.paren,
+                    "Expected " + builtin.arity + " arguments but got " + call.arguments.size() + ".");
+        }
+
+        Object[] arguments = new Object[call.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) arguments[i] = evaluate(call.arguments.get(i));
+        return builtin.body.call(this, call.paren, arguments);
+    }
+
+    @Override
+    public Object visitArrayExpression(Expression.ArrayExpression arrayExpr) {
+        ArrayValue array = new ArrayValue(arrayExpr.elements.size());
+        for (Expression element : arrayExpr.elements) array.append(evaluate(element));
+        return array;
+    }
+
+    @Override
+    public Object visitMapExpression(Expression.MapExpression mapExpr) {
+        MapValue map = new MapValue();
+        for (int i = 0; i < mapExpr.keys.size(); i++) map.put(evaluate(mapExpr.keys.get(i)), evaluate(mapExpr.values.get(i)));
+        return map;
+    }
+
+    @Override
+    public Object visitStructExpression(Expression.StructExpression structExpr) {
+        Shape shape = structExpr.shape;
+        if (shape == null) {
+            shape = Shape.EMPTY;
+            for (var name : structExpr.names) shape = shape.with(name.getValue());
+            structExpr.shape = shape;
+        }
+
+        Object[] fields = new Object[structExpr.values.size()];
+        for (int i = 0; i < fields.length; i++) fields[i] = evaluate(structExpr.values.get(i));
+        return new StructValue(shape, fields);
+    }
+
+    @Override
+    public Object visitGetExpression(Expression.GetExpression get) {
+        Object object = evaluate(get.object);
+        if (object instanceof JavaClassValue java) return java.method(get.name);
+
+        StructValue struct = struct(get.name, object);
+        return struct.fields[existingField(get.name, struct, get.cache, cache -> get.cache = cache)];
+    }
+
+    @Override
+    public Object visitSetExpression(Expression.SetExpression set) {
+        StructValue struct = struct(set.name, evaluate(set.object));
+
+        if (set.operator == null) {
+            //Evaluated first: it may add fields to the struct, and then the shape is another one
+            Object value = evaluate(set.value);
+
+            Expression.FieldCache cache = set.cache;
+            if (cache == null || cache.shape() != struct.shape) {
+                int slot = struct.shape.slot(set.name.getValue());
+                cache = slot >= 0
+                        ? new Expression.FieldCache(struct.shape, slot, struct.shape)
+                        : new Expression.FieldCache(struct.shape, struct.shape.size(), struct.shape.with(set.name.getValue()));
+                set.cache = cache;
+            }
+
+            if (cache.next() == cache.shape()) {
+                struct.fields[cache.slot()] = value;
+            } else {
+                struct.add(cache.next(), value);
+            }
+            return value;
+        }
+
+        //Fields are only ever added, so the slot is still the same after evaluating the value
+        int slot = existingField(set.name, struct, set.cache, cache -> set.cache = cache);
+        Object old = struct.fields[slot];
+        Object result = binary(set.operator, old, evaluate(set.value));
+        struct.fields[slot] = result;
+        return set.postfix ? old : result;
+    }
+
+    //The slot of a field the struct must have, through the cache of the node
+    private static int existingField(ValueToken<String> name, StructValue struct, Expression.FieldCache cache,
+                                     Consumer<Expression.FieldCache> update) {
+        if (cache != null && cache.shape() == struct.shape && cache.next() == struct.shape) return cache.slot();
+
+        int slot = struct.shape.slot(name.getValue());
+        if (slot < 0) throw new RuntimeError(name, "Undefined field '" + name.getValue() + "'.");
+
+        update.accept(new Expression.FieldCache(struct.shape, slot, struct.shape));
+        return slot;
+    }
+
+    private static StructValue struct(ValueToken<String> name, Object object) {
+        if (object instanceof StructValue struct) return struct;
+        throw new RuntimeError(name, "Only structs have fields.");
+    }
+
+    @Override
+    public Object visitIndexExpression(Expression.IndexExpression indexExpr) {
+        Object object = evaluate(indexExpr.object);
+        //A key that isn't there is nil
+        if (object instanceof MapValue map) return map.get(evaluate(indexExpr.index));
+        if (object instanceof BufferValue buffer) {
+            long index = index(indexExpr.bracket, buffer.length(), evaluate(indexExpr.index));
+            return buffer.get(indexExpr.bracket, index);
+        }
+
+        ArrayValue array = array(indexExpr.bracket, object);
+        return array.get((int) index(indexExpr.bracket, array.size(), evaluate(indexExpr.index)));
+    }
+
+    @Override
+    public Object visitIndexAssignExpression(Expression.IndexAssignExpression assign) {
+        Object object = evaluate(assign.object);
+        if (object instanceof MapValue map) return assignKey(assign, map);
+        if (object instanceof BufferValue buffer) return assignElement(assign, buffer);
+
+        ArrayValue array = array(assign.bracket, object);
+        int index = (int) index(assign.bracket, array.size(), evaluate(assign.index));
+        Object value = evaluate(assign.value);
+
+        if (assign.operator == null) {
+            array.set(index, value);
+            return value;
+        }
+
+        //Numbers are updated in place, without boxing what was there
+        if (array.holdsNumbers() && value instanceof Double number && !assign.postfix) {
+            double result = arithmetic(assign.operator.getTokenType(), array.number(index), number);
+            array.setNumber(index, result);
+            return result;
+        }
+
+        Object old = array.get(index);
+        Object result = binary(assign.operator, old, value);
+        array.set(index, result);
+        return assign.postfix ? old : result;
+    }
+
+    private Object assignKey(Expression.IndexAssignExpression assign, MapValue map) {
+        Object key = evaluate(assign.index);
+        Object value = evaluate(assign.value);
+
+        if (assign.operator == null) {
+            map.put(key, value);
+            return value;
+        }
+
+        Object old = map.get(key);
+        Object result = binary(assign.operator, old, value);
+        map.put(key, result);
+        return assign.postfix ? old : result;
+    }
+
+    private Object assignElement(Expression.IndexAssignExpression assign, BufferValue buffer) {
+        long index = index(assign.bracket, buffer.length(), evaluate(assign.index));
+        if (!(evaluate(assign.value) instanceof Double value)) {
+            throw new RuntimeError(assign.bracket, "Buffers can only hold numbers.");
+        }
+
+        if (assign.operator == null) {
+            buffer.set(assign.bracket, index, value);
+            return value;
+        }
+
+        double old = buffer.get(assign.bracket, index);
+        double result = arithmetic(assign.operator.getTokenType(), old, value);
+        buffer.set(assign.bracket, index, result);
+        //What's stored may have lost precision, so that's what the expression gives back
+        return assign.postfix ? old : buffer.get(assign.bracket, index);
+    }
+
+    private static ArrayValue array(TokenUtils.Token bracket, Object object) {
+        if (object instanceof ArrayValue array) return array;
+        throw new RuntimeError(bracket, "Can only index arrays, maps and buffers.");
+    }
+
+    //The position an index refers to, when it's a whole number inside the array (or buffer)
+    private static long index(TokenUtils.Token bracket, long size, Object index) {
+        if (!(index instanceof Double number)) throw new RuntimeError(bracket, "Index must be a number.");
+
+        long position = (long) (double) number;
+        if (position != number || position < 0 || position >= size) {
+            throw new RuntimeError(bracket, "Index out of bounds.");
+        }
+        return position;
+    }
+
+    //The operators of compound assignments
+    private static double arithmetic(TokenUtils.TokenType operator, double left, double right) {
+        switch (operator) {
+            case Plus -> {
+                return left + right;
+            }
+            case Minus -> {
+                return left - right;
+            }
+            case Star -> {
+                return left * right;
+            }
+            case Slash -> {
+                return left / right;
+            }
+        }
+
+        throw new IllegalArgumentException("Not an arithmetic operator: " + operator);
+    }
+
+    @Override
+    public Object visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+        return closure(functionExpr);
+    }
+
+    //Before the body of every function runs, for the interpreters that only let some functions run
+    void calling(Closure closure, TokenUtils.Token paren) {
+    }
+
+    Closure closure(Expression.FunctionExpression function) {
+        Object[] captured = new Object[function.captureFrom.length];
+        for (int i = 0; i < captured.length; i++) captured[i] = stack[base + function.captureFrom[i]];
+
+        return new Closure(function, captured, env);
+    }
+
+    private void declareLocal(int slot, boolean boxed, Object value) {
+        stack[base + slot] = boxed ? new Closure.Cell(value) : value;
+    }
+
+    private Object readLocal(int slot, boolean boxed) {
+        Object value = stack[base + slot];
+        return boxed ? ((Closure.Cell) value).value : value;
+    }
+
+    private void writeLocal(int slot, boolean boxed, Object value) {
+        if (boxed) {
+            ((Closure.Cell) stack[base + slot]).value = value;
+        } else {
+            stack[base + slot] = value;
+        }
+    }
+
     @Override
     public Object visitLogicalExpression(Expression.LogicalExpression logicExpr) {
+        if (logicExpr.cachedValue != null) return logicExpr.cachedValue;
+
         Object left = evaluate(logicExpr.left);
 
         //This could be done so that print(false || 2) printed 2 and not true,
         //but I don't really like that (a logical expression, when evaluated,
         //returns always true or false)
         if (logicExpr.operator.getTokenType() == TokenUtils.TokenType.Or) {
-            if (isTruthy(left)) return true;
+            if (isTruthy(left)) return cache(logicExpr, true);
         } else {
-            if (!isTruthy(left)) return false;
+            if (!isTruthy(left)) return cache(logicExpr, false);
         }
 
         Object right = evaluate(logicExpr.right);
-        return isTruthy(right);
+        return cache(logicExpr, isTruthy(right));
     }
 
     @Override
     public Object visitVarExpression(Expression.VarExpression varExpr) {
+        if (varExpr.slot >= 0) return readLocal(varExpr.slot, varExpr.boxed);
         return env.get(varExpr.name);
     }
 
     @Override
     public Object visitBinary(Expression.BinaryExpression binExpr) {
+        if (binExpr.cachedValue != null) return binExpr.cachedValue;
+
         Object left = evaluate(binExpr.left);
         Object right = evaluate(binExpr.right);
 
-        switch (binExpr.operator.getTokenType()) {
+        //Type inference already proved what the operands are, so they don't need to be checked again
+        if (binExpr.operandType == Expression.OperandType.Number) {
+            return cache(binExpr, numberBinary(binExpr.operator.getTokenType(), (double) left, (double) right));
+        }
+        if (binExpr.operandType == Expression.OperandType.String) return cache(binExpr, (String) left + (String) right);
+
+        return cache(binExpr, binary(binExpr.operator, left, right));
+    }
+
+    /**
+     * The checked semantics of every binary operator, shared by everything that runs Tekla code.
+     */
+    static Object binary(TokenUtils.Token operator, Object left, Object right) {
+        switch (operator.getTokenType()) {
             case Minus -> {
-                checkNumberOperands(binExpr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left - (double) right;
             }
             case Slash -> {
-                checkNumberOperands(binExpr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left / (double) right;
             }
             case Star -> {
-                checkNumberOperands(binExpr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left * (double) right;
             }
             case Plus -> {
@@ -177,32 +789,32 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
                     return left + (String) right;
                 }
 
-                throw new RuntimeError(binExpr.operator, "Operands must be two numbers or two strings.");
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
             }
             case Greater -> {
-                checkNumberOperands(binExpr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left > (double) right;
             }
             case Greater_Equal -> {
-                checkNumberOperands(binExpr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left >= (double) right;
             }
             case Less -> {
-                checkNumberOperands(binExpr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left < (double) right;
             }
             case Less_Equal -> {
-                checkNumberOperands(binExpr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left <= (double) right;
             }
 
             case Not_Equal -> {
-                checkNumberOperands(binExpr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return !isEqual(left, right);
             }
 
             case Equal_Equal -> {
-                checkNumberOperands(binExpr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return isEqual(left, right);
             }
         }
@@ -210,13 +822,58 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
         return null;
     }
 
+    static Object numberBinary(TokenUtils.TokenType operator, double left, double right) {
+        switch (operator) {
+            case Minus -> {
+                return left - right;
+            }
+            case Slash -> {
+                return left / right;
+            }
+            case Star -> {
+                return left * right;
+            }
+            case Plus -> {
+                return left + right;
+            }
+            case Greater -> {
+                return left > right;
+            }
+            case Greater_Equal -> {
+                return left >= right;
+            }
+            case Less -> {
+                return left < right;
+            }
+            case Less_Equal -> {
+                return left <= right;
+            }
+            //Same as isEqual (Double.equals), so NaN == NaN and 0 != -0 like in the checked path
+            case Not_Equal -> {
+                return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+            }
+            case Equal_Equal -> {
+                return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public Object visitUnary(Expression.UnaryExpression unarExpr) {
+        if (unarExpr.cachedValue != null) return unarExpr.cachedValue;
+
         Object right = evaluate(unarExpr.right);
+        if (unarExpr.operandType == Expression.OperandType.Number) return cache(unarExpr, -(double) right);
+
+        return cache(unarExpr, unary(unarExpr.operator, right));
+    }
 
-        switch (unarExpr.operator.getTokenType()) {
+    static Object unary(TokenUtils.Token operator, Object right) {
+        switch (operator.getTokenType()) {
             case Minus -> {
-                checkNumberOperand(unarExpr.operator, right);
+                checkNumberOperand(operator, right);
                 return -(double) right;
             }
 
@@ -228,6 +885,26 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
         return null;
     }
 
+    @Override
+    public Object visitHoistedExpression(Expression.HoistedExpression hoistedExpr) {
+        if (hoistedExpr.slot >= 0) {
+            Object value = stack[base + hoistedExpr.slot];
+            if (value == UNSET) {
+                value = evaluate(hoistedExpr.expr);
+                stack[base + hoistedExpr.slot] = value;
+            }
+            return value;
+        }
+
+        Object value = env.get(hoistedExpr.name);
+        if (value == UNSET) {
+            value = evaluate(hoistedExpr.expr);
+            env.assign(hoistedExpr.name, value);
+        }
+
+        return value;
+    }
+
     @Override
     public Object visitGrouping(Expression.GroupingExpression groupExpr) {
         return evaluate(groupExpr.expr);
@@ -238,33 +915,42 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
         return litExpr.value;
     }
 
-    private Object evaluate(Expression expr) {
+    /**
+     * Keeps the value of a constant subtree, so the places that share it compute it once. Values are immutable, so a
+     * thread that sees the reference sees the whole value, and threads computing it at once compute the same.
+     */
+    private static Object cache(Expression expr, Object value) {
+        if (expr.constant) expr.cachedValue = value;
+        return value;
+    }
+
+    Object evaluate(Expression expr) {
         return expr.accept(this);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
 
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
 
         return a.equals(b);
     }
 
-    private void checkNumberOperand(TokenUtils.Token operator, Object operand) {
+    static void checkNumberOperand(TokenUtils.Token operator, Object operand) {
         if (!(operand instanceof Double)) throw new RuntimeError(operator, "Operand must be a number");
     }
 
-    private void checkNumberOperands(TokenUtils.Token operator, Object a, Object b) {
+    static void checkNumberOperands(TokenUtils.Token operator, Object a, Object b) {
         if (!(a instanceof Double && b instanceof Double)) throw new RuntimeError(operator, "Operand must be a number");
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
@@ -278,16 +964,28 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
         return object.toString();
     }
 
-    private void execute(Statement st) throws ControlFlow {
+    void execute(Statement st) throws ControlFlow {
         st.accept(this);
     }
 
+    /**
+     * Whether the loops {@link ParallelLoops} found independent iterations in may run across several threads. Either
+     * way the output is the same.
+     */
+    public void setParallelLoops(boolean parallelLoops) {
+        this.parallelLoops = parallelLoops;
+    }
+
+    private PrintStream out() {
+        return out != null ? out : System.out;
+    }
+
     public boolean hadError() {
         return this.hadError;
     }
 
     public void printErrors() {
-        for (RuntimeError err : errors) err.printError();
+        for (RuntimeError err : errors) err.printError(out());
     }
 
     static class RuntimeError extends RuntimeException {
@@ -302,7 +1000,11 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
         }
 
         public void printError() {
-            System.out.printf("  [%sINTERPRETER ERROR%s]: %s on line %d%n", RED, NO_COLOR, super.getMessage(), this.token.getPos());
+            printError(System.out);
+        }
+
+        public void printError(PrintStream out) {
+            out.printf("  [%sINTERPRETER ERROR%s]: %s on line %d%n", RED, NO_COLOR, super.getMessage(), this.token.getPos());
         }
     }
 
@@ -310,6 +1012,8 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
         TokenUtils.Token tok;
 
         ControlFlow(TokenUtils.Token tok) {
+            //Thrown for every break, continue and return, a stack trace would cost more than the jump
+            super(null, null, false, false);
             this.tok = tok;
         }
 
@@ -332,6 +1036,17 @@ public class Interpreter implements ExpressionVisitor<Object>, StatementVisitor
                 super(cont);
             }
         }
+
+        public static class Return extends ControlFlow {
+            private static final long serialVersionUID = 1L;
+
+            final transient Object value;
+
+            Return(TokenUtils.Token keyword, Object value) {
+                super(keyword);
+                this.value = value;
+            }
+        }
     }
 
 }
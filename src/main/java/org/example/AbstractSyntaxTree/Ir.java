@@ -0,0 +1,214 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+import org.example.Lexer.ValueToken;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A mid-level intermediate representation: a control flow graph of basic blocks whose instructions are in SSA form.
+ * Every value is defined by exactly one instruction, and where paths join, the values that depend on the path taken
+ * are merged by the phi instructions at the start of the block.
+ * <p>
+ * {@link IrBuilder} lowers the AST into it, {@link IrOptimizer} runs the passes over it and {@link IrInterpreter}
+ * executes it.
+ */
+public class Ir {
+
+    enum Op {
+        //Values
+        Const, Phi, Binary, Unary, Truthy,
+        //Variables that live in the environment (globals, or anything not declared by the program itself)
+        LoadGlobal, DefineGlobal, StoreGlobal,
+        Print,
+        //Terminators, always the last instruction of a block
+        Jump, Branch, Exit
+    }
+
+    public static class Program {
+        final List<Block> blocks = new ArrayList<>();
+        final Block entry;
+        private int instructionCount = 0;
+        private int blockCount = 0;
+
+        Program() {
+            this.entry = newBlock();
+        }
+
+        Block newBlock() {
+            Block block = new Block(blockCount++);
+            blocks.add(block);
+            return block;
+        }
+
+        Instruction newInstruction(Op op) {
+            return new Instruction(instructionCount++, op);
+        }
+
+        //Every instruction id is below this, so the interpreter can keep the values in an array
+        int instructionCount() {
+            return instructionCount;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder dump = new StringBuilder();
+            for (Block block : blocks) dump.append(block);
+            return dump.toString();
+        }
+    }
+
+    public static class Block {
+        final int id;
+        final List<Block> predecessors = new ArrayList<>();
+        final List<Instruction> phis = new ArrayList<>();
+        final List<Instruction> instructions = new ArrayList<>();
+
+        Block(int id) {
+            this.id = id;
+        }
+
+        Instruction terminator() {
+            if (instructions.isEmpty()) return null;
+
+            Instruction last = instructions.get(instructions.size() - 1);
+            return last.isTerminator() ? last : null;
+        }
+
+        List<Block> successors() {
+            Instruction terminator = terminator();
+            return terminator == null ? List.of() : terminator.targets;
+        }
+
+        void add(Instruction instruction) {
+            instruction.block = this;
+            if (instruction.op == Op.Phi) phis.add(instruction);
+            else instructions.add(instruction);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder dump = new StringBuilder("b").append(id).append(":");
+            if (!predecessors.isEmpty()) {
+                dump.append(" ; preds");
+                for (Block pred : predecessors) dump.append(" b").append(pred.id);
+            }
+            dump.append("\n");
+
+            for (Instruction phi : phis) dump.append("  ").append(phi).append("\n");
+            for (Instruction instruction : instructions) dump.append("  ").append(instruction).append("\n");
+
+            return dump.toString();
+        }
+    }
+
+    public static class Instruction {
+        final int id;
+        Op op;
+        final List<Instruction> operands = new ArrayList<>();
+        final Set<Instruction> users = new LinkedHashSet<>();
+        final List<Block> targets = new ArrayList<>();
+        //The value of a Const
+        Object constant;
+        //The operator of a Binary or Unary, or the name of a global
+        TokenUtils.Token token;
+        Block block;
+
+        Instruction(int id, Op op) {
+            this.id = id;
+            this.op = op;
+        }
+
+        void addOperand(Instruction operand) {
+            operands.add(operand);
+            operand.users.add(this);
+        }
+
+        void setOperand(int index, Instruction operand) {
+            operands.set(index, operand);
+            operand.users.add(this);
+        }
+
+        void clearOperands() {
+            for (Instruction operand : operands) operand.users.remove(this);
+            operands.clear();
+        }
+
+        void replaceUsesWith(Instruction value) {
+            for (Instruction user : users) {
+                for (int i = 0; i < user.operands.size(); i++) {
+                    if (user.operands.get(i) == this) user.setOperand(i, value);
+                }
+            }
+            users.clear();
+        }
+
+        void becomeConst(Object value) {
+            clearOperands();
+            op = Op.Const;
+            token = null;
+            constant = value;
+        }
+
+        boolean isTerminator() {
+            return op == Op.Jump || op == Op.Branch || op == Op.Exit;
+        }
+
+        String name() {
+            return "%" + id;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder dump = new StringBuilder();
+            if (!isTerminator() && op != Op.Print && op != Op.DefineGlobal && op != Op.StoreGlobal) {
+                dump.append(name()).append(" = ");
+            }
+
+            switch (op) {
+                case Const -> {
+                    dump.append("const ");
+                    if (constant instanceof String) dump.append('"').append(constant).append('"');
+                    else dump.append(Interpreter.stringify(constant));
+                }
+                case Phi -> {
+                    dump.append("phi");
+                    for (int i = 0; i < operands.size(); i++) {
+                        dump.append(i == 0 ? " " : ", ");
+                        dump.append("[").append(operands.get(i).name()).append(", b").append(block.predecessors.get(i).id).append("]");
+                    }
+                }
+                case Binary, Unary -> {
+                    dump.append(token.getTokenType().toString().toLowerCase());
+                    appendOperands(dump);
+                }
+                case LoadGlobal, DefineGlobal, StoreGlobal -> {
+                    dump.append(op.toString().toLowerCase()).append(" ").append(((ValueToken<?>) token).getValue());
+                    if (!operands.isEmpty()) dump.append(",");
+                    appendOperands(dump);
+                }
+                case Branch -> {
+                    dump.append("branch");
+                    appendOperands(dump);
+                    dump.append(", b").append(targets.get(0).id).append(", b").append(targets.get(1).id);
+                }
+                case Jump -> dump.append("jump b").append(targets.get(0).id);
+                default -> {
+                    dump.append(op.toString().toLowerCase());
+                    appendOperands(dump);
+                }
+            }
+
+            return dump.toString();
+        }
+
+        private void appendOperands(StringBuilder dump) {
+            for (int i = 0; i < operands.size(); i++) {
+                dump.append(i == 0 ? " " : ", ").append(operands.get(i).name());
+            }
+        }
+    }
+}
@@ -0,0 +1,554 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.SimpleToken;
+import org.example.Lexer.TokenUtils;
+import org.example.Lexer.ValueToken;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lowers a parsed program into the SSA form of {@link Ir}.
+ * <p>
+ * It uses the algorithm from "Simple and Efficient Construction of Static Single Assignment Form" (Braun et al.),
+ * which builds the SSA form straight from the AST: a variable read looks for its definition in the current block
+ * and, if there is none, in the predecessors, placing phis where paths join. Loop headers are only sealed once the
+ * body (and every continue) is lowered, so the phis they need are completed then, and the ones that turn out to be
+ * trivial are removed on the spot.
+ * <p>
+ * The variables the program declares become SSA values. The ones declared at the top level are also written through
+ * to the global environment, so they can still be seen afterwards (by the next line of the REPL, for example).
+ * Variables the program doesn't declare are read and written in the environment, like the interpreter does.
+ */
+public class IrBuilder implements ExpressionVisitor<Ir.Instruction>, StatementVisitor {
+    private final Ir.Program program = new Ir.Program();
+    //The value each variable has at the end of each block (as far as it has been lowered)
+    private final Map<Ir.Block, Map<Variable, Ir.Instruction>> currentDef = new HashMap<>();
+    //The phis placed in blocks whose predecessors are not all known yet
+    private final Map<Ir.Block, Map<Variable, Ir.Instruction>> incompletePhis = new HashMap<>();
+    //Trivial phis that were removed, and what they were replaced by
+    private final Map<Ir.Instruction, Ir.Instruction> replacedPhis = new HashMap<>();
+    private final Set<Ir.Block> sealed = new HashSet<>();
+    private final List<Map<String, Variable>> scopes = new ArrayList<>();
+    private final List<Loop> loops = new ArrayList<>();
+    //null when the statements being lowered can't be reached (right after a break or a continue)
+    private Ir.Block current;
+
+    private IrBuilder() {
+        scopes.add(new HashMap<>());
+        current = program.entry;
+        seal(current);
+    }
+
+    public static Ir.Program build(List<Statement> statements) throws Unsupported {
+        IrBuilder builder = new IrBuilder();
+
+        //Like the interpreter, a lone expression gets printed
+        if (statements.size() == 1 && statements.get(0) instanceof Statement.ExpressionStatement statement) {
+            builder.emit(Ir.Op.Print, builder.lower(statement.expr));
+        } else {
+            for (Statement st : statements) builder.lower(st);
+        }
+
+        if (builder.current != null) builder.emit(Ir.Op.Exit);
+        builder.removeBlocksWithoutPredecessors();
+
+        return builder.program;
+    }
+
+    private void lower(Statement statement) {
+        if (statement == null) throw new Unsupported("the program has syntax errors");
+        if (current == null) return;
+
+        try {
+            statement.accept(this);
+        } catch (Interpreter.ControlFlow cf) {
+            //Only the interpreter throws control flow, lowering never does
+            throw new IllegalStateException(cf);
+        }
+    }
+
+    private Ir.Instruction lower(Expression expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+        lower(statement.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.PrintStatement statement) {
+        emit(Ir.Op.Print, lower(statement.expr));
+        return null;
+    }
+
+    @Override
+    public Void visitLetStatement(Statement.LetStatement letStatement) {
+        Ir.Instruction value = letStatement.initializer != null ? lower(letStatement.initializer) : constant(null);
+
+        Variable variable = new Variable(scopes.size() == 1);
+        scopes.get(scopes.size() - 1).put(letStatement.name.getValue(), variable);
+        writeVariable(variable, current, value);
+
+        if (variable.global) emit(Ir.Op.DefineGlobal, value).token = letStatement.name;
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.BlockStatement blockStatement) {
+        scopes.add(new HashMap<>());
+        for (Statement st : blockStatement.statementList) lower(st);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.IfStatement ifStatement) {
+        Ir.Instruction condition = lower(ifStatement.condit);
+
+        Ir.Block thenBlock = program.newBlock();
+        Ir.Block join = program.newBlock();
+        Ir.Block elseBlock = ifStatement.elseBranch != null ? program.newBlock() : join;
+        branch(condition, thenBlock, elseBlock);
+        seal(thenBlock);
+
+        current = thenBlock;
+        lower(ifStatement.thenBranch);
+        if (current != null) jump(join);
+
+        if (ifStatement.elseBranch != null) {
+            seal(elseBlock);
+            current = elseBlock;
+            lower(ifStatement.elseBranch);
+            if (current != null) jump(join);
+        }
+
+        seal(join);
+        current = join.predecessors.isEmpty() ? null : join;
+        return null;
+    }
+
+    @Override
+    public Void visitMatchStatement(Statement.MatchStatement matchStatement) {
+        throw new Unsupported("match statements");
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.FunctionStatement functionStatement) {
+        throw new Unsupported("functions");
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.ReturnStatement returnStatement) {
+        throw new Unsupported("functions");
+    }
+
+    @Override
+    public Void visitImportStatement(Statement.ImportStatement importStatement) {
+        throw new Unsupported("imports");
+    }
+
+    @Override
+    public Void visitBreakStatement(Statement.BreakStatement breakStatement) {
+        if (loops.isEmpty()) throw new Unsupported("break outside of a loop");
+
+        jump(loops.get(loops.size() - 1).exit);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStatement(Statement.ContinueStatement continueStatement) {
+        if (loops.isEmpty()) throw new Unsupported("continue outside of a loop");
+
+        jump(loops.get(loops.size() - 1).next);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+        //A bare let as the body declares the variable in the enclosing scope, but only from the first iteration on
+        if (whileStatement.body instanceof Statement.LetStatement) {
+            throw new Unsupported("a let as the body of a loop");
+        }
+
+        Ir.Block header = program.newBlock();
+        jump(header);
+        current = header;
+        Ir.Instruction condition = lower(whileStatement.condition);
+
+        Ir.Block body = program.newBlock();
+        Ir.Block exit = program.newBlock();
+        branch(condition, body, exit);
+        seal(body);
+
+        loops.add(new Loop(header, exit));
+        current = body;
+        lower(whileStatement.body);
+        if (current != null) jump(header);
+        loops.remove(loops.size() - 1);
+
+        seal(header);
+        seal(exit);
+        current = exit.predecessors.isEmpty() ? null : exit;
+        return null;
+    }
+
+    @Override
+    public Void visitForRangeStatement(Statement.ForRangeStatement forRange) {
+        Ir.Instruction start = lower(forRange.start);
+        Ir.Instruction end = lower(forRange.end);
+
+        //The counter is a variable of its own, the one the body sees is reset from it on every iteration
+        scopes.add(new HashMap<>());
+        Variable counter = new Variable(false);
+        Variable variable = new Variable(false);
+        scopes.get(scopes.size() - 1).put(forRange.name.getValue(), variable);
+        writeVariable(counter, current, start);
+
+        Ir.Block header = program.newBlock();
+        jump(header);
+        current = header;
+        Ir.Instruction value = readVariable(counter, header);
+        Ir.Instruction condition = emit(Ir.Op.Binary, value, end);
+        condition.token = forRange.comparison;
+
+        Ir.Block body = program.newBlock();
+        Ir.Block latch = program.newBlock();
+        Ir.Block exit = program.newBlock();
+        branch(condition, body, exit);
+        seal(body);
+
+        loops.add(new Loop(latch, exit));
+        current = body;
+        writeVariable(variable, body, value);
+        lower(forRange.body);
+        if (current != null) jump(latch);
+        loops.remove(loops.size() - 1);
+
+        seal(latch);
+        if (!latch.predecessors.isEmpty()) {
+            current = latch;
+            Ir.Instruction step = constant(forRange.step);
+            Ir.Instruction next = emit(Ir.Op.Binary, readVariable(counter, latch), step);
+            next.token = new SimpleToken(forRange.comparison.getPos(), TokenUtils.TokenType.Plus);
+            writeVariable(counter, latch, next);
+            jump(header);
+        }
+
+        seal(header);
+        seal(exit);
+        scopes.remove(scopes.size() - 1);
+        current = exit.predecessors.isEmpty() ? null : exit;
+        return null;
+    }
+
+    @Override
+    public Ir.Instruction visitAssignExpression(Expression.AssignExpression assignExpr) {
+        Ir.Instruction value = lower(assignExpr.value);
+        Variable variable = resolve(assignExpr.name);
+
+        if (variable == null) {
+            emit(Ir.Op.StoreGlobal, value).token = assignExpr.name;
+        } else {
+            writeVariable(variable, current, value);
+            if (variable.global) emit(Ir.Op.StoreGlobal, value).token = assignExpr.name;
+        }
+
+        return value;
+    }
+
+    @Override
+    public Ir.Instruction visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpr) {
+        //Read, operate and write: in SSA there's no storage to update in place
+        Ir.Instruction old = load(compoundExpr.name);
+        Ir.Instruction value = lower(compoundExpr.value);
+
+        Ir.Instruction result = emit(Ir.Op.Binary, old, value);
+        result.token = compoundExpr.operator;
+
+        Variable variable = resolve(compoundExpr.name);
+        if (variable == null) {
+            emit(Ir.Op.StoreGlobal, result).token = compoundExpr.name;
+        } else {
+            writeVariable(variable, current, result);
+            if (variable.global) emit(Ir.Op.StoreGlobal, result).token = compoundExpr.name;
+        }
+
+        return compoundExpr.postfix ? old : result;
+    }
+
+    @Override
+    public Ir.Instruction visitVarExpression(Expression.VarExpression varExpr) {
+        return load(varExpr.name);
+    }
+
+    private Ir.Instruction load(ValueToken<String> name) {
+        Variable variable = resolve(name);
+        if (variable == null) {
+            Ir.Instruction load = emit(Ir.Op.LoadGlobal);
+            load.token = name;
+            return load;
+        }
+
+        return readVariable(variable, current);
+    }
+
+    @Override
+    public Ir.Instruction visitBinary(Expression.BinaryExpression binExpr) {
+        Ir.Instruction left = lower(binExpr.left);
+        Ir.Instruction right = lower(binExpr.right);
+
+        Ir.Instruction binary = emit(Ir.Op.Binary, left, right);
+        binary.token = binExpr.operator;
+        return binary;
+    }
+
+    @Override
+    public Ir.Instruction visitUnary(Expression.UnaryExpression unarExpr) {
+        Ir.Instruction unary = emit(Ir.Op.Unary, lower(unarExpr.right));
+        unary.token = unarExpr.operator;
+        return unary;
+    }
+
+    @Override
+    public Ir.Instruction visitGrouping(Expression.GroupingExpression groupExpr) {
+        return lower(groupExpr.expr);
+    }
+
+    @Override
+    public Ir.Instruction visitLiteral(Expression.LiteralExpression litExpr) {
+        return constant(litExpr.value);
+    }
+
+    @Override
+    public Ir.Instruction visitLogicalExpression(Expression.LogicalExpression logicExp) {
+        boolean isOr = logicExp.operator.getTokenType() == TokenUtils.TokenType.Or;
+
+        //The value when the right side is skipped: true for an or, false for an and
+        Ir.Instruction shortCircuit = constant(isOr);
+        Ir.Instruction left = lower(logicExp.left);
+
+        Ir.Block rightBlock = program.newBlock();
+        Ir.Block join = program.newBlock();
+        if (isOr) branch(left, join, rightBlock);
+        else branch(left, rightBlock, join);
+        seal(rightBlock);
+
+        current = rightBlock;
+        Ir.Instruction right = emit(Ir.Op.Truthy, lower(logicExp.right));
+        jump(join);
+        seal(join);
+
+        current = join;
+        Ir.Instruction phi = newPhi(join);
+        phi.addOperand(shortCircuit);
+        phi.addOperand(right);
+        return phi;
+    }
+
+    @Override
+    public Ir.Instruction visitCallExpression(Expression.CallExpression callExpr) {
+        throw new Unsupported("functions");
+    }
+
+    @Override
+    public Ir.Instruction visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+        throw new Unsupported("functions");
+    }
+
+    @Override
+    public Ir.Instruction visitArrayExpression(Expression.ArrayExpression arrayExpr) {
+        throw new Unsupported("arrays");
+    }
+
+    @Override
+    public Ir.Instruction visitMapExpression(Expression.MapExpression mapExpr) {
+        throw new Unsupported("maps");
+    }
+
+    @Override
+    public Ir.Instruction visitStructExpression(Expression.StructExpression structExpr) {
+        throw new Unsupported("structs");
+    }
+
+    @Override
+    public Ir.Instruction visitGetExpression(Expression.GetExpression getExpr) {
+        throw new Unsupported("structs");
+    }
+
+    @Override
+    public Ir.Instruction visitSetExpression(Expression.SetExpression setExpr) {
+        throw new Unsupported("structs");
+    }
+
+    @Override
+    public Ir.Instruction visitIndexExpression(Expression.IndexExpression indexExpr) {
+        throw new Unsupported("arrays");
+    }
+
+    @Override
+    public Ir.Instruction visitIndexAssignExpression(Expression.IndexAssignExpression indexAssignExpr) {
+        throw new Unsupported("arrays");
+    }
+
+    @Override
+    public Ir.Instruction visitHoistedExpression(Expression.HoistedExpression hoistedExpr) {
+        //Loop invariants are the IR passes' business, here it's just the expression
+        return lower(hoistedExpr.expr);
+    }
+
+    private Variable resolve(ValueToken<String> name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Variable variable = scopes.get(i).get(name.getValue());
+            if (variable != null) return variable;
+        }
+
+        return null;
+    }
+
+    private void writeVariable(Variable variable, Ir.Block block, Ir.Instruction value) {
+        currentDef.computeIfAbsent(block, b -> new HashMap<>()).put(variable, value);
+    }
+
+    private Ir.Instruction readVariable(Variable variable, Ir.Block block) {
+        Ir.Instruction value = currentDef.computeIfAbsent(block, b -> new HashMap<>()).get(variable);
+        if (value == null) return readVariableRecursive(variable, block);
+
+        while (replacedPhis.containsKey(value)) value = replacedPhis.get(value);
+        return value;
+    }
+
+    private Ir.Instruction readVariableRecursive(Variable variable, Ir.Block block) {
+        Ir.Instruction value;
+
+        if (!sealed.contains(block)) {
+            //Not every predecessor is known yet, the phi gets its operands when the block is sealed
+            value = newPhi(block);
+            incompletePhis.computeIfAbsent(block, b -> new HashMap<>()).put(variable, value);
+        } else if (block.predecessors.size() == 1) {
+            value = readVariable(variable, block.predecessors.get(0));
+        } else if (block.predecessors.isEmpty()) {
+            throw new IllegalStateException("Variable read in a block nothing jumps to");
+        } else {
+            //Written before looking at the predecessors, so a loop finds the phi instead of recursing forever
+            Ir.Instruction phi = newPhi(block);
+            writeVariable(variable, block, phi);
+            value = addPhiOperands(variable, phi);
+        }
+
+        writeVariable(variable, block, value);
+        return value;
+    }
+
+    private Ir.Instruction addPhiOperands(Variable variable, Ir.Instruction phi) {
+        for (Ir.Block pred : phi.block.predecessors) phi.addOperand(readVariable(variable, pred));
+
+        return tryRemoveTrivialPhi(phi);
+    }
+
+    private Ir.Instruction tryRemoveTrivialPhi(Ir.Instruction phi) {
+        Ir.Instruction same = null;
+        for (Ir.Instruction operand : phi.operands) {
+            if (operand == same || operand == phi) continue;
+            if (same != null) return phi; //It merges at least two values, so it stays
+            same = operand;
+        }
+
+        if (same == null) return phi;
+
+        List<Ir.Instruction> users = new ArrayList<>(phi.users);
+        users.remove(phi);
+
+        phi.replaceUsesWith(same);
+        phi.clearOperands();
+        phi.block.phis.remove(phi);
+        replacedPhis.put(phi, same);
+
+        //The phis that used this one may have become trivial too
+        for (Ir.Instruction user : users) {
+            if (user.op == Ir.Op.Phi && user.block.phis.contains(user)) tryRemoveTrivialPhi(user);
+        }
+
+        return same;
+    }
+
+    private void seal(Ir.Block block) {
+        Map<Variable, Ir.Instruction> phis = incompletePhis.remove(block);
+        if (phis != null) {
+            for (Map.Entry<Variable, Ir.Instruction> entry : phis.entrySet()) addPhiOperands(entry.getKey(), entry.getValue());
+        }
+
+        sealed.add(block);
+    }
+
+    private Ir.Instruction newPhi(Ir.Block block) {
+        Ir.Instruction phi = program.newInstruction(Ir.Op.Phi);
+        block.add(phi);
+        return phi;
+    }
+
+    private Ir.Instruction emit(Ir.Op op, Ir.Instruction... operands) {
+        Ir.Instruction instruction = program.newInstruction(op);
+        for (Ir.Instruction operand : operands) instruction.addOperand(operand);
+
+        current.add(instruction);
+        return instruction;
+    }
+
+    private Ir.Instruction constant(Object value) {
+        Ir.Instruction constant = emit(Ir.Op.Const);
+        constant.constant = value;
+        return constant;
+    }
+
+    private void jump(Ir.Block target) {
+        emit(Ir.Op.Jump).targets.add(target);
+        target.predecessors.add(current);
+        current = null;
+    }
+
+    private void branch(Ir.Instruction condition, Ir.Block whenTrue, Ir.Block whenFalse) {
+        Ir.Instruction branch = emit(Ir.Op.Branch, condition);
+        branch.targets.add(whenTrue);
+        branch.targets.add(whenFalse);
+        whenTrue.predecessors.add(current);
+        whenFalse.predecessors.add(current);
+        current = null;
+    }
+
+    //Joins after an if whose branches both break or continue are never reached
+    private void removeBlocksWithoutPredecessors() {
+        program.blocks.removeIf(block -> block != program.entry && block.predecessors.isEmpty());
+    }
+
+    /**
+     * Thrown when the program uses something the IR can't express, the caller should run it with the
+     * {@link Interpreter} instead.
+     */
+    public static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String message) {
+            super("The IR doesn't support " + message);
+        }
+    }
+
+    //A single declaration, different lets of the same name are different variables
+    private static class Variable {
+        final boolean global;
+
+        Variable(boolean global) {
+            this.global = global;
+        }
+    }
+
+    //Where a continue and a break of the loop jump to
+    private record Loop(Ir.Block next, Ir.Block exit) {
+    }
+}
@@ -0,0 +1,108 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.ValueToken;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a program lowered to {@link Ir}. Every instruction keeps its value in its own slot of an array (SSA values are
+ * only assigned once), and the phis of a block are assigned all at once when it's jumped to, with the values that
+ * come from the block it was jumped from.
+ * <p>
+ * Like the interpreter, it runs with the builtins as its globals (or the ones of a {@link CompiledProgram} run), and
+ * prints to System.out unless it's given somewhere else.
+ */
+public class IrInterpreter {
+    private final List<Interpreter.RuntimeError> errors = new ArrayList<>();
+    private final Environment env;
+    //System.out, whichever it is at the time, when null
+    private final PrintStream out;
+    private boolean hadError = false;
+
+    public IrInterpreter() {
+        this(Builtins.globals(), null);
+    }
+
+    IrInterpreter(Environment env, PrintStream out) {
+        this.env = env;
+        this.out = out;
+    }
+
+    public void interpret(Ir.Program program) {
+        try {
+            run(program);
+        } catch (Interpreter.RuntimeError err) {
+            this.hadError = true;
+            this.errors.add(err);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run(Ir.Program program) {
+        Object[] values = new Object[program.instructionCount()];
+        Object[] incoming = new Object[0];
+
+        Ir.Block block = program.entry;
+        Ir.Block from = null;
+
+        blocks:
+        while (true) {
+            if (!block.phis.isEmpty()) {
+                //Read before any is written, a phi may use another phi of the same block
+                int edge = block.predecessors.indexOf(from);
+                if (incoming.length < block.phis.size()) incoming = new Object[block.phis.size()];
+
+                for (int i = 0; i < block.phis.size(); i++) incoming[i] = values[block.phis.get(i).operands.get(edge).id];
+                for (int i = 0; i < block.phis.size(); i++) values[block.phis.get(i).id] = incoming[i];
+            }
+
+            for (Ir.Instruction instruction : block.instructions) {
+                switch (instruction.op) {
+                    case Const -> values[instruction.id] = instruction.constant;
+                    case Binary -> values[instruction.id] = Interpreter.binary(instruction.token,
+                            values[instruction.operands.get(0).id], values[instruction.operands.get(1).id]);
+                    case Unary -> values[instruction.id] = Interpreter.unary(instruction.token,
+                            values[instruction.operands.get(0).id]);
+                    case Truthy -> values[instruction.id] = Interpreter.isTruthy(values[instruction.operands.get(0).id]);
+                    case LoadGlobal -> values[instruction.id] = env.get((ValueToken<String>) instruction.token);
+                    case DefineGlobal -> env.define(((ValueToken<String>) instruction.token).getValue(),
+                            values[instruction.operands.get(0).id]);
+                    case StoreGlobal -> env.assign((ValueToken<String>) instruction.token,
+                            values[instruction.operands.get(0).id]);
+                    case Print -> out().println(Interpreter.stringify(values[instruction.operands.get(0).id]));
+                    case Jump -> {
+                        from = block;
+                        block = instruction.targets.get(0);
+                        continue blocks;
+                    }
+                    case Branch -> {
+                        from = block;
+                        boolean taken = Interpreter.isTruthy(values[instruction.operands.get(0).id]);
+                        block = instruction.targets.get(taken ? 0 : 1);
+                        continue blocks;
+                    }
+                    case Exit -> {
+                        return;
+                    }
+                    default -> throw new IllegalStateException("Unexpected " + instruction.op + " in " + block);
+                }
+            }
+
+            throw new IllegalStateException("Block without a terminator: " + block);
+        }
+    }
+
+    public boolean hadError() {
+        return this.hadError;
+    }
+
+    public void printErrors() {
+        for (Interpreter.RuntimeError err : errors) err.printError(out());
+    }
+
+    private PrintStream out() {
+        return out != null ? out : System.out;
+    }
+}
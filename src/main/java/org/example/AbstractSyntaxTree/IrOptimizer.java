@@ -0,0 +1,446 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils.TokenType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The passes over {@link Ir}. They are run until none of them finds anything else to do:
+ * <ul>
+ *     <li>Constant folding, of the instructions whose operands are all constants (unless that would throw, the error
+ *     has to happen at runtime), of phis that merge a single value and of branches on a constant.</li>
+ *     <li>Removal of the blocks that can't be reached anymore.</li>
+ *     <li>Global value numbering: an instruction computing the same as another one that dominates it is replaced by
+ *     it.</li>
+ *     <li>Dead code elimination of the instructions whose value is never used, as long as running them can't throw
+ *     (which is what the types are inferred for).</li>
+ * </ul>
+ */
+public class IrOptimizer {
+    //Types are sets, stored as bit masks
+    private static final int NUMBER = 1;
+    private static final int STRING = 1 << 1;
+    private static final int BOOLEAN = 1 << 2;
+    private static final int NIL = 1 << 3;
+    private static final int ANY = -1;
+
+    private final Ir.Program program;
+
+    private IrOptimizer(Ir.Program program) {
+        this.program = program;
+    }
+
+    public static Ir.Program optimize(Ir.Program program) {
+        IrOptimizer optimizer = new IrOptimizer(program);
+
+        boolean changed = true;
+        while (changed) {
+            changed = optimizer.foldConstants();
+            changed |= optimizer.removeUnreachableBlocks();
+            changed |= optimizer.numberValues();
+            changed |= optimizer.eliminateDeadCode();
+        }
+
+        return program;
+    }
+
+    private boolean foldConstants() {
+        boolean changed = false;
+
+        for (Ir.Block block : program.blocks) {
+            for (Ir.Instruction phi : new ArrayList<>(block.phis)) {
+                Ir.Instruction same = singleValue(phi);
+                if (same != null) {
+                    phi.replaceUsesWith(same);
+                    remove(phi);
+                    changed = true;
+                }
+            }
+
+            for (Ir.Instruction instruction : new ArrayList<>(block.instructions)) {
+                if (!allConstant(instruction.operands)) continue;
+
+                switch (instruction.op) {
+                    case Binary -> {
+                        try {
+                            Object left = instruction.operands.get(0).constant;
+                            Object right = instruction.operands.get(1).constant;
+                            instruction.becomeConst(Interpreter.binary(instruction.token, left, right));
+                            changed = true;
+                        } catch (Interpreter.RuntimeError ignored) {
+                            //Left as it is, so it throws when it's run
+                        }
+                    }
+                    case Unary -> {
+                        try {
+                            instruction.becomeConst(Interpreter.unary(instruction.token, instruction.operands.get(0).constant));
+                            changed = true;
+                        } catch (Interpreter.RuntimeError ignored) {
+                            //Left as it is, so it throws when it's run
+                        }
+                    }
+                    case Truthy -> {
+                        instruction.becomeConst(Interpreter.isTruthy(instruction.operands.get(0).constant));
+                        changed = true;
+                    }
+                    case Branch -> {
+                        boolean taken = Interpreter.isTruthy(instruction.operands.get(0).constant);
+                        Ir.Block target = instruction.targets.get(taken ? 0 : 1);
+                        Ir.Block other = instruction.targets.get(taken ? 1 : 0);
+
+                        instruction.clearOperands();
+                        instruction.op = Ir.Op.Jump;
+                        instruction.targets.clear();
+                        instruction.targets.add(target);
+                        removeEdge(block, other);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    //The value a phi merges, if it merges only one (besides itself)
+    private static Ir.Instruction singleValue(Ir.Instruction phi) {
+        Ir.Instruction same = null;
+        for (Ir.Instruction operand : phi.operands) {
+            if (operand == same || operand == phi) continue;
+            if (same != null) return null;
+            same = operand;
+        }
+
+        return same;
+    }
+
+    private static boolean allConstant(List<Ir.Instruction> operands) {
+        if (operands.isEmpty()) return false;
+
+        for (Ir.Instruction operand : operands) {
+            if (operand.op != Ir.Op.Const) return false;
+        }
+        return true;
+    }
+
+    private boolean removeUnreachableBlocks() {
+        Set<Ir.Block> reachable = new HashSet<>(reversePostorder());
+        if (reachable.size() == program.blocks.size()) return false;
+
+        for (Ir.Block block : program.blocks) {
+            if (reachable.contains(block)) continue;
+
+            for (Ir.Block succ : block.successors()) {
+                if (reachable.contains(succ)) removeEdge(block, succ);
+            }
+            for (Ir.Instruction phi : block.phis) phi.clearOperands();
+            for (Ir.Instruction instruction : block.instructions) instruction.clearOperands();
+        }
+
+        program.blocks.removeIf(block -> !reachable.contains(block));
+        return true;
+    }
+
+    private static void removeEdge(Ir.Block from, Ir.Block to) {
+        int index = to.predecessors.indexOf(from);
+        to.predecessors.remove(index);
+
+        for (Ir.Instruction phi : to.phis) {
+            Ir.Instruction removed = phi.operands.remove(index);
+            if (!phi.operands.contains(removed)) removed.users.remove(phi);
+        }
+    }
+
+    /**
+     * Walks the dominator tree keeping the instructions of the dominating blocks by what they compute, so that if a
+     * block computes the same again, the value computed before is used instead. Phis are left out, the ones that
+     * merge the same value are folded already.
+     */
+    private boolean numberValues() {
+        Map<Ir.Block, List<Ir.Block>> dominated = new HashMap<>();
+        Map<Ir.Block, Ir.Block> idoms = dominators();
+        for (Ir.Block block : program.blocks) {
+            Ir.Block idom = idoms.get(block);
+            if (idom != block) dominated.computeIfAbsent(idom, b -> new ArrayList<>()).add(block);
+        }
+
+        boolean changed = false;
+        Map<List<Object>, Ir.Instruction> available = new HashMap<>();
+        //Each entry is a block to visit, or the values to forget once its subtree has been visited
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(program.entry);
+
+        while (!pending.isEmpty()) {
+            Object next = pending.pop();
+            if (next instanceof List<?> keys) {
+                keys.forEach(available::remove);
+                continue;
+            }
+
+            Ir.Block block = (Ir.Block) next;
+            List<List<Object>> added = new ArrayList<>();
+            for (Ir.Instruction instruction : new ArrayList<>(block.instructions)) {
+                List<Object> key = valueKey(instruction);
+                if (key == null) continue;
+
+                Ir.Instruction existing = available.get(key);
+                if (existing != null) {
+                    instruction.replaceUsesWith(existing);
+                    remove(instruction);
+                    changed = true;
+                } else {
+                    available.put(key, instruction);
+                    added.add(key);
+                }
+            }
+
+            pending.push(added);
+            for (Ir.Block child : dominated.getOrDefault(block, List.of())) pending.push(child);
+        }
+
+        return changed;
+    }
+
+    //What an instruction computes, or null if running it twice may not give the same
+    private static List<Object> valueKey(Ir.Instruction instruction) {
+        List<Object> key = new ArrayList<>();
+        key.add(instruction.op);
+
+        switch (instruction.op) {
+            //Doubles are compared by their bits, so 0 and -0 are not the same constant
+            case Const -> key.add(instruction.constant);
+            case Binary, Unary -> key.add(instruction.token.getTokenType());
+            case Truthy -> {
+            }
+            default -> {
+                return null;
+            }
+        }
+
+        for (Ir.Instruction operand : instruction.operands) key.add(operand.id);
+        return key;
+    }
+
+    /**
+     * The immediate dominator of each block (the entry is its own), from "A Simple, Fast Dominance Algorithm"
+     * (Cooper, Harvey and Kennedy).
+     */
+    private Map<Ir.Block, Ir.Block> dominators() {
+        List<Ir.Block> order = reversePostorder();
+        Map<Ir.Block, Integer> index = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) index.put(order.get(i), i);
+
+        Ir.Block[] idom = new Ir.Block[order.size()];
+        idom[0] = program.entry;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.size(); i++) {
+                Ir.Block newIdom = null;
+                for (Ir.Block pred : order.get(i).predecessors) {
+                    Integer predIndex = index.get(pred);
+                    if (predIndex == null || idom[predIndex] == null) continue;
+
+                    newIdom = newIdom == null ? pred : intersect(pred, newIdom, idom, index);
+                }
+
+                if (idom[i] != newIdom) {
+                    idom[i] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        Map<Ir.Block, Ir.Block> idoms = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) idoms.put(order.get(i), idom[i]);
+        return idoms;
+    }
+
+    private static Ir.Block intersect(Ir.Block a, Ir.Block b, Ir.Block[] idom, Map<Ir.Block, Integer> index) {
+        while (a != b) {
+            while (index.get(a) > index.get(b)) a = idom[index.get(a)];
+            while (index.get(b) > index.get(a)) b = idom[index.get(b)];
+        }
+        return a;
+    }
+
+    private List<Ir.Block> reversePostorder() {
+        List<Ir.Block> postorder = new ArrayList<>();
+        Set<Ir.Block> visited = new HashSet<>();
+        //Each entry is a block and how many of its successors have been visited
+        Deque<Object[]> stack = new ArrayDeque<>();
+        stack.push(new Object[]{program.entry, 0});
+        visited.add(program.entry);
+
+        while (!stack.isEmpty()) {
+            Object[] top = stack.peek();
+            Ir.Block block = (Ir.Block) top[0];
+            int next = (int) top[1];
+            List<Ir.Block> successors = block.successors();
+
+            if (next < successors.size()) {
+                top[1] = next + 1;
+                Ir.Block succ = successors.get(next);
+                if (visited.add(succ)) stack.push(new Object[]{succ, 0});
+            } else {
+                stack.pop();
+                postorder.add(block);
+            }
+        }
+
+        List<Ir.Block> order = new ArrayList<>(postorder.size());
+        for (int i = postorder.size() - 1; i >= 0; i--) order.add(postorder.get(i));
+        return order;
+    }
+
+    /**
+     * Removes the instructions whose values are never used. What has effects (printing, the environment, control
+     * flow, and anything that may throw) is always kept, along with everything it uses.
+     */
+    private boolean eliminateDeadCode() {
+        Map<Ir.Instruction, Integer> types = inferTypes();
+
+        Set<Ir.Instruction> live = new HashSet<>();
+        Deque<Ir.Instruction> worklist = new ArrayDeque<>();
+        for (Ir.Block block : program.blocks) {
+            for (Ir.Instruction instruction : block.instructions) {
+                if (hasEffects(instruction, types) && live.add(instruction)) worklist.add(instruction);
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            for (Ir.Instruction operand : worklist.poll().operands) {
+                if (live.add(operand)) worklist.add(operand);
+            }
+        }
+
+        boolean changed = false;
+        for (Ir.Block block : program.blocks) {
+            for (Ir.Instruction instruction : concat(block.phis, block.instructions)) {
+                if (!live.contains(instruction)) {
+                    remove(instruction);
+                    changed = true;
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    private static boolean hasEffects(Ir.Instruction instruction, Map<Ir.Instruction, Integer> types) {
+        switch (instruction.op) {
+            case Const, Phi, Truthy -> {
+                return false;
+            }
+            case Binary -> {
+                int left = types.get(instruction.operands.get(0));
+                int right = types.get(instruction.operands.get(1));
+                if (left == NUMBER && right == NUMBER) return false;
+
+                TokenType operator = instruction.token.getTokenType();
+                return !(operator == TokenType.Plus && left == STRING && right == STRING);
+            }
+            case Unary -> {
+                if (instruction.token.getTokenType() == TokenType.Bang) return false;
+                return types.get(instruction.operands.get(0)) != NUMBER;
+            }
+            //Loading an undefined global throws
+            default -> {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The types each value may have, iterated until the phis of the loops don't change anymore. Only used to know
+     * which instructions can't throw.
+     */
+    private Map<Ir.Instruction, Integer> inferTypes() {
+        Map<Ir.Instruction, Integer> types = new HashMap<>();
+        for (Ir.Block block : program.blocks) {
+            for (Ir.Instruction instruction : concat(block.phis, block.instructions)) types.put(instruction, 0);
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Ir.Block block : program.blocks) {
+                for (Ir.Instruction instruction : concat(block.phis, block.instructions)) {
+                    int type = typeOf(instruction, types);
+                    if (type != types.get(instruction)) {
+                        types.put(instruction, type);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return types;
+    }
+
+    private static int typeOf(Ir.Instruction instruction, Map<Ir.Instruction, Integer> types) {
+        switch (instruction.op) {
+            case Const -> {
+                Object value = instruction.constant;
+                if (value == null) return NIL;
+                if (value instanceof Double) return NUMBER;
+                if (value instanceof String) return STRING;
+                if (value instanceof Boolean) return BOOLEAN;
+                return ANY;
+            }
+            case Phi -> {
+                int type = 0;
+                for (Ir.Instruction operand : instruction.operands) type |= types.get(operand);
+                return type;
+            }
+            case Binary -> {
+                switch (instruction.token.getTokenType()) {
+                    case Minus, Slash, Star -> {
+                        return NUMBER;
+                    }
+                    case Plus -> {
+                        int left = types.get(instruction.operands.get(0));
+                        int right = types.get(instruction.operands.get(1));
+                        int type = 0;
+                        if ((left & NUMBER) != 0 && (right & NUMBER) != 0) type |= NUMBER;
+                        if ((left & STRING) != 0 && (right & STRING) != 0) type |= STRING;
+                        return type;
+                    }
+                    case Greater, Greater_Equal, Less, Less_Equal, Not_Equal, Equal_Equal -> {
+                        return BOOLEAN;
+                    }
+                }
+                return NIL;
+            }
+            case Unary -> {
+                return instruction.token.getTokenType() == TokenType.Minus ? NUMBER : BOOLEAN;
+            }
+            case Truthy -> {
+                return BOOLEAN;
+            }
+            default -> {
+                return ANY;
+            }
+        }
+    }
+
+    private static void remove(Ir.Instruction instruction) {
+        instruction.clearOperands();
+        if (instruction.op == Ir.Op.Phi) instruction.block.phis.remove(instruction);
+        else instruction.block.instructions.remove(instruction);
+    }
+
+    private static List<Ir.Instruction> concat(List<Ir.Instruction> phis, List<Ir.Instruction> instructions) {
+        List<Ir.Instruction> all = new ArrayList<>(phis);
+        all.addAll(instructions);
+        return all;
+    }
+}
@@ -0,0 +1,27 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+
+import java.lang.reflect.Executable;
+import java.util.List;
+
+/**
+ * A Java class or static method a script can call. Which of its overloads a call gets depends on the classes of the
+ * arguments, see {@link JavaTarget}.
+ */
+abstract class JavaCallable {
+    //What the last call that didn't come from a call site of its own (a builtin calling it) resolved to
+    private volatile JavaTarget last;
+
+    //The constructors or methods a call picks from
+    abstract List<? extends Executable> candidates();
+
+    Object call(TokenUtils.Token paren, Object[] arguments) {
+        JavaTarget target = last;
+        if (target == null || !target.accepts(this, arguments)) {
+            target = JavaTarget.resolve(paren, this, arguments);
+            last = target;
+        }
+        return target.invoke(paren, arguments);
+    }
+}
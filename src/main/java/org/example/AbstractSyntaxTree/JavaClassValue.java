@@ -0,0 +1,83 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+import org.example.Lexer.ValueToken;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A Java class, given by {@code java("java.lang.Math")}. Calling it calls one of its public constructors, and its
+ * public static methods are its fields: {@code Math.max(1, 2)}.
+ * <p>
+ * Scripts can only get the classes whose names start with one of the prefixes (a package with its dot, or a class)
+ * of the comma-separated list in -Dtekla.java. Without it, they get a few classes of java.lang that can't touch
+ * anything outside the program.
+ */
+public class JavaClassValue extends JavaCallable {
+    private static final String DEFAULT_ALLOWED = "java.lang.Math,java.lang.StrictMath,java.lang.String,"
+            + "java.lang.StringBuilder,java.lang.Character,java.lang.Integer,java.lang.Long,java.lang.Double";
+    private static final List<String> ALLOWED = List.of(System.getProperty("tekla.java", DEFAULT_ALLOWED).split(","));
+
+    //One value for each class, so call sites can compare them by identity
+    private static final ClassValue<JavaClassValue> VALUES = new ClassValue<>() {
+        @Override
+        protected JavaClassValue computeValue(Class<?> type) {
+            return new JavaClassValue(type);
+        }
+    };
+
+    final Class<?> type;
+    private final List<Constructor<?>> constructors;
+    private final Map<String, JavaMethodValue> methods = new ConcurrentHashMap<>();
+
+    private JavaClassValue(Class<?> type) {
+        this.type = type;
+        this.constructors = Modifier.isAbstract(type.getModifiers()) ? List.of() : List.of(type.getConstructors());
+    }
+
+    static JavaClassValue forName(TokenUtils.Token paren, String name) {
+        if (ALLOWED.stream().noneMatch(prefix -> !prefix.isBlank() && name.startsWith(prefix.strip()))) {
+            throw new Interpreter.RuntimeError(paren, "The Java class '" + name + "' isn't allowed (see -Dtekla.java).");
+        }
+
+        Class<?> type;
+        try {
+            type = Class.forName(name);
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new Interpreter.RuntimeError(paren, "There's no Java class '" + name + "'.");
+        }
+        if (!Modifier.isPublic(type.getModifiers())) {
+            throw new Interpreter.RuntimeError(paren, "The Java class '" + name + "' isn't public.");
+        }
+        return VALUES.get(type);
+    }
+
+    JavaMethodValue method(ValueToken<String> name) {
+        JavaMethodValue method = methods.computeIfAbsent(name.getValue(), n -> {
+            List<Method> overloads = Arrays.stream(type.getMethods())
+                    .filter(m -> m.getName().equals(n) && Modifier.isStatic(m.getModifiers()))
+                    .toList();
+            return overloads.isEmpty() ? null : new JavaMethodValue(this, n, overloads);
+        });
+        if (method == null) {
+            throw new Interpreter.RuntimeError(name, type.getName() + " has no public static method '" + name.getValue() + "'.");
+        }
+        return method;
+    }
+
+    @Override
+    List<Constructor<?>> candidates() {
+        return constructors;
+    }
+
+    @Override
+    public String toString() {
+        return "<java " + type.getName() + ">";
+    }
+}
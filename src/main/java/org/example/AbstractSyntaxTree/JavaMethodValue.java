@@ -0,0 +1,30 @@
+package org.example.AbstractSyntaxTree;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * The public static methods of a Java class that have the same name, as in {@code Math.max}. A class gives back the
+ * same value for a name every time.
+ */
+public class JavaMethodValue extends JavaCallable {
+    private final JavaClassValue owner;
+    private final String name;
+    private final List<Method> overloads;
+
+    JavaMethodValue(JavaClassValue owner, String name, List<Method> overloads) {
+        this.owner = owner;
+        this.name = name;
+        this.overloads = overloads;
+    }
+
+    @Override
+    List<Method> candidates() {
+        return overloads;
+    }
+
+    @Override
+    public String toString() {
+        return "<java " + owner.type.getName() + "." + name + ">";
+    }
+}
@@ -0,0 +1,215 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.util.Comparator;
+
+/**
+ * A constructor or method of a {@link JavaCallable}, resolved for the classes of the arguments of a call. A call site
+ * keeps the last one it resolved and uses it again while it calls the same callable with arguments of the same
+ * classes (that's the guard), so the overloads are only looked at when those change.
+ * <p>
+ * The method handle it calls takes the arguments as the interpreter has them and gives back what the interpreter
+ * uses: numbers come in as doubles and go to any numeric parameter (to the integer ones only when they're whole and
+ * fit), one-character strings go to chars, and what comes back as a number is a double, a char is a string and void
+ * is nil. Other objects go in and come back as they are. A variable number of arguments is one array parameter,
+ * like any other.
+ * <p>
+ * Among the overloads that take the arguments, a call gets the one that loses the least converting them: a double
+ * before a long, a long before an int, the exact class before a superclass.
+ */
+final class JavaTarget {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final int NO = Integer.MAX_VALUE;
+
+    private final JavaCallable callee;
+    //The class of each argument, null for nil
+    private final Class<?>[] classes;
+    //Takes the arguments in an array, gives back an interpreter value
+    private final MethodHandle handle;
+
+    private JavaTarget(JavaCallable callee, Class<?>[] classes, MethodHandle handle) {
+        this.callee = callee;
+        this.classes = classes;
+        this.handle = handle;
+    }
+
+    boolean accepts(JavaCallable callee, Object[] arguments) {
+        if (callee != this.callee || arguments.length != classes.length) return false;
+        for (int i = 0; i < arguments.length; i++) {
+            if ((arguments[i] == null ? null : arguments[i].getClass()) != classes[i]) return false;
+        }
+        return true;
+    }
+
+    Object invoke(TokenUtils.Token paren, Object[] arguments) {
+        try {
+            return handle.invokeExact(arguments);
+        } catch (Interpreter.RuntimeError error) {
+            throw error;
+        } catch (Throwable failure) {
+            throw new Interpreter.RuntimeError(paren, "The Java call to " + callee + " failed: " + failure + ".");
+        }
+    }
+
+    static JavaTarget resolve(TokenUtils.Token paren, JavaCallable callee, Object[] arguments) {
+        Class<?>[] classes = new Class<?>[arguments.length];
+        for (int i = 0; i < arguments.length; i++) classes[i] = arguments[i] == null ? null : arguments[i].getClass();
+
+        //Sorted by their signature first, so which one of two that cost the same wins doesn't depend on the JVM
+        Executable best = callee.candidates().stream()
+                .sorted(Comparator.comparing(Executable::toString))
+                .filter(candidate -> cost(candidate, classes) != NO)
+                .min(Comparator.comparingInt(candidate -> cost(candidate, classes)))
+                .orElseThrow(() -> new Interpreter.RuntimeError(paren,
+                        callee + " can't be called with " + arguments.length + " arguments of these types."));
+
+        try {
+            return new JavaTarget(callee, classes, adapt(best, classes));
+        } catch (IllegalAccessException e) {
+            throw new Interpreter.RuntimeError(paren, "Can't call " + best + ": " + e.getMessage());
+        }
+    }
+
+    private static int cost(Executable candidate, Class<?>[] classes) {
+        if (candidate.getParameterCount() != classes.length) return NO;
+
+        int total = 0;
+        Class<?>[] params = candidate.getParameterTypes();
+        for (int i = 0; i < params.length; i++) {
+            int cost = cost(params[i], classes[i]);
+            if (cost == NO) return NO;
+            total += cost;
+        }
+        return total;
+    }
+
+    private static int cost(Class<?> param, Class<?> argument) {
+        if (argument == null) return param.isPrimitive() ? NO : 1;
+        if (argument == Double.class) {
+            Class<?> number = unboxed(param);
+            if (number == double.class) return 0;
+            if (number == long.class) return 1;
+            if (number == int.class || number == float.class) return 2;
+            if (number == short.class || number == byte.class) return 3;
+        }
+        if (argument == String.class && unboxed(param) == char.class) return 3;
+        if (argument == Boolean.class && param == boolean.class) return 0;
+
+        if (param == argument) return 0;
+        if (param.isAssignableFrom(argument)) return param == Object.class ? 5 : 4;
+        return NO;
+    }
+
+    //The parameters take what they're given as an Object and the result is an interpreter value
+    private static MethodHandle adapt(Executable target, Class<?>[] classes) throws IllegalAccessException {
+        MethodHandle handle = target instanceof Method method
+                ? MethodHandles.publicLookup().unreflect(method)
+                : MethodHandles.publicLookup().unreflectConstructor((Constructor<?>) target);
+        //A varargs method would collect the trailing arguments when adapted, it takes its array as it is instead
+        handle = handle.asFixedArity();
+
+        Class<?>[] params = target.getParameterTypes();
+        for (int i = 0; i < params.length; i++) {
+            Class<?> param = params[i];
+            Class<?> primitive = unboxed(param);
+            if (classes[i] == Double.class && primitive.isPrimitive() && primitive != double.class) {
+                //The wrappers are boxed from the primitive, after the conversion checked it
+                handle = handle.asType(handle.type().changeParameterType(i, primitive));
+                handle = MethodHandles.filterArguments(handle, i, converter("to" + capitalized(primitive), primitive, Object.class));
+            } else if (classes[i] == String.class && primitive == char.class) {
+                handle = handle.asType(handle.type().changeParameterType(i, char.class));
+                handle = MethodHandles.filterArguments(handle, i, converter("toChar", char.class, Object.class));
+            }
+        }
+
+        Class<?> result = handle.type().returnType();
+        if (result == char.class) {
+            handle = MethodHandles.filterReturnValue(handle, converter("fromChar", String.class, char.class));
+        } else if (result.isPrimitive() && result != boolean.class && result != void.class) {
+            handle = handle.asType(handle.type().changeReturnType(double.class));
+        } else if (!result.isPrimitive() && result != String.class) {
+            handle = MethodHandles.filterReturnValue(handle.asType(handle.type().changeReturnType(Object.class)),
+                    converter("fromObject", Object.class, Object.class));
+        }
+
+        return handle.asType(MethodType.genericMethodType(params.length)).asSpreader(Object[].class, params.length);
+    }
+
+    private static MethodHandle converter(String name, Class<?> result, Class<?> param) {
+        try {
+            return LOOKUP.findStatic(JavaTarget.class, name, MethodType.methodType(result, param));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Class<?> unboxed(Class<?> type) {
+        if (type == Double.class) return double.class;
+        if (type == Float.class) return float.class;
+        if (type == Long.class) return long.class;
+        if (type == Integer.class) return int.class;
+        if (type == Short.class) return short.class;
+        if (type == Byte.class) return byte.class;
+        if (type == Character.class) return char.class;
+        return type;
+    }
+
+    private static String capitalized(Class<?> primitive) {
+        String name = primitive.getName();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    //The guard checked the classes, these only check the values
+    private static float toFloat(Object value) {
+        return (float) (double) (Double) value;
+    }
+
+    private static long toLong(Object value) {
+        double number = (Double) value;
+        long whole = (long) number;
+        if (whole != number || number >= 0x1p63) throw new IllegalArgumentException(number + " isn't a whole number that fits a long");
+        return whole;
+    }
+
+    private static int toInt(Object value) {
+        double number = (Double) value;
+        int whole = (int) number;
+        if (whole != number) throw new IllegalArgumentException(number + " isn't a whole number that fits an int");
+        return whole;
+    }
+
+    private static short toShort(Object value) {
+        int whole = toInt(value);
+        if (whole != (short) whole) throw new IllegalArgumentException(whole + " doesn't fit a short");
+        return (short) whole;
+    }
+
+    private static byte toByte(Object value) {
+        int whole = toInt(value);
+        if (whole != (byte) whole) throw new IllegalArgumentException(whole + " doesn't fit a byte");
+        return (byte) whole;
+    }
+
+    private static char toChar(Object value) {
+        String string = (String) value;
+        if (string.length() != 1) throw new IllegalArgumentException("'" + string + "' isn't one character");
+        return string.charAt(0);
+    }
+
+    private static String fromChar(char value) {
+        return String.valueOf(value);
+    }
+
+    private static Object fromObject(Object value) {
+        if (value instanceof Double || !(value instanceof Number || value instanceof Character)) return value;
+        if (value instanceof Character character) return character.toString();
+        return ((Number) value).doubleValue();
+    }
+}
@@ -0,0 +1,476 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils.TokenType;
+import org.example.Lexer.ValueToken;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loop-invariant code motion.
+ * <p>
+ * For every while loop (for loops included: the parser turns those that don't just count into a while whose body is a
+ * BlockStatement holding the original body and the increment), the pure subexpressions of the condition and the body that only
+ * read variables the loop never declares nor assigns are replaced by a {@link Expression.HoistedExpression}. Its
+ * binding lives in the pre-header of the loop, so the expression is computed once per loop entry instead of once
+ * per iteration.
+ * <p>
+ * Counted range loops work the same way, with their counter as one more variable the loop assigns.
+ * <p>
+ * Only the local variables of functions can be read by an invariant. The globals (and the variables of the blocks
+ * at the top level, which live in environments like them) may be assigned at any moment by a task running on
+ * another thread, and so may the locals that a function declared inside the one with the loop assigns. A function
+ * called from the loop may assign any variable, so in a loop with calls only what doesn't read variables is
+ * invariant. The bodies of the functions declared in a loop run when they are called, not when the loop iterates,
+ * so nothing is hoisted out of them.
+ * <p>
+ * Outer loops are handled before the inner ones, so an expression that is invariant in both ends up in the
+ * outermost pre-header it can go to.
+ */
+public class LoopInvariantCodeMotion extends AstScanner {
+    private int hoistedCount = 0;
+    //The scopes of the function being scanned, the innermost last, or null at the top level
+    private List<Set<String>> scopes = null;
+    //The variables the functions declared in that one assign
+    private Set<String> assignedInside = Set.of();
+
+    public List<Statement> optimize(List<Statement> statements) {
+        scan(statements);
+        return statements;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+        new LoopHoister(whileStatement, stableLocals()).hoist();
+
+        //Now look for the inner loops
+        return super.visitWhileStatement(whileStatement);
+    }
+
+    @Override
+    public Void visitForRangeStatement(Statement.ForRangeStatement forRange) {
+        new LoopHoister(forRange, stableLocals()).hoist();
+
+        scan(forRange.start);
+        scan(forRange.end);
+        push();
+        declare(forRange.name.getValue());
+        scan(forRange.body);
+        pop();
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+        List<Set<String>> outerScopes = scopes;
+        Set<String> outerAssignedInside = assignedInside;
+
+        scopes = new ArrayList<>(List.of(new HashSet<>()));
+        for (var param : functionExpr.params) declare(param.getValue());
+        InnerAssignments inner = new InnerAssignments();
+        inner.scan(functionExpr.body);
+        assignedInside = inner.names;
+        super.visitFunctionExpression(functionExpr);
+
+        scopes = outerScopes;
+        assignedInside = outerAssignedInside;
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.FunctionStatement functionStatement) {
+        declare(functionStatement.function.name.getValue());
+        return super.visitFunctionStatement(functionStatement);
+    }
+
+    @Override
+    public Void visitLetStatement(Statement.LetStatement letStatement) {
+        super.visitLetStatement(letStatement);
+        declare(letStatement.name.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.BlockStatement blockStatement) {
+        push();
+        super.visitBlockStatement(blockStatement);
+        pop();
+        return null;
+    }
+
+    private void declare(String name) {
+        if (scopes != null) scopes.get(scopes.size() - 1).add(name);
+    }
+
+    private void push() {
+        if (scopes != null) scopes.add(new HashSet<>());
+    }
+
+    private void pop() {
+        if (scopes != null) scopes.remove(scopes.size() - 1);
+    }
+
+    //The locals in scope that only the function itself assigns, the only variables an invariant can read
+    private Set<String> stableLocals() {
+        Set<String> locals = new HashSet<>();
+        if (scopes == null) return locals;
+
+        for (Set<String> scope : scopes) locals.addAll(scope);
+        locals.removeAll(assignedInside);
+        return locals;
+    }
+
+    /**
+     * Collects every variable a piece of code declares or assigns, at any depth.
+     */
+    static class AssignedNames extends AstScanner {
+        final Set<String> names = new HashSet<>();
+
+        @Override
+        public Void visitLetStatement(Statement.LetStatement letStatement) {
+            names.add(letStatement.name.getValue());
+            return super.visitLetStatement(letStatement);
+        }
+
+        @Override
+        public Void visitAssignExpression(Expression.AssignExpression assignExpr) {
+            names.add(assignExpr.name.getValue());
+            return super.visitAssignExpression(assignExpr);
+        }
+
+        @Override
+        public Void visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpr) {
+            names.add(compoundExpr.name.getValue());
+            return super.visitCompoundAssignExpression(compoundExpr);
+        }
+
+        @Override
+        public Void visitForRangeStatement(Statement.ForRangeStatement forRangeStatement) {
+            names.add(forRangeStatement.name.getValue());
+            return super.visitForRangeStatement(forRangeStatement);
+        }
+    }
+
+    /**
+     * Collects what the functions declared in a piece of code assign, at any depth.
+     */
+    private static class InnerAssignments extends AstScanner {
+        final Set<String> names = new HashSet<>();
+
+        @Override
+        public Void visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+            AssignedNames assigned = new AssignedNames();
+            assigned.scan(functionExpr.body);
+            names.addAll(assigned.names);
+            return null;
+        }
+    }
+
+    /**
+     * Finds whether a piece of code calls a function. Declaring one doesn't run it, so function bodies are skipped.
+     */
+    static class Calls extends AstScanner {
+        boolean found = false;
+
+        static boolean in(Statement statement) {
+            Calls calls = new Calls();
+            calls.scan(statement);
+            return calls.found;
+        }
+
+        static boolean in(Expression expr) {
+            Calls calls = new Calls();
+            calls.scan(expr);
+            return calls.found;
+        }
+
+        @Override
+        public Void visitCallExpression(Expression.CallExpression callExpr) {
+            found = true;
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+            return null;
+        }
+    }
+
+    /**
+     * Rewrites the expressions of a single loop (nested loops included), moving its invariants to the pre-header.
+     * Expressions may be shared between several statements, so they are rebuilt instead of modified in place.
+     */
+    private class LoopHoister extends AstScanner {
+        private final Statement loop;
+        private final List<Expression.HoistedExpression> preheader;
+        private final Set<String> variant;
+        private final Set<String> locals;
+        private final boolean calls;
+        //Structurally equal invariants share a single binding
+        private final Map<String, Expression.HoistedExpression> bindings = new HashMap<>();
+
+        LoopHoister(Statement.WhileStatement loop, Set<String> locals) {
+            this(loop, loop.preheader, locals);
+        }
+
+        LoopHoister(Statement.ForRangeStatement loop, Set<String> locals) {
+            this(loop, loop.preheader, locals);
+        }
+
+        private LoopHoister(Statement loop, List<Expression.HoistedExpression> preheader, Set<String> locals) {
+            this.loop = loop;
+            this.preheader = preheader;
+            this.locals = locals;
+
+            AssignedNames assigned = new AssignedNames();
+            assigned.scan(loop);
+            this.variant = assigned.names;
+            this.calls = Calls.in(loop);
+        }
+
+        void hoist() {
+            if (loop instanceof Statement.WhileStatement whileStatement) {
+                whileStatement.condition = hoist(whileStatement.condition);
+                scan(whileStatement.body);
+            } else if (loop instanceof Statement.ForRangeStatement forRange) {
+                //The bounds are computed once already
+                scan(forRange.body);
+            }
+        }
+
+        @Override
+        public Void visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStatement(Statement.ReturnStatement returnStatement) {
+            if (returnStatement.value != null) returnStatement.value = hoist(returnStatement.value);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+            statement.expr = hoist(statement.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStatement(Statement.PrintStatement statement) {
+            statement.expr = hoist(statement.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitLetStatement(Statement.LetStatement letStatement) {
+            if (letStatement.initializer != null) letStatement.initializer = hoist(letStatement.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStatement(Statement.IfStatement ifStatement) {
+            ifStatement.condit = hoist(ifStatement.condit);
+            scan(ifStatement.thenBranch);
+            scan(ifStatement.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitMatchStatement(Statement.MatchStatement matchStatement) {
+            matchStatement.subject = hoist(matchStatement.subject);
+            for (Statement arm : matchStatement.arms) scan(arm);
+            scan(matchStatement.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+            whileStatement.condition = hoist(whileStatement.condition);
+            scan(whileStatement.body);
+            return null;
+        }
+
+        @Override
+        public Void visitForRangeStatement(Statement.ForRangeStatement forRangeStatement) {
+            forRangeStatement.start = hoist(forRangeStatement.start);
+            forRangeStatement.end = hoist(forRangeStatement.end);
+            scan(forRangeStatement.body);
+            return null;
+        }
+
+        private Expression hoist(Expression expr) {
+            if (isInvariant(expr)) return isTrivial(expr) ? expr : bind(expr);
+
+            if (expr instanceof Expression.BinaryExpression bin) {
+                Expression left = hoist(bin.left);
+                Expression right = hoist(bin.right);
+                if (left == bin.left && right == bin.right) return bin;
+                return new Expression.BinaryExpression(left, bin.operator, right);
+            }
+
+            if (expr instanceof Expression.LogicalExpression logic) {
+                Expression left = hoist(logic.left);
+                Expression right = hoist(logic.right);
+                if (left == logic.left && right == logic.right) return logic;
+                return new Expression.LogicalExpression(left, logic.operator, right);
+            }
+
+            if (expr instanceof Expression.UnaryExpression unary) {
+                Expression right = hoist(unary.right);
+                if (right == unary.right) return unary;
+                return new Expression.UnaryExpression(unary.operator, right);
+            }
+
+            if (expr instanceof Expression.GroupingExpression group) {
+                Expression inner = hoist(group.expr);
+                if (inner == group.expr) return group;
+                return new Expression.GroupingExpression(inner);
+            }
+
+            if (expr instanceof Expression.AssignExpression assign) {
+                Expression value = hoist(assign.value);
+                if (value == assign.value) return assign;
+                return new Expression.AssignExpression(assign.name, value);
+            }
+
+            if (expr instanceof Expression.CompoundAssignExpression compound) {
+                Expression value = hoist(compound.value);
+                if (value == compound.value) return compound;
+                return new Expression.CompoundAssignExpression(compound.name, compound.operator, value, compound.postfix);
+            }
+
+            if (expr instanceof Expression.CallExpression call) {
+                Expression callee = hoist(call.callee);
+                List<Expression> arguments = new ArrayList<>();
+                for (Expression argument : call.arguments) arguments.add(hoist(argument));
+                if (callee == call.callee && arguments.equals(call.arguments)) return call;
+                return new Expression.CallExpression(callee, call.paren, arguments);
+            }
+
+            if (expr instanceof Expression.ArrayExpression array) {
+                List<Expression> elements = new ArrayList<>();
+                for (Expression element : array.elements) elements.add(hoist(element));
+                if (elements.equals(array.elements)) return array;
+                return new Expression.ArrayExpression(array.bracket, elements);
+            }
+
+            if (expr instanceof Expression.MapExpression map) {
+                List<Expression> keys = new ArrayList<>();
+                List<Expression> values = new ArrayList<>();
+                for (Expression key : map.keys) keys.add(hoist(key));
+                for (Expression value : map.values) values.add(hoist(value));
+                if (keys.equals(map.keys) && values.equals(map.values)) return map;
+                return new Expression.MapExpression(map.brace, keys, values);
+            }
+
+            if (expr instanceof Expression.StructExpression struct) {
+                List<Expression> values = new ArrayList<>();
+                for (Expression value : struct.values) values.add(hoist(value));
+                if (values.equals(struct.values)) return struct;
+                return new Expression.StructExpression(struct.keyword, struct.names, values);
+            }
+
+            if (expr instanceof Expression.GetExpression field) {
+                Expression object = hoist(field.object);
+                if (object == field.object) return field;
+                return new Expression.GetExpression(object, field.name);
+            }
+
+            if (expr instanceof Expression.SetExpression field) {
+                Expression object = hoist(field.object);
+                Expression value = hoist(field.value);
+                if (object == field.object && value == field.value) return field;
+                return new Expression.SetExpression(object, field.name, field.operator, value, field.postfix);
+            }
+
+            if (expr instanceof Expression.IndexExpression element) {
+                Expression object = hoist(element.object);
+                Expression index = hoist(element.index);
+                if (object == element.object && index == element.index) return element;
+                return new Expression.IndexExpression(object, element.bracket, index);
+            }
+
+            if (expr instanceof Expression.IndexAssignExpression assign) {
+                Expression object = hoist(assign.object);
+                Expression index = hoist(assign.index);
+                Expression value = hoist(assign.value);
+                if (object == assign.object && index == assign.index && value == assign.value) return assign;
+                return new Expression.IndexAssignExpression(object, assign.bracket, index, assign.operator, value,
+                        assign.postfix);
+            }
+
+            return expr;
+        }
+
+        private Expression.HoistedExpression bind(Expression expr) {
+            return bindings.computeIfAbsent(key(expr), k -> {
+                ValueToken<String> name = new ValueToken<>(0, TokenType.Identifier, "$licm" + hoistedCount++);
+                Expression.HoistedExpression hoisted = new Expression.HoistedExpression(name, expr);
+                preheader.add(hoisted);
+                return hoisted;
+            });
+        }
+
+        private boolean isInvariant(Expression expr) {
+            if (expr instanceof Expression.LiteralExpression) return true;
+            if (expr instanceof Expression.HoistedExpression) return true;
+            if (expr instanceof Expression.VarExpression var) {
+                String name = var.name.getValue();
+                return !calls && locals.contains(name) && !variant.contains(name);
+            }
+            if (expr instanceof Expression.GroupingExpression group) return isInvariant(group.expr);
+            if (expr instanceof Expression.UnaryExpression unary) return isInvariant(unary.right);
+            if (expr instanceof Expression.BinaryExpression bin) {
+                return isInvariant(bin.left) && isInvariant(bin.right);
+            }
+            if (expr instanceof Expression.LogicalExpression logic) {
+                return isInvariant(logic.left) && isInvariant(logic.right);
+            }
+
+            //Assignments and calls have side effects, they (and whatever contains them) stay where they are. Array,
+            //map and struct literals make a new one every time, and elements and fields can change without assigning
+            //any variable
+            return false;
+        }
+    }
+
+    /**
+     * Reading a binding costs about the same as reading a variable or a literal, so those are never worth hoisting.
+     */
+    private static boolean isTrivial(Expression expr) {
+        if (expr instanceof Expression.GroupingExpression group) return isTrivial(group.expr);
+
+        return expr instanceof Expression.LiteralExpression
+                || expr instanceof Expression.VarExpression
+                || expr instanceof Expression.HoistedExpression;
+    }
+
+    /**
+     * A structural key for the pure expressions, literals keep their type so "1" and 1 don't collide.
+     */
+    static String key(Expression expr) {
+        if (expr instanceof Expression.LiteralExpression lit) {
+            if (lit.value == null) return "nil";
+            if (lit.value instanceof String) return "\"" + lit.value + "\"";
+            return String.valueOf(lit.value);
+        }
+        if (expr instanceof Expression.VarExpression var) return var.name.getValue();
+        if (expr instanceof Expression.HoistedExpression hoisted) return hoisted.name.getValue();
+        if (expr instanceof Expression.GroupingExpression group) return key(group.expr);
+        if (expr instanceof Expression.UnaryExpression unary) {
+            return "(" + unary.operator.getTokenType() + " " + key(unary.right) + ")";
+        }
+        if (expr instanceof Expression.BinaryExpression bin) {
+            return "(" + bin.operator.getTokenType() + " " + key(bin.left) + " " + key(bin.right) + ")";
+        }
+        if (expr instanceof Expression.LogicalExpression logic) {
+            return "(" + logic.operator.getTokenType() + " " + key(logic.left) + " " + key(logic.right) + ")";
+        }
+
+        throw new IllegalArgumentException("Only invariant expressions can be hoisted, got " + expr);
+    }
+}
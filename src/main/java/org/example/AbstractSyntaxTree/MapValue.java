@@ -0,0 +1,182 @@
+package org.example.AbstractSyntaxTree;
+
+import java.util.Arrays;
+
+/**
+ * The maps of Tekla. Keys are equal when {@link Interpreter#isEqual} says so, like for {@code ==} and match.
+ * <p>
+ * The entries are kept in parallel arrays in the order their keys were first put, with the hash of every key next to
+ * it, and the table is open addressing with linear probing over the positions of those entries. There is no node
+ * object per entry, probing mostly compares ints, a key is only hashed once, and growing the table never hashes
+ * again. Strings and numbers, the usual keys, are compared without going through equals.
+ */
+public class MapValue {
+    //Marks the entries that were removed, until the next compaction
+    private static final Object REMOVED = new Object();
+    private static final int EMPTY = -1;
+
+    //The position of an entry in each slot of the table, or EMPTY. Its length is a power of two
+    private int[] slots;
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes;
+    //Entries in use, the removed ones too
+    private int entries = 0;
+    private int size = 0;
+
+    MapValue() {
+        this.slots = new int[8];
+        Arrays.fill(slots, EMPTY);
+        this.keys = new Object[4];
+        this.values = new Object[4];
+        this.hashes = new int[4];
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object key) {
+        int entry = find(key, hash(key));
+        return entry == EMPTY ? null : values[entry];
+    }
+
+    boolean has(Object key) {
+        return find(key, hash(key)) != EMPTY;
+    }
+
+    void put(Object key, Object value) {
+        int hash = hash(key);
+        int entry = find(key, hash);
+        if (entry != EMPTY) {
+            values[entry] = value;
+            return;
+        }
+
+        if (entries == keys.length) makeRoom();
+
+        entry = entries++;
+        keys[entry] = key;
+        values[entry] = value;
+        hashes[entry] = hash;
+        slots[freeSlot(hash)] = entry;
+        size++;
+    }
+
+    //What the key was mapped to, nil if it wasn't there
+    Object remove(Object key) {
+        int entry = find(key, hash(key));
+        if (entry == EMPTY) return null;
+
+        //The slot stays taken, or the keys probed past it would be lost
+        Object value = values[entry];
+        keys[entry] = REMOVED;
+        values[entry] = null;
+        size--;
+        return value;
+    }
+
+    ArrayValue keys() {
+        ArrayValue array = new ArrayValue(size);
+        for (int i = 0; i < entries; i++) {
+            if (keys[i] != REMOVED) array.append(keys[i]);
+        }
+        return array;
+    }
+
+    ArrayValue values() {
+        ArrayValue array = new ArrayValue(size);
+        for (int i = 0; i < entries; i++) {
+            if (keys[i] != REMOVED) array.append(values[i]);
+        }
+        return array;
+    }
+
+    private int find(Object key, int hash) {
+        int mask = slots.length - 1;
+
+        if (key instanceof String string) {
+            for (int slot = first(hash); ; slot = (slot + 1) & mask) {
+                int entry = slots[slot];
+                if (entry == EMPTY) return EMPTY;
+                if (hashes[entry] == hash && (keys[entry] == string || string.equals(keys[entry]))) return entry;
+            }
+        }
+
+        if (key instanceof Double number) {
+            long bits = Double.doubleToLongBits(number);
+            for (int slot = first(hash); ; slot = (slot + 1) & mask) {
+                int entry = slots[slot];
+                if (entry == EMPTY) return EMPTY;
+                if (hashes[entry] == hash && keys[entry] instanceof Double other
+                        && Double.doubleToLongBits(other) == bits) return entry;
+            }
+        }
+
+        for (int slot = first(hash); ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == EMPTY) return EMPTY;
+            if (hashes[entry] == hash && keys[entry] != REMOVED && Interpreter.isEqual(key, keys[entry])) return entry;
+        }
+    }
+
+    private int freeSlot(int hash) {
+        int mask = slots.length - 1;
+        int slot = first(hash);
+        while (slots[slot] != EMPTY) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    //Fibonacci hashing: the top bits of the product depend on every bit of the hash
+    private int first(int hash) {
+        return (hash * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(slots.length));
+    }
+
+    //Called when the entries are full: drops the removed ones, and grows if that isn't enough
+    private void makeRoom() {
+        int capacity = size * 2 > keys.length ? keys.length * 2 : keys.length;
+
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        int oldEntries = entries;
+
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+        //At most half full, so the probes stay short
+        slots = new int[capacity * 2];
+        Arrays.fill(slots, EMPTY);
+
+        entries = 0;
+        for (int i = 0; i < oldEntries; i++) {
+            if (oldKeys[i] == REMOVED) continue;
+
+            keys[entries] = oldKeys[i];
+            values[entries] = oldValues[i];
+            hashes[entries] = oldHashes[i];
+            slots[freeSlot(oldHashes[i])] = entries;
+            entries++;
+        }
+    }
+
+    private static int hash(Object key) {
+        if (key == null) return 0;
+        //Double.hashCode only depends on the bits, like Double.equals
+        return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        boolean first = true;
+        for (int i = 0; i < entries; i++) {
+            if (keys[i] == REMOVED) continue;
+
+            if (!first) builder.append(", ");
+            builder.append(Interpreter.stringify(keys[i])).append(": ").append(Interpreter.stringify(values[i]));
+            first = false;
+        }
+        return builder.append("}").toString();
+    }
+}
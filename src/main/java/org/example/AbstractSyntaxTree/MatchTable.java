@@ -0,0 +1,77 @@
+package org.example.AbstractSyntaxTree;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How a match statement finds its arm, built once when the statement is parsed. Integer keys close enough to each
+ * other go in an array indexed by the key, every other key goes in a hash map, so finding the arm costs the same
+ * however many arms there are.
+ * <p>
+ * Keys are compared like {@link Interpreter#isEqual} does (so -0 is not 0, and 1 is not "1"), and when a key is
+ * repeated the first arm wins, the same as a chain of ifs would do.
+ */
+class MatchTable {
+    //The array may have up to this many empty slots for every key in it
+    private static final int MAX_GAP_RATIO = 4;
+    private static final int MAX_DENSE_SIZE = 1024;
+
+    //The arm of each integer from min on, or -1
+    private final int[] dense;
+    private final int min;
+    private final Map<Object, Integer> others = new HashMap<>();
+
+    MatchTable(List<List<Object>> armKeys) {
+        int lowest = Integer.MAX_VALUE;
+        int highest = Integer.MIN_VALUE;
+        int integers = 0;
+        for (List<Object> keys : armKeys) {
+            for (Object key : keys) {
+                if (isSmallInteger(key)) {
+                    int k = (int) (double) key;
+                    lowest = Math.min(lowest, k);
+                    highest = Math.max(highest, k);
+                    integers++;
+                }
+            }
+        }
+
+        long span = integers == 0 ? 0 : (long) highest - lowest + 1;
+        boolean useDense = integers > 0 && span <= MAX_DENSE_SIZE && span <= (long) integers * MAX_GAP_RATIO;
+        this.dense = useDense ? new int[(int) span] : null;
+        this.min = useDense ? lowest : 0;
+        if (useDense) Arrays.fill(dense, -1);
+
+        for (int arm = 0; arm < armKeys.size(); arm++) {
+            for (Object key : armKeys.get(arm)) {
+                if (useDense && isSmallInteger(key)) {
+                    int slot = (int) (double) key - min;
+                    if (dense[slot] < 0) dense[slot] = arm;
+                } else {
+                    others.putIfAbsent(key, arm);
+                }
+            }
+        }
+    }
+
+    //The index of the arm for the value, or -1 when no key is equal to it
+    int arm(Object value) {
+        if (dense != null && isSmallInteger(value)) {
+            long slot = (long) (double) value - min;
+            return slot >= 0 && slot < dense.length ? dense[(int) slot] : -1;
+        }
+
+        Integer arm = others.get(value);
+        return arm != null ? arm : -1;
+    }
+
+    //Integers that fit an int, -0 excluded since it's a key of its own
+    private static boolean isSmallInteger(Object value) {
+        if (!(value instanceof Double d)) return false;
+
+        int k = (int) (double) d;
+        return k == d && (k != 0 || Double.doubleToRawLongBits(d) == 0L);
+    }
+}
@@ -0,0 +1,29 @@
+package org.example.AbstractSyntaxTree;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A file that programs import, parsed, optimized and resolved once. Like a {@link CompiledProgram}, it's never changed
+ * afterwards, so every program and every run that imports it shares the same tree. See {@link Modules}.
+ */
+final class Module {
+    final Path path;
+    //The SHA-256 of the source it was parsed from
+    final String hash;
+    final List<Statement> statements;
+    //Its own imports, with the paths resolved against its directory
+    final List<Statement.ImportStatement> imports;
+
+    Module(Path path, String hash, List<Statement> statements, List<Statement.ImportStatement> imports) {
+        this.path = path;
+        this.hash = hash;
+        this.statements = statements;
+        this.imports = imports;
+    }
+
+    @Override
+    public String toString() {
+        return "<module " + path + ">";
+    }
+}
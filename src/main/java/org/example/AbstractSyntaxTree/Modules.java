@@ -0,0 +1,162 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.Lexer;
+import org.example.Lexer.TokenUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Finds and parses the modules that programs import with {@code import "path";}. A path is relative to the directory
+ * of the file the import is in (the working directory for a program that isn't in a file).
+ * <p>
+ * Before a program runs, the modules it imports, the ones those import and so on are all loaded. Each one is read and
+ * parsed on the common pool as soon as an import of it has been seen, so they're parsed in parallel instead of one
+ * after the other. A module that can't be loaded then (it isn't there, or it doesn't parse) is left for its import to
+ * load when it runs, which is where the error is reported.
+ * <p>
+ * A parsed module is kept for the rest of the process with the SHA-256 of its source, and used again for as long as
+ * the file has the same contents, so a module that many programs import is only parsed once. The file is read again
+ * every time to check that, which costs little next to parsing it.
+ */
+final class Modules {
+    //The last version of each module that was parsed, by its path
+    private static final Map<Path, Module> CACHE = new ConcurrentHashMap<>();
+
+    private Modules() {
+    }
+
+    //Loads what the statements import, with the paths relative to directory, and what those import, and waits for it
+    static void load(List<Statement> statements, Path directory) {
+        Loading loading = new Loading();
+        for (Statement.ImportStatement importStatement : imports(statements, directory)) loading.start(importStatement);
+        loading.await();
+    }
+
+    //The module of an import that's running, loaded now if it couldn't be before
+    static Module module(Statement.ImportStatement importStatement) {
+        if (importStatement.resolved == null) importStatement.resolved = resolve(Path.of(""), importStatement.path);
+
+        Module module = importStatement.module;
+        if (module == null) {
+            module = parse(importStatement.keyword, importStatement.resolved);
+            importStatement.module = module;
+        }
+        return module;
+    }
+
+    //The imports among the statements, which can only be at the top level, with their paths resolved
+    private static List<Statement.ImportStatement> imports(List<Statement> statements, Path directory) {
+        List<Statement.ImportStatement> imports = new ArrayList<>();
+        for (Statement st : statements) {
+            if (st instanceof Statement.ImportStatement importStatement) {
+                importStatement.resolved = resolve(directory, importStatement.path);
+                imports.add(importStatement);
+            }
+        }
+        return imports;
+    }
+
+    private static Path resolve(Path directory, String path) {
+        return directory.toAbsolutePath().resolve(path).normalize();
+    }
+
+    private static Module parse(TokenUtils.Token keyword, Path path) {
+        byte[] source;
+        try {
+            source = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            throw new Interpreter.RuntimeError(keyword, "There's no module " + path + ".");
+        } catch (IOException e) {
+            throw new Interpreter.RuntimeError(keyword, "Couldn't read the module " + path + ": " + e + ".");
+        }
+
+        String hash = sha256(source);
+        Module cached = CACHE.get(path);
+        if (cached != null && cached.hash.equals(hash)) return cached;
+
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(errors, true, StandardCharsets.UTF_8);
+        Lexer lex = new Lexer(new String(source, StandardCharsets.UTF_8));
+        List<TokenUtils.Token> tokens = lex.readUntilEOF();
+        if (lex.hadError()) {
+            lex.printErrors(out);
+            throw new Interpreter.RuntimeError(keyword, "The module " + path + " doesn't lex:" + errors.toString(StandardCharsets.UTF_8));
+        }
+
+        Parser parser = new Parser(tokens);
+        List<Statement> statements = parser.parse();
+        if (parser.hadErrors()) {
+            parser.printErrors(out);
+            throw new Interpreter.RuntimeError(keyword, "The module " + path + " doesn't parse:\n" + errors.toString(StandardCharsets.UTF_8));
+        }
+
+        List<Statement.ImportStatement> imports = imports(statements, path.getParent());
+        Optimizer.optimize(statements);
+        new Resolver().resolve(statements);
+
+        //Two loads may parse the same new version at once, either one is fine to keep
+        Module module = new Module(path, hash, List.copyOf(statements), List.copyOf(imports));
+        CACHE.put(path, module);
+        return module;
+    }
+
+    private static String sha256(byte[] source) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(source));
+        } catch (NoSuchAlgorithmException e) {
+            //Every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //One load of the modules of a program, which starts every path once however many imports name it
+    private static final class Loading {
+        private final Map<Path, CompletableFuture<Module>> started = new ConcurrentHashMap<>();
+        //What has to finish before the load has, a module adds the loads of its imports here before it's done
+        private final Queue<CompletableFuture<?>> pending = new ConcurrentLinkedQueue<>();
+
+        void start(Statement.ImportStatement importStatement) {
+            Path path = importStatement.resolved;
+            CompletableFuture<Module> module = new CompletableFuture<>();
+            CompletableFuture<Module> existing = started.putIfAbsent(path, module);
+
+            if (existing == null) {
+                ForkJoinPool.commonPool().execute(() -> {
+                    try {
+                        module.complete(parse(importStatement.keyword, path));
+                    } catch (RuntimeException e) {
+                        //Reported when the import runs
+                        module.complete(null);
+                    }
+                });
+                pending.add(module.thenAccept(loaded -> {
+                    if (loaded != null) loaded.imports.forEach(this::start);
+                }));
+                existing = module;
+            }
+
+            pending.add(existing.thenAccept(loaded -> importStatement.module = loaded));
+        }
+
+        void await() {
+            for (CompletableFuture<?> next = pending.poll(); next != null; next = pending.poll()) next.join();
+        }
+    }
+}
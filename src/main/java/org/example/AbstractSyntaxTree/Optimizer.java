@@ -0,0 +1,19 @@
+package org.example.AbstractSyntaxTree;
+
+import java.util.List;
+
+/**
+ * Runs the optimization passes over a parsed program, in an order where each pass can use what the previous ones
+ * did. None of them changes what the program does.
+ */
+public class Optimizer {
+
+    public static List<Statement> optimize(List<Statement> statements) {
+        //Code motion rebuilds the expressions it touches, so it has to run before anything annotates them
+        new LoopInvariantCodeMotion().optimize(statements);
+        new TypeInference().infer(statements);
+        new ParallelLoops().analyze(statements);
+
+        return statements;
+    }
+}
@@ -0,0 +1,440 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+import org.example.Lexer.TokenUtils.TokenType;
+import org.example.Lexer.ValueToken;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A {@code pfor (i in a..b; total, product) { ... }} loop: the program asks for its iterations to run in parallel,
+ * instead of {@link ParallelLoops} having to prove they can.
+ * <p>
+ * What makes that safe is checked when it's parsed. The iterations may declare and assign their own variables and read
+ * any other, but the only outer variables they may change are the reductions listed after the range, and only with
+ * statements like {@code total += e} (or {@code *=}, the same one every time). Reductions can't be read inside the
+ * loop, since each range only has its part of them, and the loop can't be broken out of. Elements of arrays, maps,
+ * structs and buffers aren't variables: iterations that write them are expected to write different ones, into arrays
+ * or buffers of numbers.
+ * <p>
+ * The functions the iterations call are only seen when they run, and held to the same rule then: a variable of the
+ * loop's own is the only kind they can assign by name, and a reduction only with the operator the body updates it
+ * with. A function made outside of the loop that shares variables with the code that made it (a closure over
+ * variables that are assigned) can't be called at all, since every range would change them at once.
+ * <p>
+ * The range is halved into fork-join tasks until there are about eight for each worker of the common pool, so the
+ * workers that are done first steal what's left of the others. Each task runs its iterations in an environment of
+ * its own, with its own partial reductions, and the partials are combined in the order of the ranges: sums and
+ * products of integers (and concatenations) come out the same as when the loop runs sequentially, like it does
+ * inside functions.
+ */
+public class ParallelFor {
+    private static final int TASKS_PER_WORKER = 8;
+
+    final List<ValueToken<String>> reductions;
+    //The operator each reduction is updated with, null for those the body never updates
+    private final TokenUtils.Token[] operators;
+
+    private ParallelFor(List<ValueToken<String>> reductions) {
+        this.reductions = reductions;
+        this.operators = new TokenUtils.Token[reductions.size()];
+    }
+
+    /**
+     * Checks the body of a pfor against what its iterations are allowed to do. Gives back the problem it finds
+     * first, or null and sets the plan of the loop.
+     */
+    static Problem check(Statement.ForRangeStatement loop, List<ValueToken<String>> reductions) {
+        ParallelFor pfor = new ParallelFor(reductions);
+        Set<String> names = new HashSet<>();
+        for (ValueToken<String> reduction : reductions) {
+            if (!names.add(reduction.getValue())) return new Problem(reduction, "Duplicate reduction in the pfor.");
+            if (reduction.getValue().equals(loop.name.getValue())) {
+                return new Problem(reduction, "The counter of a pfor can't be one of its reductions.");
+            }
+        }
+
+        Checker checker = new Checker(pfor, loop.name.getValue());
+        checker.scan(loop.body);
+        if (checker.problem != null) return checker.problem;
+
+        loop.pfor = pfor;
+        return null;
+    }
+
+    record Problem(TokenUtils.Token token, String message) {
+    }
+
+    /**
+     * Runs the iterations from first up to last, and then adds what they reduced to the outer variables.
+     */
+    void run(PrintStream out, Environment env, Statement.ForRangeStatement loop, double first, double last) {
+        Object[] initial = new Object[reductions.size()];
+        for (int r = 0; r < initial.length; r++) initial[r] = env.get(reductions.get(r));
+
+        boolean inclusive = loop.comparison.getTokenType() == TokenType.Less_Equal;
+        double span = (last - first) / loop.step;
+        long count = Math.max(0, inclusive ? (long) Math.floor(span) + 1 : (long) Math.ceil(span));
+        if (count == 0) return;
+
+        long grain = Math.max(1, count / ((long) ForkJoinPool.getCommonPoolParallelism() * TASKS_PER_WORKER));
+        Object[] partials = ForkJoinPool.commonPool().invoke(new Range(out, env, loop, initial, first, 0, count, grain));
+
+        Object[] results = new Object[initial.length];
+        for (int r = 0; r < initial.length; r++) {
+            results[r] = operators[r] == null ? initial[r] : Interpreter.binary(operators[r], initial[r], partials[r]);
+        }
+        for (int r = 0; r < initial.length; r++) env.assign(reductions.get(r), results[r]);
+    }
+
+    //What every range starts each reduction from: nothing added or multiplied yet
+    private Object[] identities(Object[] initial) {
+        Object[] identities = new Object[initial.length];
+        for (int r = 0; r < initial.length; r++) {
+            if (operators[r] == null) continue;
+            if (operators[r].getTokenType() == TokenType.Star) {
+                identities[r] = 1.0;
+            } else {
+                //-0 is the identity of the sums: x + -0 is x, even when x is -0
+                identities[r] = initial[r] instanceof String ? "" : -0.0;
+            }
+        }
+        return identities;
+    }
+
+    private class Range extends RecursiveTask<Object[]> {
+        private static final long serialVersionUID = 1L;
+
+        //A task is never serialized, these are only transient so it could be
+        private final transient PrintStream out;
+        private final transient Environment env;
+        private final transient Statement.ForRangeStatement loop;
+        private final transient Object[] initial;
+        private final double first;
+        private final long from;
+        private final long to;
+        private final long grain;
+
+        Range(PrintStream out, Environment env, Statement.ForRangeStatement loop, Object[] initial, double first,
+              long from, long to, long grain) {
+            this.out = out;
+            this.env = env;
+            this.loop = loop;
+            this.initial = initial;
+            this.first = first;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Object[] compute() {
+            if (to - from <= grain) {
+                return new Worker(out, new Environment(env), loop, identities(initial)).run(first, from, to);
+            }
+
+            long middle = (from + to) >>> 1;
+            Range right = new Range(out, env, loop, initial, first, middle, to, grain);
+            right.fork();
+            Object[] left = new Range(out, env, loop, initial, first, from, middle, grain).compute();
+
+            //Left before right, so what's combined is in the order of the iterations
+            Object[] partials = right.join();
+            for (int r = 0; r < partials.length; r++) {
+                if (operators[r] != null) partials[r] = Interpreter.binary(operators[r], left[r], partials[r]);
+            }
+            return partials;
+        }
+    }
+
+    /**
+     * Runs a range of iterations in an environment of its own. The updates of the reductions go to its partials,
+     * everything else is interpreted as usual.
+     */
+    private class Worker extends Interpreter {
+        private final Statement.ForRangeStatement loop;
+        private final Environment local;
+        private final Object[] partials;
+        //The closures over assigned variables that these iterations made, which they can call
+        private final Set<Closure> own = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        //The local environment encloses the one the loop runs in
+        Worker(PrintStream out, Environment local, Statement.ForRangeStatement loop, Object[] partials) {
+            super(local);
+            this.out = out;
+            this.local = local;
+            this.loop = loop;
+            this.partials = partials;
+            setParallelLoops(false);
+        }
+
+        Object[] run(double first, long from, long to) {
+            //Each range computes the invariants of the loop for itself
+            declareHoisted(loop.preheader);
+
+            String counter = loop.name.getValue();
+            local.define(counter, null);
+            try {
+                for (long k = from; k < to; k++) {
+                    Environment iteration = local;
+                    if (loop.counterCaptured) {
+                        iteration = new Environment(local);
+                        iteration.define(counter, first + k * loop.step);
+                    } else if (loop.counterRead) {
+                        local.define(counter, first + k * loop.step);
+                    }
+                    try {
+                        execute(loop.body, iteration);
+                    } catch (ControlFlow.Continue cont) {
+                        //Next iteration
+                    }
+                }
+            } catch (ControlFlow cf) {
+                //The check only lets breaks of inner loops through, and those catch them
+                throw new IllegalStateException(cf);
+            }
+            return partials;
+        }
+
+        @Override
+        public Object visitCompoundAssignExpression(Expression.CompoundAssignExpression compound) {
+            //The variables of functions are in their frames, the reductions are in an environment
+            int r = compound.slot < 0 ? indexOf(compound.name.getValue()) : -1;
+            if (r < 0) {
+                if (compound.slot < 0) checkWrite(compound.name);
+                return super.visitCompoundAssignExpression(compound);
+            }
+
+            //The check only saw the updates in the body, those of the functions it calls are checked here
+            TokenUtils.Token operator = operators[r];
+            if (operator == null || operator.getTokenType() != compound.operator.getTokenType()) {
+                throw new RuntimeError(compound.operator, "Reductions of a pfor are only updated with one operator.");
+            }
+            partials[r] = binary(operator, partials[r], evaluate(compound.value));
+            return null;
+        }
+
+        @Override
+        public Object visitAssignExpression(Expression.AssignExpression assign) {
+            if (assign.slot < 0) checkWrite(assign.name);
+            return super.visitAssignExpression(assign);
+        }
+
+        @Override
+        Closure closure(Expression.FunctionExpression function) {
+            Closure closure = super.closure(function);
+            if (sharesVariables(closure)) own.add(closure);
+            return closure;
+        }
+
+        @Override
+        void calling(Closure closure, TokenUtils.Token paren) {
+            if (sharesVariables(closure) && !own.contains(closure)) {
+                throw new RuntimeError(paren, "A pfor can't call " + closure + ", it shares variables with the code"
+                        + " outside of the loop.");
+            }
+        }
+
+        //Only the environments of the iterations are in the loop, the one it runs in and those around it are not
+        private void checkWrite(ValueToken<String> name) {
+            for (Environment holder = environment().resolve(name); holder != null; holder = holder.enclosing) {
+                if (holder == local) return;
+            }
+            throw new RuntimeError(name, "A pfor can't assign the outer variable '" + name.getValue()
+                    + "', not even from a function it calls.");
+        }
+
+        private static boolean sharesVariables(Closure closure) {
+            for (Object captured : closure.captured) {
+                if (captured instanceof Closure.Cell) return true;
+            }
+            return false;
+        }
+
+        private int indexOf(String name) {
+            for (int r = 0; r < reductions.size(); r++) {
+                if (reductions.get(r).getValue().equals(name)) return r;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Walks the body of a pfor with the variables it declares, looking for anything its iterations can't do.
+     */
+    private static class Checker extends AstScanner {
+        private final ParallelFor pfor;
+        private final List<Set<String>> scopes = new ArrayList<>();
+        private int loopDepth = 0;
+        private int functionDepth = 0;
+        Problem problem;
+
+        Checker(ParallelFor pfor, String counter) {
+            this.pfor = pfor;
+            scopes.add(new HashSet<>(Set.of(counter)));
+        }
+
+        @Override
+        public Void visitLetStatement(Statement.LetStatement letStatement) {
+            super.visitLetStatement(letStatement);
+            declare(letStatement.name);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStatement(Statement.BlockStatement blockStatement) {
+            scopes.add(new HashSet<>());
+            super.visitBlockStatement(blockStatement);
+            scopes.remove(scopes.size() - 1);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+            loopDepth++;
+            super.visitWhileStatement(whileStatement);
+            loopDepth--;
+            return null;
+        }
+
+        @Override
+        public Void visitForRangeStatement(Statement.ForRangeStatement forRangeStatement) {
+            scan(forRangeStatement.start);
+            scan(forRangeStatement.end);
+
+            scopes.add(new HashSet<>());
+            declare(forRangeStatement.name);
+            loopDepth++;
+            scan(forRangeStatement.body);
+            loopDepth--;
+            scopes.remove(scopes.size() - 1);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStatement(Statement.FunctionStatement functionStatement) {
+            declare(functionStatement.function.name);
+            return super.visitFunctionStatement(functionStatement);
+        }
+
+        @Override
+        public Void visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+            //A break or return in its body is its own business, the loops outside of it don't count
+            int outerLoops = loopDepth;
+            scopes.add(new HashSet<>());
+            for (ValueToken<String> param : functionExpr.params) declare(param);
+            loopDepth = 0;
+            functionDepth++;
+            scan(functionExpr.body);
+            functionDepth--;
+            loopDepth = outerLoops;
+            scopes.remove(scopes.size() - 1);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStatement(Statement.BreakStatement breakStatement) {
+            if (loopDepth == 0 && functionDepth == 0) report(breakStatement.breakTok, "Can't break out of a pfor.");
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStatement(Statement.ReturnStatement returnStatement) {
+            if (functionDepth == 0) report(returnStatement.keyword, "Can't return from inside a pfor.");
+            return super.visitReturnStatement(returnStatement);
+        }
+
+        @Override
+        public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+            if (statement.expr instanceof Expression.CompoundAssignExpression compound
+                    && reduction(compound.name.getValue()) >= 0) {
+                update(compound);
+                scan(compound.value);
+                return null;
+            }
+            return super.visitExpressionStatement(statement);
+        }
+
+        @Override
+        public Void visitVarExpression(Expression.VarExpression varExpr) {
+            if (reduction(varExpr.name.getValue()) >= 0) {
+                report(varExpr.name, "The reduction '" + varExpr.name.getValue() + "' can't be read inside the pfor.");
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpression(Expression.AssignExpression assignExpr) {
+            checkWrite(assignExpr.name);
+            return super.visitAssignExpression(assignExpr);
+        }
+
+        //Those that are statements of their own were already let through
+        @Override
+        public Void visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpr) {
+            checkWrite(compoundExpr.name);
+            return super.visitCompoundAssignExpression(compoundExpr);
+        }
+
+        private void update(Expression.CompoundAssignExpression compound) {
+            TokenType operator = compound.operator.getTokenType();
+            if (operator != TokenType.Plus && operator != TokenType.Star) {
+                report(compound.operator, "Reductions of a pfor are only updated with += or *=.");
+                return;
+            }
+
+            int r = reduction(compound.name.getValue());
+            if (pfor.operators[r] == null) {
+                pfor.operators[r] = compound.operator;
+            } else if (pfor.operators[r].getTokenType() != operator) {
+                report(compound.operator, "Reductions of a pfor are only updated with one operator.");
+            }
+        }
+
+        private void checkWrite(ValueToken<String> name) {
+            if (isLocal(name.getValue())) return;
+
+            if (reduction(name.getValue()) >= 0) {
+                report(name, "Reductions of a pfor are only updated by statements like '" + name.getValue() + " += e;'.");
+            } else {
+                report(name, "Can't assign to '" + name.getValue() + "' inside a pfor, it isn't one of its reductions.");
+            }
+        }
+
+        private void declare(ValueToken<String> name) {
+            if (name == null) return;
+            if (reduction(name.getValue()) >= 0) {
+                report(name, "Can't declare '" + name.getValue() + "' inside a pfor, it's one of its reductions.");
+            }
+            scopes.get(scopes.size() - 1).add(name.getValue());
+        }
+
+        //The index of the outer reduction a name refers to, if it does
+        private int reduction(String name) {
+            if (isLocal(name)) return -1;
+            for (int r = 0; r < pfor.reductions.size(); r++) {
+                if (pfor.reductions.get(r).getValue().equals(name)) return r;
+            }
+            return -1;
+        }
+
+        private boolean isLocal(String name) {
+            for (Set<String> scope : scopes) {
+                if (scope.contains(name)) return true;
+            }
+            return false;
+        }
+
+        private void report(TokenUtils.Token token, String message) {
+            if (problem == null) problem = new Problem(token, message);
+        }
+    }
+}
@@ -0,0 +1,713 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils.TokenType;
+import org.example.Lexer.ValueToken;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Finds the counted loops whose iterations don't depend on each other, so the interpreter can split them across the
+ * cores.
+ * <p>
+ * A loop qualifies when it looks like {@code for (...; i < n; i = i + step)} (with a {@code <=} too, and any
+ * positive integer step), or is a range loop with such a step, and its iterations only:
+ * <ul>
+ *     <li>read variables the loop doesn't assign,</li>
+ *     <li>declare and assign their own variables,</li>
+ *     <li>accumulate into an outer variable with {@code s = s + e} or {@code s += e} (a sum, or a concatenation of
+ *     strings),</li>
+ *     <li>keep a minimum or maximum with {@code if (e < m) { m = e; }} (or with {@code >}, {@code <=}, {@code >=}
+ *     and the operands the other way around),</li>
+ * </ul>
+ * as long as the accumulated variables aren't read anywhere else in the loop. Printing, calls, and break or continue
+ * of the loop itself, keep it sequential, and so does being inside a function.
+ * <p>
+ * The loops found get a {@link Plan}. Running it can still decide against it, and then the loop just runs
+ * sequentially as if nothing happened: the threads only ever write their own copies of the variables, so nothing
+ * is published until every iteration has run fine.
+ */
+public class ParallelLoops extends AstScanner {
+
+    public List<Statement> analyze(List<Statement> statements) {
+        scan(statements);
+        return statements;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+        whileStatement.parallel = Plan.of(whileStatement);
+
+        //Inner loops too, in case the outer one falls back to running sequentially
+        return super.visitWhileStatement(whileStatement);
+    }
+
+    @Override
+    public Void visitForRangeStatement(Statement.ForRangeStatement forRangeStatement) {
+        forRangeStatement.parallel = Plan.of(forRangeStatement);
+        return super.visitForRangeStatement(forRangeStatement);
+    }
+
+    //The variables of a function live in the frame of the call, which the threads don't have
+    @Override
+    public Void visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+        return null;
+    }
+
+    /**
+     * How a loop is split: each thread runs a contiguous range of the counter with its own copy of the counter and
+     * of the accumulated variables, and the partial results are combined in the order of the ranges.
+     */
+    static class Plan {
+        //Below this, starting the threads costs more than what they save
+        static final int MIN_ITERATIONS = 10_000;
+        //Doubles represent every integer up to this exactly, so sums of such integers don't depend on the order
+        private static final double EXACT_LIMIT = 9007199254740992.0;
+
+        final ValueToken<String> counter;
+        final double step;
+        final boolean inclusive;
+        //null for range loops, their bounds are computed before the plan runs
+        final Expression limit;
+        //The body without the increment of the counter
+        final Statement iteration;
+        final List<String> sums = new ArrayList<>();
+        //The assignments (plain or compound) that accumulate
+        final Map<Expression, SumSite> sumSites = new IdentityHashMap<>();
+        final List<MinMax> minMaxes = new ArrayList<>();
+        final Map<Statement.IfStatement, MinMax> minMaxSites = new IdentityHashMap<>();
+        //Hoisted bindings the body reads, every thread computes its own
+        final Set<String> hoisted = new HashSet<>();
+
+        private Plan(ValueToken<String> counter, double step, boolean inclusive, Expression limit,
+                     Statement iteration) {
+            this.counter = counter;
+            this.step = step;
+            this.inclusive = inclusive;
+            this.limit = limit;
+            this.iteration = iteration;
+        }
+
+        static Plan of(Statement.WhileStatement loop) {
+            if (!(unwrap(loop.condition) instanceof Expression.BinaryExpression condition)) return null;
+
+            TokenType comparison = condition.operator.getTokenType();
+            if (comparison != TokenType.Less && comparison != TokenType.Less_Equal) return null;
+            if (!(unwrap(condition.left) instanceof Expression.VarExpression counterVar)) return null;
+            if (!(loop.body instanceof Statement.BlockStatement body) || body.statementList.isEmpty()) return null;
+
+            String counter = counterVar.name.getValue();
+            Double step = increment(body.statementList.get(body.statementList.size() - 1), counter);
+            if (step == null) return null;
+
+            List<Statement> statements = body.statementList.subList(0, body.statementList.size() - 1);
+            Plan plan = new Plan(counterVar.name, step, comparison == TokenType.Less_Equal, condition.right,
+                    new Statement.BlockStatement(new ArrayList<>(statements)));
+
+            Checker checker = new Checker(plan);
+            Set<String> accumulated = plan.accumulated(checker, statements);
+            if (accumulated == null) return null;
+            //A counter declared by the body itself is not the one the condition reads
+            if (checker.scopes.get(0).contains(counter)) return null;
+
+            //The limit is computed once, so it must not read anything the loop changes
+            Checker limitReads = new Checker(plan);
+            if (!limitReads.checkPure(condition.right) || limitReads.reads.contains(counter)) return null;
+            for (String name : limitReads.reads) {
+                if (accumulated.contains(name)) return null;
+            }
+
+            return plan;
+        }
+
+        static Plan of(Statement.ForRangeStatement loop) {
+            if (loop.step != Math.rint(loop.step)) return null;
+
+            boolean inclusive = loop.comparison.getTokenType() == TokenType.Less_Equal;
+            Plan plan = new Plan(loop.name, loop.step, inclusive, null, loop.body);
+
+            //Every thread has its own copy of the variable, the body may do what it wants with it
+            Checker checker = new Checker(plan);
+            checker.scopes.get(0).add(loop.name.getValue());
+            if (plan.accumulated(checker, List.of(loop.body)) == null) return null;
+
+            return plan;
+        }
+
+        //Checks the iteration and gives the accumulated variables, or null when the iterations depend on each other
+        private Set<String> accumulated(Checker checker, List<Statement> statements) {
+            for (Statement st : statements) {
+                if (!checker.check(st)) return null;
+            }
+
+            //The counter and the accumulated variables may only be touched where the plan expects them
+            Set<String> accumulated = new HashSet<>(sums);
+            for (MinMax minMax : minMaxes) {
+                if (!accumulated.add(minMax.variable)) return null;
+            }
+            if (accumulated.contains(counter.getValue())) return null;
+            for (String name : checker.reads) {
+                if (accumulated.contains(name)) return null;
+            }
+
+            return accumulated;
+        }
+
+        //The step of an increment like i = i + 1, if that's what the statement is
+        private static Double increment(Statement statement, String counter) {
+            if (!(statement instanceof Statement.ExpressionStatement st)) return null;
+
+            Double step = CountedLoops.step(st.expr, counter);
+            if (step == null || step != Math.rint(step)) return null;
+            return step;
+        }
+
+        /**
+         * Runs a while loop across the common fork-join pool, leaving the counter where the sequential loop would.
+         * Returns false, without having changed anything, when it has to run sequentially instead.
+         */
+        boolean run(Interpreter interpreter, Environment env) {
+            Object start;
+            Object end;
+            try {
+                start = env.get(counter);
+                end = interpreter.evaluate(limit);
+            } catch (Interpreter.RuntimeError err) {
+                return false;
+            }
+
+            if (!(start instanceof Double first) || !(end instanceof Double last)) return false;
+            long count = run(env, first, last);
+            if (count < 0) return false;
+
+            env.assign(counter, first + count * step);
+            return true;
+        }
+
+        /**
+         * Runs the iterations from first up to last across the common fork-join pool and returns how many there
+         * were. Returns -1, without having changed anything, when the loop has to run sequentially instead: too few
+         * iterations or cores, values that aren't what the plan needs, an iteration that fails (the sequential run
+         * will fail the same way) or a sum whose result could depend on the order.
+         */
+        long run(Environment env, double first, double last) {
+            Object[] initial = new Object[sums.size() + minMaxes.size()];
+            try {
+                for (int i = 0; i < sums.size(); i++) initial[i] = env.get(name(sums.get(i)));
+                for (int i = 0; i < minMaxes.size(); i++) initial[sums.size() + i] = env.get(name(minMaxes.get(i).variable));
+            } catch (Interpreter.RuntimeError err) {
+                return -1;
+            }
+
+            if (first != Math.rint(first) || Math.abs(first) >= EXACT_LIMIT / 2 || Math.abs(last) >= EXACT_LIMIT / 2) {
+                return -1;
+            }
+            for (int i = 0; i < sums.size(); i++) {
+                if (!(initial[i] instanceof String) && !(initial[i] instanceof Double d && d == Math.rint(d))) return -1;
+            }
+
+            //With a single thread, splitting the loop only adds work
+            long count = iterations(first, last);
+            if (count < MIN_ITERATIONS || ForkJoinPool.getCommonPoolParallelism() < 2) return -1;
+
+            int chunks = (int) Math.min(count / (MIN_ITERATIONS / 4), ForkJoinPool.getCommonPoolParallelism() * 4L);
+            //Once a range fails the whole loop runs sequentially, so the other ranges can stop
+            AtomicBoolean abandoned = new AtomicBoolean(false);
+            List<Callable<Worker>> tasks = new ArrayList<>();
+            for (int c = 0; c < chunks; c++) {
+                long from = count * c / chunks;
+                long to = count * (c + 1) / chunks;
+                tasks.add(() -> {
+                    try {
+                        return new Worker(this, env, initial).run(first + from * step, to - from, abandoned);
+                    } catch (RuntimeException e) {
+                        abandoned.set(true);
+                        throw e;
+                    }
+                });
+            }
+
+            List<Worker> workers = new ArrayList<>();
+            try {
+                for (Future<Worker> future : ForkJoinPool.commonPool().invokeAll(tasks)) workers.add(future.get());
+            } catch (ExecutionException | InterruptedException e) {
+                if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                return -1;
+            }
+
+            Object[] results = combine(initial, workers);
+            if (results == null) return -1;
+
+            for (int i = 0; i < sums.size(); i++) env.assign(name(sums.get(i)), results[i]);
+            for (int i = 0; i < minMaxes.size(); i++) env.assign(name(minMaxes.get(i).variable), results[sums.size() + i]);
+            return count;
+        }
+
+        //How many times the condition holds, checked against the exact values the sequential loop would see
+        private long iterations(double first, double last) {
+            double span = (last - first) / step;
+            long count = Math.max(0, inclusive ? (long) Math.floor(span) + 1 : (long) Math.ceil(span));
+
+            while (count > 0 && !holds(first + (count - 1) * step, last)) count--;
+            while (holds(first + count * step, last)) count++;
+            return count;
+        }
+
+        private boolean holds(double value, double last) {
+            return inclusive ? value <= last : value < last;
+        }
+
+        private Object[] combine(Object[] initial, List<Worker> workers) {
+            //The magnitudes of every range together bound every partial sum the sequential loop goes through
+            double[] magnitudes = new double[sums.size()];
+            for (Worker worker : workers) {
+                for (int i = 0; i < sums.size(); i++) magnitudes[i] += worker.magnitudes[i];
+            }
+            for (int i = 0; i < sums.size(); i++) {
+                if (initial[i] instanceof Double d && Math.abs(d) + magnitudes[i] > EXACT_LIMIT) return null;
+            }
+
+            Object[] results = initial.clone();
+            for (Worker worker : workers) {
+                for (int i = 0; i < sums.size(); i++) {
+                    if (results[i] instanceof Double) {
+                        results[i] = (double) results[i] + (double) worker.partials[i];
+                    } else {
+                        results[i] = results[i] + (String) worker.partials[i];
+                    }
+                }
+
+                for (int i = 0; i < minMaxes.size(); i++) {
+                    int slot = sums.size() + i;
+                    if (worker.replaced[i] && minMaxes.get(i).replaces(worker.partials[slot], results[slot])) {
+                        results[slot] = worker.partials[slot];
+                    }
+                }
+            }
+
+            return results;
+        }
+
+        private static ValueToken<String> name(String variable) {
+            return new ValueToken<>(0, TokenType.Identifier, variable);
+        }
+    }
+
+    //An assignment accumulating into the sum at index
+    record SumSite(int index, List<Expression> addends) {
+    }
+
+    /**
+     * A minimum or maximum kept by {@code if (value op variable) { variable = value; }} (or with the operands the
+     * other way around). Replacing the variable when the comparison holds, range after range, gives the same as
+     * doing it iteration after iteration: a strict comparison keeps the first of equal values and a non strict one
+     * keeps the last, both ways.
+     */
+    static class MinMax {
+        final String variable;
+        final TokenType comparison;
+        final boolean variableOnLeft;
+        final Expression value;
+        final Expression.BinaryExpression condition;
+
+        MinMax(String variable, Expression.BinaryExpression condition, boolean variableOnLeft, Expression value) {
+            this.variable = variable;
+            this.comparison = condition.operator.getTokenType();
+            this.variableOnLeft = variableOnLeft;
+            this.value = value;
+            this.condition = condition;
+        }
+
+        boolean replaces(Object candidate, Object current) {
+            Object holds = variableOnLeft
+                    ? Interpreter.binary(condition.operator, current, candidate)
+                    : Interpreter.binary(condition.operator, candidate, current);
+            return Interpreter.isTruthy(holds);
+        }
+    }
+
+    /**
+     * Runs a range of iterations. The counter, the accumulated variables and the hoisted bindings are declared in
+     * its own environment, so it reads the shared variables but never writes them.
+     */
+    private static class Worker extends Interpreter {
+        private final Plan plan;
+        private final Environment local;
+        final Object[] partials;
+        final double[] magnitudes;
+        final boolean[] replaced;
+
+        Worker(Plan plan, Environment shared, Object[] initial) {
+            this(plan, shared, new Environment(shared), initial);
+        }
+
+        private Worker(Plan plan, Environment shared, Environment local, Object[] initial) {
+            super(local);
+            this.plan = plan;
+            this.local = local;
+            this.partials = new Object[initial.length];
+            this.magnitudes = new double[plan.sums.size()];
+            this.replaced = new boolean[plan.minMaxes.size()];
+            setParallelLoops(false);
+
+            //-0 is the identity of the sums: x + -0 is x, even when x is -0
+            for (int i = 0; i < plan.sums.size(); i++) partials[i] = initial[i] instanceof String ? "" : -0.0;
+            for (int i = plan.sums.size(); i < initial.length; i++) partials[i] = initial[i];
+
+            //The bindings of inner loops are declared when those loops start, and those are per thread already
+            for (String name : plan.hoisted) {
+                try {
+                    local.define(name, shared.get(Plan.name(name)));
+                } catch (RuntimeError notDeclaredYet) {
+                    //Declared by an inner loop
+                }
+            }
+        }
+
+        Worker run(double first, long count, AtomicBoolean abandoned) {
+            String counter = plan.counter.getValue();
+            try {
+                for (long k = 0; k < count; k++) {
+                    if (abandoned.get()) throw new Fallback();
+                    local.define(counter, first + k * plan.step);
+                    execute(plan.iteration);
+                }
+            } catch (ControlFlow cf) {
+                //The plan only accepts break and continue inside inner loops, which catch them
+                throw new IllegalStateException(cf);
+            }
+            return this;
+        }
+
+        @Override
+        public Object visitAssignExpression(Expression.AssignExpression assignExpression) {
+            SumSite site = plan.sumSites.get(assignExpression);
+            if (site == null) return super.visitAssignExpression(assignExpression);
+
+            return accumulate(site);
+        }
+
+        @Override
+        public Object visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpression) {
+            SumSite site = plan.sumSites.get(compoundExpression);
+            if (site == null) return super.visitCompoundAssignExpression(compoundExpression);
+
+            return accumulate(site);
+        }
+
+        //The sites are statements of their own, what they evaluate to is never used
+        private Object accumulate(SumSite site) {
+            int sum = site.index();
+            for (Expression addend : site.addends()) {
+                Object value = evaluate(addend);
+
+                if (partials[sum] instanceof String partial) {
+                    if (!(value instanceof String string)) throw new Fallback();
+                    partials[sum] = partial + string;
+                } else {
+                    //Only integers add up the same in any order
+                    if (!(value instanceof Double d) || d != Math.rint(d) || Double.isInfinite(d)) throw new Fallback();
+                    partials[sum] = (double) partials[sum] + d;
+                    magnitudes[sum] += Math.abs(d);
+                    if (magnitudes[sum] > Plan.EXACT_LIMIT) throw new Fallback();
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public Void visitIfStatement(Statement.IfStatement ifStatement) throws ControlFlow {
+            MinMax minMax = plan.minMaxSites.get(ifStatement);
+            if (minMax == null) return super.visitIfStatement(ifStatement);
+
+            int slot = plan.sums.size() + plan.minMaxes.indexOf(minMax);
+            Object value = evaluate(minMax.value);
+            if (minMax.replaces(value, partials[slot])) {
+                partials[slot] = value;
+                replaced[slot - plan.sums.size()] = true;
+            }
+
+            return null;
+        }
+    }
+
+    //Thrown by a worker whose range can't give the same result as the sequential loop
+    private static class Fallback extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Fallback() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Checks the statements of an iteration, keeping track of the variables they declare themselves.
+     */
+    private static class Checker {
+        private final Plan plan;
+        private final List<Set<String>> scopes = new ArrayList<>();
+        //The outer variables read anywhere but in the accumulation sites
+        final Set<String> reads = new HashSet<>();
+        private int loopDepth = 0;
+
+        Checker(Plan plan) {
+            this.plan = plan;
+            scopes.add(new HashSet<>());
+        }
+
+        boolean check(Statement statement) {
+            if (statement == null) return true;
+
+            if (statement instanceof Statement.LetStatement let) {
+                if (let.initializer != null && !checkPure(let.initializer)) return false;
+                scopes.get(scopes.size() - 1).add(let.name.getValue());
+                return true;
+            }
+
+            if (statement instanceof Statement.ExpressionStatement st) {
+                if (st.expr instanceof Expression.AssignExpression assign && !isLocal(assign.name.getValue())) {
+                    return checkSum(assign);
+                }
+                if (st.expr instanceof Expression.CompoundAssignExpression compound
+                        && !isLocal(compound.name.getValue())) {
+                    return checkSum(compound);
+                }
+                return check(st.expr);
+            }
+
+            if (statement instanceof Statement.BlockStatement block) {
+                scopes.add(new HashSet<>());
+                for (Statement st : block.statementList) {
+                    if (!check(st)) return false;
+                }
+                scopes.remove(scopes.size() - 1);
+                return true;
+            }
+
+            if (statement instanceof Statement.IfStatement ifStatement) {
+                if (checkMinMax(ifStatement)) return true;
+                return check(ifStatement.condit) && check(ifStatement.thenBranch) && check(ifStatement.elseBranch);
+            }
+
+            if (statement instanceof Statement.MatchStatement matchStatement) {
+                if (!check(matchStatement.subject)) return false;
+                for (Statement arm : matchStatement.arms) {
+                    if (!check(arm)) return false;
+                }
+                return check(matchStatement.elseBranch);
+            }
+
+            if (statement instanceof Statement.WhileStatement loop) {
+                loopDepth++;
+                boolean ok = check(loop.condition) && check(loop.body);
+                loopDepth--;
+                return ok;
+            }
+
+            if (statement instanceof Statement.ForRangeStatement loop) {
+                if (!check(loop.start) || !check(loop.end)) return false;
+
+                scopes.add(new HashSet<>(Set.of(loop.name.getValue())));
+                loopDepth++;
+                boolean ok = check(loop.body);
+                loopDepth--;
+                scopes.remove(scopes.size() - 1);
+                return ok;
+            }
+
+            //Only the inner loops may be broken or continued
+            if (statement instanceof Statement.BreakStatement || statement instanceof Statement.ContinueStatement) {
+                return loopDepth > 0;
+            }
+
+            //Printing has to happen in order
+            return false;
+        }
+
+        //s = s + a + b is ((s + a) + b), so the addends are the right sides down the left spine, up to s
+        private boolean checkSum(Expression.AssignExpression assign) {
+            String name = assign.name.getValue();
+            LinkedList<Expression> addends = new LinkedList<>();
+
+            Expression expr = unwrap(assign.value);
+            while (!isVar(expr, name)) {
+                if (!(expr instanceof Expression.BinaryExpression add)) return false;
+                if (add.operator.getTokenType() != TokenType.Plus || !checkPure(add.right)) return false;
+
+                addends.addFirst(add.right);
+                expr = unwrap(add.left);
+            }
+            if (addends.isEmpty()) return false;
+
+            return addSum(assign, name, addends);
+        }
+
+        private boolean checkSum(Expression.CompoundAssignExpression compound) {
+            if (compound.operator.getTokenType() != TokenType.Plus || !checkPure(compound.value)) return false;
+
+            return addSum(compound, compound.name.getValue(), List.of(compound.value));
+        }
+
+        private boolean addSum(Expression site, String name, List<Expression> addends) {
+            int index = plan.sums.indexOf(name);
+            if (index < 0) {
+                index = plan.sums.size();
+                plan.sums.add(name);
+            }
+            plan.sumSites.put(site, new SumSite(index, addends));
+            return true;
+        }
+
+        private boolean checkMinMax(Statement.IfStatement ifStatement) {
+            if (ifStatement.elseBranch != null) return false;
+            if (!(unwrap(ifStatement.condit) instanceof Expression.BinaryExpression condition)) return false;
+
+            switch (condition.operator.getTokenType()) {
+                case Less, Less_Equal, Greater, Greater_Equal -> {
+                }
+                default -> {
+                    return false;
+                }
+            }
+
+            if (!(ifStatement.thenBranch instanceof Statement.BlockStatement block) || block.statementList.size() != 1) {
+                return false;
+            }
+            if (!(block.statementList.get(0) instanceof Statement.ExpressionStatement st)) return false;
+            if (!(st.expr instanceof Expression.AssignExpression assign)) return false;
+
+            String name = assign.name.getValue();
+            if (isLocal(name)) return false;
+
+            boolean variableOnLeft = isVar(condition.left, name);
+            if (!variableOnLeft && !isVar(condition.right, name)) return false;
+
+            Expression value = variableOnLeft ? condition.right : condition.left;
+            if (!checkPure(value) || !checkPure(assign.value)) return false;
+            if (!same(value, assign.value)) return false;
+
+            MinMax minMax = new MinMax(name, condition, variableOnLeft, value);
+            plan.minMaxes.add(minMax);
+            plan.minMaxSites.put(ifStatement, minMax);
+            return true;
+        }
+
+        //Expressions that don't assign anything
+        boolean checkPure(Expression expr) {
+            if (expr instanceof Expression.AssignExpression || expr instanceof Expression.CompoundAssignExpression) {
+                return false;
+            }
+            return check(expr);
+        }
+
+        private boolean check(Expression expr) {
+            if (expr instanceof Expression.LiteralExpression) return true;
+            if (expr instanceof Expression.VarExpression var) {
+                if (!isLocal(var.name.getValue())) reads.add(var.name.getValue());
+                return true;
+            }
+            if (expr instanceof Expression.HoistedExpression hoisted) {
+                plan.hoisted.add(hoisted.name.getValue());
+                return check(hoisted.expr);
+            }
+            if (expr instanceof Expression.AssignExpression assign) {
+                return isLocal(assign.name.getValue()) && check(assign.value);
+            }
+            if (expr instanceof Expression.CompoundAssignExpression compound) {
+                return isLocal(compound.name.getValue()) && check(compound.value);
+            }
+            //The loop can't change arrays, maps nor structs, so reading them from several threads is fine
+            if (expr instanceof Expression.IndexExpression element) return check(element.object) && check(element.index);
+            if (expr instanceof Expression.ArrayExpression array) {
+                for (Expression element : array.elements) {
+                    if (!check(element)) return false;
+                }
+                return true;
+            }
+            if (expr instanceof Expression.GetExpression field) return check(field.object);
+            if (expr instanceof Expression.StructExpression struct) {
+                for (Expression value : struct.values) {
+                    if (!check(value)) return false;
+                }
+                return true;
+            }
+            if (expr instanceof Expression.MapExpression map) {
+                for (int i = 0; i < map.keys.size(); i++) {
+                    if (!check(map.keys.get(i)) || !check(map.values.get(i))) return false;
+                }
+                return true;
+            }
+            if (expr instanceof Expression.GroupingExpression group) return check(group.expr);
+            if (expr instanceof Expression.UnaryExpression unary) return check(unary.right);
+            if (expr instanceof Expression.BinaryExpression bin) return check(bin.left) && check(bin.right);
+            if (expr instanceof Expression.LogicalExpression logic) return check(logic.left) && check(logic.right);
+
+            return false;
+        }
+
+        private boolean isLocal(String name) {
+            for (Set<String> scope : scopes) {
+                if (scope.contains(name)) return true;
+            }
+            return false;
+        }
+
+        private boolean isVar(Expression expr, String name) {
+            return unwrap(expr) instanceof Expression.VarExpression var && var.name.getValue().equals(name);
+        }
+    }
+
+    private static Expression unwrap(Expression expr) {
+        while (expr instanceof Expression.GroupingExpression group) expr = group.expr;
+        return expr;
+    }
+
+    /**
+     * Whether two pure expressions are written the same, so they give the same value in an iteration. Like
+     * {@link LoopInvariantCodeMotion#key}, but it also takes the elements of arrays and the fields of structs, and
+     * anything it doesn't know is different.
+     */
+    private static boolean same(Expression a, Expression b) {
+        a = unwrap(a);
+        b = unwrap(b);
+
+        if (a instanceof Expression.LiteralExpression x && b instanceof Expression.LiteralExpression y) {
+            return Objects.equals(x.value, y.value);
+        }
+        if (a instanceof Expression.VarExpression x && b instanceof Expression.VarExpression y) {
+            return x.name.getValue().equals(y.name.getValue());
+        }
+        if (a instanceof Expression.HoistedExpression x && b instanceof Expression.HoistedExpression y) {
+            return x.name.getValue().equals(y.name.getValue());
+        }
+        if (a instanceof Expression.UnaryExpression x && b instanceof Expression.UnaryExpression y) {
+            return x.operator.getTokenType() == y.operator.getTokenType() && same(x.right, y.right);
+        }
+        if (a instanceof Expression.BinaryExpression x && b instanceof Expression.BinaryExpression y) {
+            return x.operator.getTokenType() == y.operator.getTokenType() && same(x.left, y.left) && same(x.right, y.right);
+        }
+        if (a instanceof Expression.LogicalExpression x && b instanceof Expression.LogicalExpression y) {
+            return x.operator.getTokenType() == y.operator.getTokenType() && same(x.left, y.left) && same(x.right, y.right);
+        }
+        if (a instanceof Expression.IndexExpression x && b instanceof Expression.IndexExpression y) {
+            return same(x.object, y.object) && same(x.index, y.index);
+        }
+        if (a instanceof Expression.GetExpression x && b instanceof Expression.GetExpression y) {
+            return x.name.getValue().equals(y.name.getValue()) && same(x.object, y.object);
+        }
+
+        return false;
+    }
+}
@@ -1,9 +1,11 @@
 package org.example.AbstractSyntaxTree;
 
+import org.example.Lexer.SimpleToken;
 import org.example.Lexer.TokenUtils.Token;
 import org.example.Lexer.TokenUtils.TokenType;
 import org.example.Lexer.ValueToken;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -16,17 +18,35 @@ public class Parser {
     List<Statement> statements = new ArrayList<>();
     private final List<Token> tokens;
     private final List<ParseError> errors;
+    private final ExpressionFactory nodes;
     private int current = 0;
+    //How many function bodies the parser is in, a return is only valid inside one
+    private int functionDepth = 0;
+    //Whether the statement being parsed is one of the file's own, an import is only valid there
+    private boolean topLevel = false;
     private boolean hadErrors = false;
 
     public Parser(List<Token> tokens) {
+        this(tokens, false);
+    }
+
+    /**
+     * @param shareSubexpressions whether structurally identical subexpressions should be the same node (see
+     *                            {@link ExpressionFactory.HashConsing}), which saves a lot of memory on big
+     *                            generated programs
+     */
+    public Parser(List<Token> tokens, boolean shareSubexpressions) {
         this.tokens = tokens;
         this.errors = new ArrayList<>();
+        this.nodes = shareSubexpressions ? new ExpressionFactory.HashConsing() : new ExpressionFactory();
     }
 
     public List<Statement> parse() {
 
-        while (!isAtEnd()) statements.add(declaration());
+        while (!isAtEnd()) {
+            topLevel = true;
+            statements.add(declaration());
+        }
 
         return statements;
     }
@@ -43,19 +63,79 @@ public class Parser {
     }
 
     private Statement statement() throws ParseError {
+        //Whatever this statement has inside isn't at the top level anymore
+        boolean topLevel = this.topLevel;
+        this.topLevel = false;
+
+        if (match(TokenType.Import)) return importStatement(topLevel);
         if (match(TokenType.Let)) return letStatement();
         if (match(TokenType.Print)) return printStatement();
         if (match(TokenType.For)) return forStatement();
+        if (match(TokenType.Pfor)) return pforStatement();
         if (match(TokenType.While)) return whileStatement();
         if (match(TokenType.LBrace)) return blockStatement();
         if (match(TokenType.Break)) return breakStatement();
         if (match(TokenType.Continue)) return continueStatement();
         if (match(TokenType.If)) return ifStatement();
+        if (match(TokenType.Match)) return matchStatement();
+        if (match(TokenType.Return)) return returnStatement();
+        //Without a name it's a function expression
+        if (check(TokenType.Function) && checkNext(TokenType.Identifier)) {
+            advance();
+            return functionStatement();
+        }
         return expressionStatement();
     }
 
+    private Statement functionStatement() throws ParseError {
+        ValueToken<String> name = (ValueToken<String>) consume(TokenType.Identifier, "Expected the name of the function.");
+        return new Statement.FunctionStatement(function(name));
+    }
+
+    private Expression.FunctionExpression function(ValueToken<String> name) throws ParseError {
+        consume(TokenType.LParen, "Expected '(' before the parameters of the function.");
+        List<ValueToken<String>> params = new ArrayList<>();
+        if (!check(TokenType.RParen)) {
+            do {
+                params.add((ValueToken<String>) consume(TokenType.Identifier, "Expected the name of a parameter."));
+            } while (match(TokenType.Comma));
+        }
+        consume(TokenType.RParen, "Expected ')' after the parameters of the function.");
+        consume(TokenType.LBrace, "Expected '{' before the body of the function.");
+
+        functionDepth++;
+        nodes.enterFunction();
+        try {
+            return nodes.function(name, params, blockStatement().statementList);
+        } finally {
+            functionDepth--;
+            nodes.exitFunction();
+        }
+    }
+
+    private Statement returnStatement() throws ParseError {
+        Token keyword = previous();
+        if (functionDepth == 0) throw error(keyword, "Can't return from outside a function.");
+
+        Expression value = null;
+        if (!check(TokenType.Semicolon)) value = expression();
+
+        consume(TokenType.Semicolon, "Expected ';' after a return statement.");
+        return new Statement.ReturnStatement(keyword, value);
+    }
+
+    private Statement importStatement(boolean topLevel) throws ParseError {
+        Token keyword = previous();
+        if (!topLevel) throw error(keyword, "Imports can only be at the top level of a file.");
+
+        ValueToken<String> path = (ValueToken<String>) consume(TokenType.String, "Expected the path of a module after 'import'.");
+        consume(TokenType.Semicolon, "Expected ';' after an import statement.");
+        return new Statement.ImportStatement(keyword, path.getValue());
+    }
+
     private Statement forStatement() {
         consume(TokenType.LParen, "Expected '(' after 'for'.");
+        if (check(TokenType.Identifier) && checkNext(TokenType.In)) return forRangeStatement();
 
         Statement initializer;
         if (match(TokenType.Semicolon)) {
@@ -83,6 +163,10 @@ public class Parser {
 
         Statement body = statement();
 
+        if (initializer instanceof Statement.LetStatement let) {
+            Statement counted = CountedLoops.recognize(let, condition, increment, body);
+            if (counted != null) return counted;
+        }
 
         //Turn it into a while statement
         if (increment != null) {
@@ -93,14 +177,52 @@ public class Parser {
                     ));
         }
 
-        if (condition == null) condition = new Expression.LiteralExpression(true);
+        if (condition == null) condition = nodes.literal(true);
 
         body = new Statement.WhileStatement(condition, body);
 
-        if (initializer != null) statements.add(initializer);
+        //The initializer goes in a block of its own, so what it declares is only seen by the loop
+        if (initializer != null) return new Statement.BlockStatement(Arrays.asList(initializer, body));
         return body;
     }
 
+    private Statement forRangeStatement() {
+        ValueToken<String> name = (ValueToken<String>) consume(TokenType.Identifier, "Expected the name of the loop variable.");
+        consume(TokenType.In, "Expected 'in' after the loop variable.");
+        Expression start = expression();
+        Token range = consume(TokenType.DotDot, "Expected '..' between the bounds of the range.");
+        Expression end = expression();
+        consume(TokenType.RParen, "Expected ')' after the range.");
+
+        Statement body = statement();
+        return new Statement.ForRangeStatement(name, start, end, new SimpleToken(range.getPos(), TokenType.Less), 1, body);
+    }
+
+    private Statement pforStatement() throws ParseError {
+        consume(TokenType.LParen, "Expected '(' after 'pfor'.");
+        ValueToken<String> name = (ValueToken<String>) consume(TokenType.Identifier, "Expected the name of the loop variable.");
+        consume(TokenType.In, "Expected 'in' after the loop variable.");
+        Expression start = expression();
+        Token range = consume(TokenType.DotDot, "Expected '..' between the bounds of the range.");
+        Expression end = expression();
+
+        List<ValueToken<String>> reductions = new ArrayList<>();
+        if (match(TokenType.Semicolon)) {
+            do {
+                reductions.add((ValueToken<String>) consume(TokenType.Identifier, "Expected the name of a reduction."));
+            } while (match(TokenType.Comma));
+        }
+        consume(TokenType.RParen, "Expected ')' after the range and its reductions.");
+
+        Statement body = statement();
+        Statement.ForRangeStatement loop = new Statement.ForRangeStatement(name, start, end,
+                new SimpleToken(range.getPos(), TokenType.Less), 1, body);
+
+        ParallelFor.Problem problem = ParallelFor.check(loop, reductions);
+        if (problem != null) throw error(problem.token(), problem.message());
+        return loop;
+    }
+
     private Statement whileStatement() {
         consume(TokenType.LParen, "Expected '(' after a while statement.");
         Expression condition = expression();
@@ -169,6 +291,56 @@ public class Parser {
         return new Statement.IfStatement(expr, thenBranch, elseBranch);
     }
 
+    private Statement matchStatement() {
+        consume(TokenType.LParen, "Expected '(' after 'match'.");
+        Expression subject = expression();
+        consume(TokenType.RParen, "Expected ')' after the value to match.");
+        consume(TokenType.LBrace, "Expected '{' before the arms of the match.");
+
+        List<List<Object>> keys = new ArrayList<>();
+        List<Statement> arms = new ArrayList<>();
+        Statement elseBranch = null;
+        while (!check(TokenType.RBrace) && !isAtEnd()) {
+            if (match(TokenType.Else)) {
+                if (elseBranch != null) throw error(previous(), "A match can only have one else arm.");
+
+                consume(TokenType.Arrow, "Expected '=>' after 'else'.");
+                consume(TokenType.LBrace, "Expected '{' at the start of the arm.");
+                elseBranch = blockStatement();
+                continue;
+            }
+
+            List<Object> armKeys = new ArrayList<>();
+            do {
+                armKeys.add(matchKey());
+            } while (match(TokenType.Comma));
+
+            consume(TokenType.Arrow, "Expected '=>' after the keys of the arm.");
+            consume(TokenType.LBrace, "Expected '{' at the start of the arm.");
+            keys.add(armKeys);
+            arms.add(blockStatement());
+        }
+
+        consume(TokenType.RBrace, "Expected '}' after the arms of the match.");
+        return new Statement.MatchStatement(subject, keys, arms, elseBranch);
+    }
+
+    //The keys are constants: literals, and negative numbers
+    private Object matchKey() {
+        if (match(TokenType.False)) return false;
+        if (match(TokenType.True)) return true;
+        if (match(TokenType.Nil)) return null;
+
+        if (match(TokenType.Minus)) {
+            ValueToken<Double> number = (ValueToken<Double>) consume(TokenType.Integer, "Expected a number after '-'.");
+            return -number.getValue();
+        }
+
+        if (match(TokenType.Integer, TokenType.String)) return ((ValueToken<?>) previous()).getValue();
+
+        throw error(peek(), "Expected a constant as the key of a match arm.");
+    }
+
     private Statement expressionStatement() throws ParseError {
         Expression expr = expression();
         consume(TokenType.Semicolon, "Expected ';' after expression");
@@ -190,12 +362,39 @@ public class Parser {
 
             if (expr instanceof Expression.VarExpression) {
                 ValueToken<String> name = ((Expression.VarExpression) expr).name;
-                return new Expression.AssignExpression(name, val);
+                return nodes.assign(name, val);
+            }
+
+            if (expr instanceof Expression.IndexExpression element) {
+                return nodes.indexAssign(element.object, element.bracket, element.index, null, val, false);
+            }
+
+            if (expr instanceof Expression.GetExpression field) {
+                return nodes.set(field.object, field.name, null, val, false);
             }
 
             throw error(equals, "Invalid assignment target.");
         }
 
+        if (match(TokenType.Plus_Equal, TokenType.Minus_Equal, TokenType.Star_Equal, TokenType.Slash_Equal)) {
+            Token operator = previous();
+            Expression val = assignment();
+
+            if (expr instanceof Expression.VarExpression var) {
+                return nodes.compoundAssign(var.name, arithmetic(operator), val, false);
+            }
+
+            if (expr instanceof Expression.IndexExpression element) {
+                return nodes.indexAssign(element.object, element.bracket, element.index, arithmetic(operator), val, false);
+            }
+
+            if (expr instanceof Expression.GetExpression field) {
+                return nodes.set(field.object, field.name, arithmetic(operator), val, false);
+            }
+
+            throw error(operator, "Invalid assignment target.");
+        }
+
         return expr;
     }
 
@@ -205,7 +404,7 @@ public class Parser {
         while (match(TokenType.Or)) {
             Token op = previous();
             Expression right = logic_and(); //Traverse the parser
-            expr = new Expression.LogicalExpression(expr, op, right);
+            expr = nodes.logical(expr, op, right);
         }
 
         return expr;
@@ -217,7 +416,7 @@ public class Parser {
         while (match(TokenType.And)) {
             Token op = previous();
             Expression right = equality(); //Traverse the parser
-            expr = new Expression.LogicalExpression(expr, op, right);
+            expr = nodes.logical(expr, op, right);
         }
 
         return expr;
@@ -229,7 +428,7 @@ public class Parser {
         while (match(TokenType.Not_Equal, TokenType.Equal_Equal)) {
             Token op = previous();
             Expression right = comparison();
-            expr = new Expression.BinaryExpression(expr, op, right);
+            expr = nodes.binary(expr, op, right);
         }
 
         return expr;
@@ -241,7 +440,7 @@ public class Parser {
         while (match(TokenType.Greater, TokenType.Greater_Equal, TokenType.Less, TokenType.Less_Equal)) {
             Token op = previous();
             Expression right = term();
-            expr = new Expression.BinaryExpression(expr, op, right);
+            expr = nodes.binary(expr, op, right);
         }
 
         return expr;
@@ -254,7 +453,7 @@ public class Parser {
             Token op = previous();
 
             Expression right = factor();
-            expr = new Expression.BinaryExpression(expr, op, right);
+            expr = nodes.binary(expr, op, right);
         }
 
         return expr;
@@ -266,7 +465,7 @@ public class Parser {
         while (match(TokenType.Slash, TokenType.Star)) {
             Token op = previous();
             Expression right = unary();
-            expr = new Expression.BinaryExpression(expr, op, right);
+            expr = nodes.binary(expr, op, right);
         }
 
         return expr;
@@ -276,32 +475,159 @@ public class Parser {
         if (match(TokenType.Bang, TokenType.Minus)) {
             Token op = previous();
             Expression right = unary();
-            return new Expression.UnaryExpression(op, right);
+            return nodes.unary(op, right);
         }
 
-        return primary();
+        if (match(TokenType.Plus_Plus, TokenType.Minus_Minus)) {
+            Token op = previous();
+            return increment(unary(), op, false);
+        }
+
+        return postfix();
+    }
+
+    private Expression postfix() throws ParseError {
+        Expression expr = call();
+
+        if (match(TokenType.Plus_Plus, TokenType.Minus_Minus)) return increment(expr, previous(), true);
+
+        return expr;
+    }
+
+    private Expression increment(Expression target, Token op, boolean postfix) throws ParseError {
+        if (target instanceof Expression.VarExpression var) {
+            return nodes.compoundAssign(var.name, arithmetic(op), nodes.literal(1.0), postfix);
+        }
+
+        if (target instanceof Expression.IndexExpression element) {
+            return nodes.indexAssign(element.object, element.bracket, element.index, arithmetic(op), nodes.literal(1.0),
+                    postfix);
+        }
+
+        if (target instanceof Expression.GetExpression field) {
+            return nodes.set(field.object, field.name, arithmetic(op), nodes.literal(1.0), postfix);
+        }
+
+        throw error(op, "Invalid increment target.");
+    }
+
+    //The operator a compound assignment or an increment applies
+    private static Token arithmetic(Token op) {
+        TokenType type = switch (op.getTokenType()) {
+            case Plus_Equal, Plus_Plus -> TokenType.Plus;
+            case Minus_Equal, Minus_Minus -> TokenType.Minus;
+            case Star_Equal -> TokenType.Star;
+            case Slash_Equal -> TokenType.Slash;
+            default -> throw new IllegalArgumentException("Not a compound operator: " + op.getTokenType());
+        };
+
+        return new SimpleToken(op.getPos(), type);
+    }
+
+    private Expression call() throws ParseError {
+        Expression expr = primary();
+
+        while (true) {
+            if (match(TokenType.LParen)) {
+                List<Expression> arguments = new ArrayList<>();
+                if (!check(TokenType.RParen)) {
+                    do {
+                        arguments.add(expression());
+                    } while (match(TokenType.Comma));
+                }
+
+                Token paren = consume(TokenType.RParen, "Expected ')' after the arguments of the call.");
+                expr = nodes.call(expr, paren, arguments);
+            } else if (match(TokenType.LBracket)) {
+                Token bracket = previous();
+                Expression index = expression();
+                consume(TokenType.RBracket, "Expected ']' after the index.");
+                expr = nodes.index(expr, bracket, index);
+            } else if (match(TokenType.Dot)) {
+                ValueToken<String> name = (ValueToken<String>) consume(TokenType.Identifier, "Expected the name of a field after '.'.");
+                expr = nodes.get(expr, name);
+            } else {
+                break;
+            }
+        }
+
+        return expr;
     }
 
     private Expression primary() throws ParseError {
-        if (match(TokenType.False)) return new Expression.LiteralExpression(false);
-        if (match(TokenType.True)) return new Expression.LiteralExpression(true);
-        if (match(TokenType.Nil)) return new Expression.LiteralExpression(null);
+        if (match(TokenType.False)) return nodes.literal(false);
+        if (match(TokenType.True)) return nodes.literal(true);
+        if (match(TokenType.Nil)) return nodes.literal(null);
 
         if (match(TokenType.Integer, TokenType.String)) {
             ValueToken tok = (ValueToken) previous();
-            return new Expression.LiteralExpression(tok.getValue());
+            return nodes.literal(tok.getValue());
         }
 
         //If we get here, this *could* be an identifier
         if (match(TokenType.Identifier)) {
             ValueToken<String> tok = (ValueToken<String>) previous();
-            return new Expression.VarExpression(tok);
+            return nodes.var(tok);
+        }
+
+        if (match(TokenType.Function)) return function(null);
+
+        if (match(TokenType.LBracket)) {
+            Token bracket = previous();
+            List<Expression> elements = new ArrayList<>();
+            if (!check(TokenType.RBracket)) {
+                do {
+                    elements.add(expression());
+                } while (match(TokenType.Comma));
+            }
+
+            consume(TokenType.RBracket, "Expected ']' after the elements of the array.");
+            return nodes.array(bracket, elements);
+        }
+
+        if (match(TokenType.Struct)) {
+            Token keyword = previous();
+            consume(TokenType.LBrace, "Expected '{' after 'struct'.");
+
+            List<ValueToken<String>> names = new ArrayList<>();
+            List<Expression> values = new ArrayList<>();
+            if (!check(TokenType.RBrace)) {
+                do {
+                    ValueToken<String> name = (ValueToken<String>) consume(TokenType.Identifier, "Expected the name of a field.");
+                    for (ValueToken<String> other : names) {
+                        if (other.getValue().equals(name.getValue())) throw error(name, "Duplicate field in the struct.");
+                    }
+                    consume(TokenType.Colon, "Expected ':' after the name of the field.");
+                    names.add(name);
+                    values.add(expression());
+                } while (match(TokenType.Comma));
+            }
+
+            consume(TokenType.RBrace, "Expected '}' after the fields of the struct.");
+            return nodes.struct(keyword, names, values);
+        }
+
+        //A brace starts a block where a statement is expected, so here it can only be a map
+        if (match(TokenType.LBrace)) {
+            Token brace = previous();
+            List<Expression> keys = new ArrayList<>();
+            List<Expression> values = new ArrayList<>();
+            if (!check(TokenType.RBrace)) {
+                do {
+                    keys.add(expression());
+                    consume(TokenType.Colon, "Expected ':' after the key.");
+                    values.add(expression());
+                } while (match(TokenType.Comma));
+            }
+
+            consume(TokenType.RBrace, "Expected '}' after the entries of the map.");
+            return nodes.map(brace, keys, values);
         }
 
         if (match(TokenType.LParen)) {
             Expression expr = expression();
             consume(TokenType.RParen, "Expected ')' after expression.");
-            return new Expression.GroupingExpression(expr);
+            return nodes.grouping(expr);
         }
 
         throw error(peek(), "Expected an expression");
@@ -317,7 +643,7 @@ public class Parser {
             if (previous().getTokenType() == TokenType.Semicolon) return;
 
             switch (peek().getTokenType()) {
-                case Function, Let, For, If, While, Return, Print, Break, Continue -> {
+                case Function, Let, For, Pfor, If, While, Return, Print, Break, Continue, Import -> {
                     return;
                 }
             }
@@ -357,6 +683,12 @@ public class Parser {
         return peek().getTokenType() == type;
     }
 
+    private boolean checkNext(TokenType type) {
+        if (isAtEnd() || current + 1 >= tokens.size()) return false;
+
+        return tokens.get(current + 1).getTokenType() == type;
+    }
+
     private boolean isAtEnd() {
         return peek().getTokenType() == TokenType.EOF;
     }
@@ -379,7 +711,11 @@ public class Parser {
     }
 
     public void printErrors() {
-        for (ParseError err : errors) err.printError();
+        printErrors(System.out);
+    }
+
+    public void printErrors(PrintStream out) {
+        for (ParseError err : errors) err.printError(out);
     }
 
     private static class ParseError extends RuntimeException {
@@ -391,8 +727,8 @@ public class Parser {
             this.message = message;
         }
 
-        public void printError() {
-            System.out.printf("  [%sSYNTAX ERROR%s]: %s %n", RED, NO_COLOR, message);
+        public void printError(PrintStream out) {
+            out.printf("  [%sSYNTAX ERROR%s]: %s %n", RED, NO_COLOR, message);
         }
     }
 }
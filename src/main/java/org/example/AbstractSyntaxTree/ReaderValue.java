@@ -0,0 +1,102 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A file read a line at a time, given by {@code open}. The file is read through one direct buffer that's used again
+ * for every block, and the bytes of a line are put together in an array that's used again for every line (it only
+ * grows to fit the longest one), so reading a file of any size takes the same memory.
+ * <p>
+ * The lines are decoded as UTF-8, without their terminator ("\n" or "\r\n"). A line that's read as a record is kept
+ * as bytes instead, see {@link RecordValue}.
+ */
+public class ReaderValue {
+    private static final int BLOCK = 64 * 1024;
+
+    private final FileChannel channel;
+    //What's between its position and its limit hasn't been read yet
+    private final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK).limit(0);
+    private byte[] line = new byte[256];
+    private int length = 0;
+    private boolean closed = false;
+
+    private ReaderValue(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    static ReaderValue open(Path path) throws IOException {
+        return new ReaderValue(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    //The next line, or nil at the end of the file
+    String readLine(TokenUtils.Token paren) {
+        return next(paren) ? new String(line, 0, length, StandardCharsets.UTF_8) : null;
+    }
+
+    RecordValue readRecord(TokenUtils.Token paren, byte delimiter) {
+        return next(paren) ? new RecordValue(Arrays.copyOf(line, length), delimiter) : null;
+    }
+
+    void close(TokenUtils.Token paren) {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new Interpreter.RuntimeError(paren, "Couldn't close the file: " + e.getMessage());
+        }
+    }
+
+    //Puts the next line in `line`, or gives back false if the file has no more
+    private boolean next(TokenUtils.Token paren) {
+        if (closed) throw new Interpreter.RuntimeError(paren, "The reader was closed.");
+
+        length = 0;
+        boolean found = false;
+        while (block.hasRemaining() || fill(paren)) {
+            found = true;
+            int start = block.position();
+            int end = start;
+            while (end < block.limit() && block.get(end) != '\n') end++;
+
+            append(start, end - start);
+            if (end < block.limit()) {
+                block.position(end + 1);
+                break;
+            }
+            block.position(end);
+        }
+
+        if (length > 0 && line[length - 1] == '\r') length--;
+        return found;
+    }
+
+    private void append(int from, int count) {
+        if (length + count > line.length) line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+        block.get(from, line, length, count);
+        length += count;
+    }
+
+    private boolean fill(TokenUtils.Token paren) {
+        try {
+            block.clear();
+            int read = channel.read(block);
+            block.flip();
+            return read > 0;
+        } catch (IOException e) {
+            throw new Interpreter.RuntimeError(paren, "Couldn't read the file: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<reader>";
+    }
+}
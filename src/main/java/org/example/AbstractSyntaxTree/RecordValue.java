@@ -0,0 +1,114 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A line split into fields by a delimiter, as {@code readrecord} reads it. It keeps the bytes of the line, and only
+ * looks for the delimiters when a field is first asked for. A field is decoded when it's asked for, as a string with
+ * {@code field} or straight from its bytes as a number with {@code fieldnum}, so the fields a script doesn't use cost
+ * nothing.
+ */
+public class RecordValue {
+    //The powers of ten that a double holds exactly
+    private static final double[] POWERS = new double[23];
+
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) POWERS[i] = POWERS[i - 1] * 10;
+    }
+
+    private final byte[] bytes;
+    private final byte delimiter;
+    //Where each field starts, and one past the end of the line at the end, once they're needed
+    private int[] starts;
+
+    RecordValue(byte[] bytes, byte delimiter) {
+        this.bytes = bytes;
+        this.delimiter = delimiter;
+    }
+
+    int size() {
+        return starts().length - 1;
+    }
+
+    String field(TokenUtils.Token paren, long index) {
+        int[] starts = starts();
+        int i = check(paren, index);
+        return new String(bytes, starts[i], starts[i + 1] - 1 - starts[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Whole numbers and decimals with at most 15 digits are parsed from the bytes, the rest (exponents, more digits,
+     * spaces around it) goes through Double.parseDouble.
+     */
+    double number(TokenUtils.Token paren, long index) {
+        int[] starts = starts();
+        int i = check(paren, index);
+        int from = starts[i];
+        int to = starts[i + 1] - 1;
+
+        int at = from;
+        boolean negative = at < to && bytes[at] == '-';
+        if (negative) at++;
+
+        long digits = 0;
+        int count = 0;
+        int decimals = -1;
+        for (; at < to; at++) {
+            byte b = bytes[at];
+            if (b >= '0' && b <= '9' && count < 15) {
+                digits = digits * 10 + (b - '0');
+                count++;
+                if (decimals >= 0) decimals++;
+            } else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                break;
+            }
+        }
+
+        //Both the digits and the power of ten are exact, so the division is rounded right
+        if (at == to && count > 0) {
+            double value = decimals > 0 ? digits / POWERS[decimals] : digits;
+            return negative ? -value : value;
+        }
+
+        String field = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        try {
+            return Double.parseDouble(field);
+        } catch (NumberFormatException e) {
+            throw new Interpreter.RuntimeError(paren, "The field " + i + " ('" + field + "') isn't a number.");
+        }
+    }
+
+    private int check(TokenUtils.Token paren, long index) {
+        if (index < 0 || index >= size()) {
+            throw new Interpreter.RuntimeError(paren, "The record has no field " + index + ", it has " + size() + ".");
+        }
+        return (int) index;
+    }
+
+    private int[] starts() {
+        if (starts != null) return starts;
+
+        int count = 1;
+        for (byte b : bytes) if (b == delimiter) count++;
+
+        int[] starts = new int[count + 1];
+        int field = 1;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == delimiter) starts[field++] = i + 1;
+        }
+        //As if the line ended with a delimiter, so every field ends one before the start of the next
+        starts[count] = bytes.length + 1;
+        this.starts = starts;
+        return starts;
+    }
+
+    @Override
+    public String toString() {
+        return "<record of " + size() + " fields>";
+    }
+}
@@ -0,0 +1,262 @@
+package org.example.AbstractSyntaxTree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives every variable declared inside a function a slot in the frame of that function, so the interpreter keeps
+ * them in an array instead of a chain of environments. The variables of the code outside functions stay in the
+ * environments, where the next line of the REPL can still find them.
+ * <p>
+ * A variable of an enclosing function also gets a slot in the frame of each function in between, which the call
+ * fills from what the closure copied when it was created. Copying is only the same as sharing when the variable
+ * doesn't change afterwards, so the captured variables that are assigned after their declaration (and the
+ * functions that call themselves, which are captured before they exist) are kept in a {@link Closure.Cell}.
+ * <p>
+ * The interpreter runs it right before running a program, after the optimizer passes have added their bindings.
+ */
+class Resolver extends AstScanner {
+    private FunctionScope function;
+    private final List<FunctionScope> functions = new ArrayList<>();
+    //Whether a variable is boxed is only known once its function was resolved, so the nodes are filled in at the end
+    private final List<Object> nodes = new ArrayList<>();
+    private final List<Local> locals = new ArrayList<>();
+
+    void resolve(List<Statement> statements) {
+        scan(statements);
+
+        for (int i = 0; i < nodes.size(); i++) {
+            Local local = locals.get(i);
+            int slot = local != null ? local.slot : -1;
+            boolean boxed = local != null && local.boxed();
+
+            Object node = nodes.get(i);
+            if (node instanceof Expression.VarExpression var) {
+                var.slot = slot;
+                var.boxed = boxed;
+            } else if (node instanceof Expression.AssignExpression assign) {
+                assign.slot = slot;
+                assign.boxed = boxed;
+            } else if (node instanceof Expression.CompoundAssignExpression compound) {
+                compound.slot = slot;
+                compound.boxed = boxed;
+            } else if (node instanceof Expression.HoistedExpression hoisted) {
+                hoisted.slot = slot;
+            } else if (node instanceof Statement.LetStatement let) {
+                let.slot = slot;
+                let.boxed = boxed;
+            } else if (node instanceof Statement.ForRangeStatement forRange) {
+                forRange.slot = slot;
+                forRange.boxed = boxed;
+            } else if (node instanceof Statement.FunctionStatement functionStatement) {
+                functionStatement.slot = slot;
+                functionStatement.boxed = boxed;
+            }
+        }
+
+        for (FunctionScope scope : functions) {
+            Expression.FunctionExpression declaration = scope.declaration;
+            declaration.frameSize = scope.slots;
+
+            declaration.boxedParams = new boolean[scope.params.size()];
+            for (int i = 0; i < scope.params.size(); i++) declaration.boxedParams[i] = scope.params.get(i).boxed();
+
+            declaration.captureFrom = new int[scope.captures.size()];
+            declaration.captureTo = new int[scope.captures.size()];
+            int i = 0;
+            for (Map.Entry<Local, Local> capture : scope.captures.entrySet()) {
+                declaration.captureFrom[i] = capture.getKey().slot;
+                declaration.captureTo[i] = capture.getValue().slot;
+                i++;
+            }
+        }
+    }
+
+    private void resolveFunction(Expression.FunctionExpression declaration) {
+        FunctionScope scope = new FunctionScope(function, declaration);
+        functions.add(scope);
+        function = scope;
+
+        scope.scopes.add(new HashMap<>());
+        for (var param : declaration.params) scope.params.add(scope.declare(param.getValue()));
+        scan(declaration.body);
+
+        function = scope.enclosing;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.FunctionStatement functionStatement) {
+        Local local = null;
+        if (function != null) {
+            local = function.declare(functionStatement.function.name.getValue());
+            //Its own body captures it before it's assigned
+            local.alwaysBoxed = true;
+        }
+        record(functionStatement, local);
+
+        resolveFunction(functionStatement.function);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+        resolveFunction(functionExpr);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.BlockStatement blockStatement) {
+        blockStatement.scoped = function == null;
+        if (function == null) return super.visitBlockStatement(blockStatement);
+
+        function.scopes.add(new HashMap<>());
+        super.visitBlockStatement(blockStatement);
+        function.scopes.remove(function.scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitLetStatement(Statement.LetStatement letStatement) {
+        scan(letStatement.initializer);
+        record(letStatement, function != null ? function.declare(letStatement.name.getValue()) : null);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+        declareHoisted(whileStatement.preheader);
+        return super.visitWhileStatement(whileStatement);
+    }
+
+    @Override
+    public Void visitForRangeStatement(Statement.ForRangeStatement forRangeStatement) {
+        scan(forRangeStatement.start);
+        scan(forRangeStatement.end);
+        declareHoisted(forRangeStatement.preheader);
+
+        if (function == null) {
+            record(forRangeStatement, null);
+            scan(forRangeStatement.body);
+            return null;
+        }
+
+        function.scopes.add(new HashMap<>());
+        Local counter = function.declare(forRangeStatement.name.getValue());
+        //Every iteration writes it
+        counter.assigned = true;
+        record(forRangeStatement, counter);
+        scan(forRangeStatement.body);
+        function.scopes.remove(function.scopes.size() - 1);
+        return null;
+    }
+
+    private void declareHoisted(List<Expression.HoistedExpression> preheader) {
+        for (Expression.HoistedExpression hoisted : preheader) {
+            record(hoisted, function != null ? function.declare(hoisted.name.getValue()) : null);
+        }
+    }
+
+    @Override
+    public Void visitVarExpression(Expression.VarExpression varExpr) {
+        record(varExpr, lookup(function, varExpr.name.getValue()));
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpression(Expression.AssignExpression assignExpr) {
+        scan(assignExpr.value);
+        record(assignExpr, assigned(lookup(function, assignExpr.name.getValue())));
+        return null;
+    }
+
+    @Override
+    public Void visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpr) {
+        scan(compoundExpr.value);
+        record(compoundExpr, assigned(lookup(function, compoundExpr.name.getValue())));
+        return null;
+    }
+
+    @Override
+    public Void visitHoistedExpression(Expression.HoistedExpression hoistedExpr) {
+        record(hoistedExpr, lookup(function, hoistedExpr.name.getValue()));
+        return super.visitHoistedExpression(hoistedExpr);
+    }
+
+    private Local assigned(Local local) {
+        if (local != null) local.root().assigned = true;
+        return local;
+    }
+
+    private void record(Object node, Local local) {
+        nodes.add(node);
+        locals.add(local);
+    }
+
+    //The variable a name refers to in a function, or null when it has to be looked up by name
+    private static Local lookup(FunctionScope scope, String name) {
+        if (scope == null) return null;
+
+        for (int i = scope.scopes.size() - 1; i >= 0; i--) {
+            Local local = scope.scopes.get(i).get(name);
+            if (local != null) return local;
+        }
+
+        Local outer = lookup(scope.enclosing, name);
+        if (outer == null) return null;
+
+        Local captured = scope.captures.get(outer);
+        if (captured == null) {
+            captured = new Local(scope.slots++, outer);
+            scope.captures.put(outer, captured);
+            outer.root().captured = true;
+        }
+        return captured;
+    }
+
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        final Expression.FunctionExpression declaration;
+        final List<Map<String, Local>> scopes = new ArrayList<>();
+        final List<Local> params = new ArrayList<>();
+        //The variables of the enclosing function it uses, and their copies in this frame
+        final Map<Local, Local> captures = new LinkedHashMap<>();
+        int slots = 0;
+
+        FunctionScope(FunctionScope enclosing, Expression.FunctionExpression declaration) {
+            this.enclosing = enclosing;
+            this.declaration = declaration;
+        }
+
+        Local declare(String name) {
+            Local local = new Local(slots++, null);
+            scopes.get(scopes.size() - 1).put(name, local);
+            return local;
+        }
+    }
+
+    private static class Local {
+        final int slot;
+        //The variable of an enclosing function this is a copy of
+        final Local origin;
+        boolean captured;
+        boolean assigned;
+        boolean alwaysBoxed;
+
+        Local(int slot, Local origin) {
+            this.slot = slot;
+            this.origin = origin;
+        }
+
+        Local root() {
+            return origin != null ? origin.root() : this;
+        }
+
+        boolean boxed() {
+            Local root = root();
+            return root.captured && (root.assigned || root.alwaysBoxed);
+        }
+    }
+}
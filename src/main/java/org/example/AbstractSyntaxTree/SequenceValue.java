@@ -0,0 +1,126 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+
+import java.util.Arrays;
+
+/**
+ * A lazy sequence: where its elements come from (a range of numbers, an array, a buffer or the lines of a reader) and
+ * the stages they go through ({@code map}, {@code filter} and {@code take}). Making one doesn't compute anything, and
+ * chaining stages only makes a new sequence with one more of them.
+ * <p>
+ * It's when a sequence is reduced or collected that every element is pulled from the source and pushed through all
+ * the stages in a single loop, so there are no lists in between them however long the pipeline is. The lines of a
+ * reader are read as the loop gets to them, so they're only there once: what the loop has read is gone.
+ */
+public class SequenceValue {
+    enum Kind {MAP, FILTER, TAKE}
+
+    //What a source without a length gives when it has no more elements
+    private static final Object END = new Object();
+
+    //The function of a map or filter, or how many elements a take lets through
+    private record Stage(Kind kind, Object function, long count) {
+    }
+
+    //A range when the source is null
+    private final double from;
+    private final double to;
+    private final Object source;
+    private final Stage[] stages;
+
+    private SequenceValue(double from, double to, Object source, Stage[] stages) {
+        this.from = from;
+        this.to = to;
+        this.source = source;
+        this.stages = stages;
+    }
+
+    static SequenceValue range(double from, double to) {
+        return new SequenceValue(from, to, null, new Stage[0]);
+    }
+
+    static SequenceValue of(ArrayValue array) {
+        return new SequenceValue(0, 0, array, new Stage[0]);
+    }
+
+    static SequenceValue of(BufferValue buffer) {
+        return new SequenceValue(0, 0, buffer, new Stage[0]);
+    }
+
+    static SequenceValue of(ReaderValue reader) {
+        return new SequenceValue(0, 0, reader, new Stage[0]);
+    }
+
+    SequenceValue then(Kind kind, Object function, long count) {
+        Stage[] next = Arrays.copyOf(stages, stages.length + 1);
+        next[stages.length] = new Stage(kind, function, count);
+        return new SequenceValue(from, to, source, next);
+    }
+
+    interface Sink {
+        void accept(Object value);
+    }
+
+    //The fused loop, every element that makes it through the stages goes to the sink
+    void drain(Interpreter interpreter, TokenUtils.Token paren, Sink sink) {
+        //Once a take has let all its elements through, the loop is over
+        boolean exhausted = false;
+        long[] remaining = new long[stages.length];
+        for (int s = 0; s < stages.length; s++) {
+            remaining[s] = stages[s].count;
+            if (stages[s].kind == Kind.TAKE && remaining[s] == 0) exhausted = true;
+        }
+        //Calls copy their arguments into the frame, so one array does for all of them
+        Object[] argument = new Object[1];
+
+        elements:
+        for (long i = 0; !exhausted && i < length(); i++) {
+            Object value = element(paren, i);
+            if (value == END) break;
+
+            for (int s = 0; s < stages.length; s++) {
+                Stage stage = stages[s];
+                switch (stage.kind) {
+                    case MAP -> {
+                        argument[0] = value;
+                        value = interpreter.call(paren, stage.function, argument);
+                    }
+                    case FILTER -> {
+                        argument[0] = value;
+                        if (!Interpreter.isTruthy(interpreter.call(paren, stage.function, argument))) continue elements;
+                    }
+                    case TAKE -> {
+                        //Nothing gets past it after this one, so nothing would get to the sink either
+                        if (--remaining[s] == 0) exhausted = true;
+                    }
+                }
+            }
+
+            sink.accept(value);
+        }
+    }
+
+    //Read on every step, an array can grow while it's being walked
+    private long length() {
+        if (source instanceof ArrayValue array) return array.size();
+        if (source instanceof BufferValue buffer) return buffer.length();
+        if (source instanceof ReaderValue) return Long.MAX_VALUE;
+        return to > from ? (long) Math.ceil(to - from) : 0;
+    }
+
+    private Object element(TokenUtils.Token paren, long index) {
+        if (source instanceof ArrayValue array) return array.get((int) index);
+        if (source instanceof BufferValue buffer) return buffer.get(paren, index);
+        if (source instanceof ReaderValue reader) {
+            String line = reader.readLine(paren);
+            return line != null ? line : END;
+        }
+        return from + index;
+    }
+
+    @Override
+    public String toString() {
+        return "<sequence>";
+    }
+}
@@ -0,0 +1,50 @@
+package org.example.AbstractSyntaxTree;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The layout of the fields of a {@link StructValue}, a hidden class: which fields it has and the slot of each one.
+ * Shapes form a tree rooted at the empty one, where adding a field goes to the child for that field, so every struct
+ * that got the same fields in the same order has the very same shape. That's what the caches of the field accesses
+ * compare.
+ */
+final class Shape {
+    static final Shape EMPTY = new Shape(null, null);
+
+    private final Shape parent;
+    //The last field added, its slot is the last one
+    private final String field;
+    private final Map<String, Integer> slots;
+    //Structs are created from several threads at once by parallel loops
+    private final Map<String, Shape> transitions = new ConcurrentHashMap<>();
+
+    private Shape(Shape parent, String field) {
+        this.parent = parent;
+        this.field = field;
+        this.slots = parent == null ? Map.of() : new HashMap<>(parent.slots);
+        if (field != null) slots.put(field, parent.size());
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    //The slot of a field, or -1 if this shape doesn't have it
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    Shape with(String name) {
+        return transitions.computeIfAbsent(name, n -> new Shape(this, n));
+    }
+
+    //The name of the field in every slot
+    String[] fields() {
+        String[] fields = new String[size()];
+        for (Shape shape = this; shape.field != null; shape = shape.parent) fields[shape.size() - 1] = shape.field;
+        return fields;
+    }
+}
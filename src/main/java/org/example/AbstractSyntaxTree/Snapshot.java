@@ -0,0 +1,305 @@
+package org.example.AbstractSyntaxTree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The globals a prelude left behind, kept so later runs can start from them without lexing, parsing or running the
+ * prelude again. It's made with {@link CompiledProgram#snapshot}, written to a file and read back in one read, and
+ * every run gets globals of its own decoded from it (see {@link CompiledProgram#run(Snapshot, java.io.PrintStream)}).
+ * <p>
+ * It keeps nil, booleans, numbers, strings, arrays, maps, structs and builtins. An array, map or struct that's in more
+ * than one place (or in itself) is still a single one when decoded, a string or the fields of a struct that appear
+ * again are only written once, and an array of numbers is written as a block of doubles. Builtins are kept by name
+ * and are the ones of the new globals. Functions, and values that hold a resource (files, tasks, channels, buffers,
+ * Java classes), can't be kept: a prelude that leaves one in its globals can't be snapshotted.
+ */
+public final class Snapshot {
+    //"TKSN"
+    private static final int MAGIC = 0x544B534E;
+    private static final int VERSION = 1;
+
+    private static final byte NIL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+    private static final byte NUMBERS = 5;
+    private static final byte ARRAY = 6;
+    private static final byte MAP = 7;
+    private static final byte STRUCT = 8;
+    private static final byte BUILTIN = 9;
+    //An array, map or struct decoded already
+    private static final byte SEEN = 10;
+
+    private final byte[] bytes;
+
+    private Snapshot(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * The globals a program left, but for the builtins it didn't change and the variables the optimizer made up.
+     *
+     * @throws IllegalArgumentException if one of them holds something a snapshot can't keep
+     */
+    static Snapshot of(Environment globals) {
+        return new Snapshot(new Encoder().encode(globals.variables()));
+    }
+
+    //Checks it's a snapshot this version of the interpreter can decode, it isn't decoded until it's used
+    public static Snapshot read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        if (bytes.length < 8 || header.getInt() != MAGIC) throw new IOException(file + " isn't a snapshot.");
+        if (header.getInt() != VERSION) throw new IOException(file + " is a snapshot of another version.");
+        return new Snapshot(bytes);
+    }
+
+    public void write(Path file) throws IOException {
+        Files.write(file, bytes);
+    }
+
+    //The size of the snapshot in bytes
+    public int size() {
+        return bytes.length;
+    }
+
+    //New globals: the builtins, with the variables of the snapshot on top
+    Environment globals() {
+        Environment globals = Builtins.globals();
+        try {
+            new Decoder(ByteBuffer.wrap(bytes, 8, bytes.length - 8)).decode(globals);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalStateException("The snapshot is truncated or corrupt.", e);
+        }
+        return globals;
+    }
+
+    private static final class Encoder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        //What was written already, by the index it's decoded with
+        private final Map<Object, Integer> seen = new IdentityHashMap<>();
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Shape, Integer> shapes = new IdentityHashMap<>();
+        //The global the value being written is in, for the errors
+        private String global;
+
+        byte[] encode(Map<String, Object> variables) {
+            //Sorted, so the same globals always give the same bytes. The optimizer's variables ($licm0...) are only for
+            //the run that made them, and may not even hold a value of the program
+            Map<String, Object> kept = new TreeMap<>();
+            variables.forEach((name, value) -> {
+                if (name.startsWith("$")) return;
+                if (!(value instanceof Builtin builtin && builtin.name.equals(name))) kept.put(name, value);
+            });
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(kept.size());
+                for (Map.Entry<String, Object> variable : kept.entrySet()) {
+                    global = variable.getKey();
+                    string(global);
+                    value(variable.getValue());
+                }
+                out.flush();
+            } catch (IOException e) {
+                //It's written to memory
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private void value(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NIL);
+            } else if (value instanceof Boolean bool) {
+                out.writeByte(bool ? TRUE : FALSE);
+            } else if (value instanceof Double number) {
+                out.writeByte(NUMBER);
+                out.writeDouble(number);
+            } else if (value instanceof String string) {
+                out.writeByte(STRING);
+                string(string);
+            } else if (value instanceof Builtin builtin) {
+                out.writeByte(BUILTIN);
+                string(builtin.name);
+            } else if (seen.containsKey(value)) {
+                out.writeByte(SEEN);
+                out.writeInt(seen.get(value));
+            } else if (value instanceof ArrayValue array) {
+                seen.put(array, seen.size());
+                out.writeByte(array.holdsNumbers() ? NUMBERS : ARRAY);
+                out.writeInt(array.size());
+                for (int i = 0; i < array.size(); i++) {
+                    if (array.holdsNumbers()) out.writeDouble(array.number(i));
+                    else value(array.get(i));
+                }
+            } else if (value instanceof MapValue map) {
+                seen.put(map, seen.size());
+                out.writeByte(MAP);
+                ArrayValue keys = map.keys();
+                ArrayValue values = map.values();
+                out.writeInt(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    value(keys.get(i));
+                    value(values.get(i));
+                }
+            } else if (value instanceof StructValue struct) {
+                seen.put(struct, seen.size());
+                out.writeByte(STRUCT);
+                shape(struct.shape);
+                for (int i = 0; i < struct.shape.size(); i++) value(struct.fields[i]);
+            } else {
+                throw new IllegalArgumentException("The global '" + global + "' holds " + Interpreter.stringify(value)
+                        + ", which a snapshot can't keep.");
+            }
+        }
+
+        //Its index, followed by the string the first time
+        private void string(String string) throws IOException {
+            Integer index = strings.get(string);
+            if (index != null) {
+                out.writeInt(index);
+                return;
+            }
+
+            strings.put(string, strings.size());
+            out.writeInt(strings.size() - 1);
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+
+        //Its index, followed by the fields the first time
+        private void shape(Shape shape) throws IOException {
+            Integer index = shapes.get(shape);
+            if (index != null) {
+                out.writeInt(index);
+                return;
+            }
+
+            shapes.put(shape, shapes.size());
+            out.writeInt(shapes.size() - 1);
+            out.writeInt(shape.size());
+            for (String field : shape.fields()) string(field);
+        }
+    }
+
+    private static final class Decoder {
+        private final ByteBuffer in;
+        private final List<Object> seen = new ArrayList<>();
+        private final List<String> strings = new ArrayList<>();
+        private final List<Shape> shapes = new ArrayList<>();
+        //Where the builtins are found, the globals may have other values under their names by then
+        private Environment builtins;
+
+        Decoder(ByteBuffer in) {
+            this.in = in;
+        }
+
+        void decode(Environment globals) {
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                String name = string();
+                globals.define(name, value());
+            }
+        }
+
+        private Object value() {
+            byte tag = in.get();
+            return switch (tag) {
+                case NIL -> null;
+                case TRUE -> true;
+                case FALSE -> false;
+                case NUMBER -> in.getDouble();
+                case STRING -> string();
+                case BUILTIN -> builtin(string());
+                case SEEN -> seen.get(in.getInt());
+                case NUMBERS -> numbers();
+                case ARRAY -> array();
+                case MAP -> map();
+                case STRUCT -> struct();
+                default -> throw new IllegalStateException("The snapshot is corrupt, it has a value of kind " + tag + ".");
+            };
+        }
+
+        private Object builtin(String name) {
+            if (builtins == null) builtins = Builtins.globals();
+            return builtins.getLocal(name);
+        }
+
+        //Straight from the bytes into the array it keeps
+        private ArrayValue numbers() {
+            double[] numbers = new double[in.getInt()];
+            in.asDoubleBuffer().get(numbers);
+            in.position(in.position() + numbers.length * Double.BYTES);
+            ArrayValue array = new ArrayValue(numbers);
+            seen.add(array);
+            return array;
+        }
+
+        //Each one is seen before what's in it, which may be itself
+        private ArrayValue array() {
+            int size = in.getInt();
+            ArrayValue array = new ArrayValue(size);
+            seen.add(array);
+            for (int i = 0; i < size; i++) array.append(value());
+            return array;
+        }
+
+        private MapValue map() {
+            int size = in.getInt();
+            MapValue map = new MapValue();
+            seen.add(map);
+            for (int i = 0; i < size; i++) map.put(value(), value());
+            return map;
+        }
+
+        private StructValue struct() {
+            Shape shape = shape();
+            StructValue struct = new StructValue(shape, new Object[shape.size()]);
+            seen.add(struct);
+            for (int i = 0; i < shape.size(); i++) struct.fields[i] = value();
+            return struct;
+        }
+
+        private String string() {
+            int index = in.getInt();
+            if (index < strings.size()) return strings.get(index);
+
+            byte[] utf8 = new byte[in.getInt()];
+            in.get(utf8);
+            String string = new String(utf8, StandardCharsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        //Through the transitions from the empty shape, so it's the shape the structs the program makes get too
+        private Shape shape() {
+            int index = in.getInt();
+            if (index < shapes.size()) return shapes.get(index);
+
+            int size = in.getInt();
+            Shape shape = Shape.EMPTY;
+            for (int i = 0; i < size; i++) shape = shape.with(string());
+            shapes.add(shape);
+            return shape;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package org.example.AbstractSyntaxTree;
 import org.example.Lexer.TokenUtils;
 import org.example.Lexer.ValueToken;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 public abstract class Statement {
@@ -14,6 +16,9 @@ public abstract class Statement {
     static class LetStatement extends Statement {
         ValueToken<String> name;
         Expression initializer;
+        //Same as in Expression.VarExpression
+        int slot = -1;
+        boolean boxed;
 
         LetStatement(ValueToken<String> name, Expression init) {
             this.name = name;
@@ -77,6 +82,8 @@ public abstract class Statement {
 
     static class BlockStatement extends Statement {
         List<Statement> statementList;
+        //Blocks inside functions keep their variables in the frame, they don't need an environment
+        boolean scoped = true;
 
         public BlockStatement(List<Statement> statements) {
             this.statementList = statements;
@@ -135,6 +142,10 @@ public abstract class Statement {
     static class WhileStatement extends Statement {
         Expression condition;
         Statement body;
+        //Bindings for the invariant expressions hoisted out of this loop, (re)declared on every loop entry
+        List<Expression.HoistedExpression> preheader = new ArrayList<>();
+        //How to split the iterations across threads, when ParallelLoops proved they are independent
+        ParallelLoops.Plan parallel;
 
         WhileStatement(Expression expr, Statement body) {
             this.condition = expr;
@@ -142,7 +153,7 @@ public abstract class Statement {
         }
 
         @Override
-        public Void accept(StatementVisitor visitor) {
+        public Void accept(StatementVisitor visitor) throws Interpreter.ControlFlow {
             visitor.visitWhileStatement(this);
             return null;
         }
@@ -150,7 +161,178 @@ public abstract class Statement {
         @Override
         public String toString() {
             AstPrinter printer = new AstPrinter();
-            return String.format("While statement: condition: %s body: %s", printer.print(condition), body.toString());
+            String kind = parallel != null ? "Parallel while statement" : "While statement";
+            return String.format("%s: condition: %s body: %s", kind, printer.print(condition), body.toString());
+        }
+    }
+
+    /**
+     * Runs the arm whose keys include the value of the subject, or the else arm when none does. The keys are
+     * constants, so the arm is found with a {@link MatchTable} instead of comparing the value with each of them.
+     */
+    static class MatchStatement extends Statement {
+        Expression subject;
+        final List<List<Object>> keys;
+        final List<Statement> arms;
+        final Statement elseBranch;
+        final MatchTable table;
+
+        MatchStatement(Expression subject, List<List<Object>> keys, List<Statement> arms, Statement elseBranch) {
+            this.subject = subject;
+            this.keys = keys;
+            this.arms = arms;
+            this.elseBranch = elseBranch;
+            this.table = new MatchTable(keys);
+        }
+
+        @Override
+        public Void accept(StatementVisitor visitor) throws Interpreter.ControlFlow {
+            return visitor.visitMatchStatement(this);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder matchString = new StringBuilder();
+            matchString.append("Match statement: ").append(new AstPrinter().print(subject));
+
+            for (int i = 0; i < arms.size(); i++) {
+                StringBuilder armKeys = new StringBuilder();
+                for (Object key : keys.get(i)) {
+                    if (!armKeys.isEmpty()) armKeys.append(", ");
+                    armKeys.append(key instanceof String ? "\"" + key + "\"" : Interpreter.stringify(key));
+                }
+                matchString.append("\n").append(armKeys).append(" => ").append(arms.get(i).toString());
+            }
+            if (elseBranch != null) matchString.append("\nelse => ").append(elseBranch.toString());
+
+            return matchString.toString();
+        }
+    }
+
+    /**
+     * A counted loop, either written as {@code for (i in start..end)} or recognized by {@link CountedLoops} in a
+     * classic for loop. The bounds are evaluated once and the counter is a primitive, the variable only gets a
+     * (boxed) value when the body reads it.
+     */
+    static class ForRangeStatement extends Statement {
+        ValueToken<String> name;
+        Expression start;
+        Expression end;
+        //Less or Less_Equal, the one that reports the bounds that are not numbers
+        TokenUtils.Token comparison;
+        double step;
+        Statement body;
+        boolean counterRead;
+        //A function of the body reads it, so each iteration needs a variable of its own
+        boolean counterCaptured;
+        //Same as in WhileStatement
+        List<Expression.HoistedExpression> preheader = new ArrayList<>();
+        ParallelLoops.Plan parallel;
+        //Only for pfor loops
+        ParallelFor pfor;
+        //Same as in Expression.VarExpression
+        int slot = -1;
+        boolean boxed;
+
+        ForRangeStatement(ValueToken<String> name, Expression start, Expression end, TokenUtils.Token comparison,
+                          double step, Statement body) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.comparison = comparison;
+            this.step = step;
+            this.body = body;
+            this.counterRead = CountedLoops.reads(body, name.getValue());
+            this.counterCaptured = CountedLoops.captures(body, name.getValue());
+        }
+
+        @Override
+        public Void accept(StatementVisitor visitor) throws Interpreter.ControlFlow {
+            visitor.visitForRangeStatement(this);
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            AstPrinter printer = new AstPrinter();
+            String kind = pfor != null ? "Pfor statement"
+                    : parallel != null ? "Parallel for range statement" : "For range statement";
+            String range = printer.print(start) + (comparison.getTokenType() == TokenUtils.TokenType.Less ? ".." : "..=")
+                    + printer.print(end);
+            return String.format("%s: name: %s, range: %s, step: %s body: %s", kind, name.getValue(), range,
+                    Interpreter.stringify(step), body.toString());
+        }
+    }
+
+    static class FunctionStatement extends Statement {
+        final Expression.FunctionExpression function;
+        //Same as in Expression.VarExpression, for the name of the function
+        int slot = -1;
+        boolean boxed;
+
+        FunctionStatement(Expression.FunctionExpression function) {
+            this.function = function;
+        }
+
+        @Override
+        public Void accept(StatementVisitor visitor) {
+            return visitor.visitFunctionStatement(this);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder functionString = new StringBuilder();
+            functionString.append("Function statement: name: ").append(function.name.getValue()).append(", params:");
+            for (ValueToken<String> param : function.params) functionString.append(" ").append(param.getValue());
+            for (Statement st : function.body) functionString.append("\n").append(st.toString());
+
+            return functionString.toString();
+        }
+    }
+
+    static class ReturnStatement extends Statement {
+        final TokenUtils.Token keyword;
+        Expression value;
+
+        ReturnStatement(TokenUtils.Token keyword, Expression value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        public Void accept(StatementVisitor visitor) throws Interpreter.ControlFlow {
+            return visitor.visitReturnStatement(this);
+        }
+
+        @Override
+        public String toString() {
+            if (value == null) return "Return statement: value: nil";
+            return String.format("Return statement: value: %s", new AstPrinter().print(value));
+        }
+    }
+
+    static class ImportStatement extends Statement {
+        final TokenUtils.Token keyword;
+        //As it's written, relative to the directory of the file it's in
+        final String path;
+        //Set when the file it's in is loaded: where the module is
+        Path resolved;
+        //Set when the module is loaded, see Modules
+        Module module;
+
+        ImportStatement(TokenUtils.Token keyword, String path) {
+            this.keyword = keyword;
+            this.path = path;
+        }
+
+        @Override
+        public Void accept(StatementVisitor visitor) throws Interpreter.ControlFlow {
+            return visitor.visitImportStatement(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Import statement: path: %s", path);
         }
     }
 
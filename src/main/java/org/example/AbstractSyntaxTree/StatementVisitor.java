@@ -11,10 +11,20 @@ public interface StatementVisitor {
 
     Void visitIfStatement(Statement.IfStatement ifStatement) throws Interpreter.ControlFlow;
 
+    Void visitMatchStatement(Statement.MatchStatement matchStatement) throws Interpreter.ControlFlow;
+
     Void visitBreakStatement(Statement.BreakStatement breakStatement) throws Interpreter.ControlFlow;
 
     Void visitContinueStatement(Statement.ContinueStatement continueStatement) throws Interpreter.ControlFlow;
 
-    Void visitWhileStatement(Statement.WhileStatement whileStatement);
+    Void visitWhileStatement(Statement.WhileStatement whileStatement) throws Interpreter.ControlFlow;
+
+    Void visitForRangeStatement(Statement.ForRangeStatement forRangeStatement) throws Interpreter.ControlFlow;
+
+    Void visitFunctionStatement(Statement.FunctionStatement functionStatement);
+
+    Void visitReturnStatement(Statement.ReturnStatement returnStatement) throws Interpreter.ControlFlow;
+
+    Void visitImportStatement(Statement.ImportStatement importStatement) throws Interpreter.ControlFlow;
 
 }
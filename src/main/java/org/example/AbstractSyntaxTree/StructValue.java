@@ -0,0 +1,37 @@
+package org.example.AbstractSyntaxTree;
+
+import java.util.Arrays;
+
+/**
+ * The structs of Tekla: their fields are in a flat array, laid out by a {@link Shape} they share with every other
+ * struct that has the same fields. Assigning a field they don't have yet adds it, moving them to another shape.
+ */
+public class StructValue {
+    Shape shape;
+    Object[] fields;
+
+    StructValue(Shape shape, Object[] fields) {
+        this.shape = shape;
+        this.fields = fields;
+    }
+
+    //The next shape must be this one's with the new field
+    void add(Shape next, Object value) {
+        int slot = shape.size();
+        if (slot == fields.length) fields = Arrays.copyOf(fields, Math.max(4, slot * 2));
+
+        fields[slot] = value;
+        shape = next;
+    }
+
+    @Override
+    public String toString() {
+        String[] names = shape.fields();
+        StringBuilder builder = new StringBuilder("struct {");
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(names[i]).append(": ").append(Interpreter.stringify(fields[i]));
+        }
+        return builder.append("}").toString();
+    }
+}
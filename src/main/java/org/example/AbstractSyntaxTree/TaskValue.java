@@ -0,0 +1,53 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils;
+
+import java.io.PrintStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A function running on a thread of its own, started with {@code spawn}. It gets an interpreter of its own (its calls
+ * go on their own stack) and shares with the rest of the program what its function can see: the global variables
+ * and what it captured.
+ * <p>
+ * Tasks run on virtual threads when the JVM has them, so a script can have thousands of them waiting on channels
+ * without paying for as many platform threads (see {@link VirtualThreads}).
+ */
+public class TaskValue {
+    private static final ExecutorService EXECUTOR = VirtualThreads.newExecutor();
+
+    private final Future<Object> result;
+
+    private TaskValue(Future<Object> result) {
+        this.result = result;
+    }
+
+    //The task prints where the interpreter that spawned it prints
+    static TaskValue spawn(TokenUtils.Token paren, Object function, PrintStream out) {
+        return new TaskValue(EXECUTOR.submit(() -> {
+            Interpreter interpreter = new Interpreter(new Environment());
+            interpreter.out = out;
+            return interpreter.call(paren, function, new Object[0]);
+        }));
+    }
+
+    //Waits for the task to end, and gives back what its function returned or fails the way it failed
+    Object join(TokenUtils.Token paren) {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Interpreter.RuntimeError error) throw error;
+            throw new Interpreter.RuntimeError(paren, "The task failed: " + e.getCause() + ".");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Interpreter.RuntimeError(paren, "Interrupted while waiting for a task.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
@@ -0,0 +1,333 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.Lexer;
+import org.example.Lexer.SimpleToken;
+import org.example.Lexer.TokenUtils;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tekla through {@code javax.script}, for programs that embed it. {@link #compile} parses, optimizes and resolves a
+ * script once, and the {@link CompiledScript} it gives back can be evaluated any number of times, from any number of
+ * threads, with different bindings.
+ * <p>
+ * The bindings of the context are the globals of the script. Which names the script uses as globals is known once it
+ * has been resolved, so an evaluation only looks those up in the bindings (not every binding there is), defines the
+ * ones it finds before running, and writes them back afterwards, along with the globals the script declared. Numbers
+ * come in as doubles, the way Tekla has them. The value of an evaluation is that of the last statement when it's an
+ * expression, and what the script prints goes to the writer of the context.
+ * <p>
+ * The functions a script declared are in the bindings after it ran, and {@link Invocable} calls them (or the ones in
+ * the fields of a struct, for {@link #invokeMethod}).
+ */
+public class TeklaScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+    //Never written: every evaluation has globals of its own over them, and tells the builtins from its globals with them
+    private static final Environment BUILTINS = Builtins.globals();
+    private static final TokenUtils.Token CALL = new SimpleToken(0, TokenUtils.TokenType.LParen);
+
+    private final ScriptEngineFactory factory;
+
+    TeklaScriptEngine(ScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(errors, true, StandardCharsets.UTF_8);
+
+        Lexer lex = new Lexer(script);
+        List<TokenUtils.Token> tokens = lex.readUntilEOF();
+        if (lex.hadError()) {
+            lex.printErrors(out);
+            throw syntaxError(errors);
+        }
+
+        Parser parser = new Parser(tokens);
+        List<Statement> statements = parser.parse();
+        if (parser.hadErrors()) {
+            parser.printErrors(out);
+            throw syntaxError(errors);
+        }
+
+        CompiledProgram program = CompiledProgram.compile(statements);
+        return new Script(program, GlobalNames.of(program.statements()));
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    @Override
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+        Object function = context.getAttribute(name);
+        if (!(function instanceof Closure) && !(function instanceof Builtin)) {
+            throw new NoSuchMethodException("There's no function '" + name + "' in the bindings.");
+        }
+        return call(function, args);
+    }
+
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args) throws ScriptException, NoSuchMethodException {
+        if (!(thiz instanceof StructValue struct)) throw new IllegalArgumentException("Only structs have methods.");
+
+        int slot = struct.shape.slot(name);
+        Object function = slot < 0 ? null : struct.fields[slot];
+        if (!(function instanceof Closure) && !(function instanceof Builtin)) {
+            throw new NoSuchMethodException("The struct has no function '" + name + "'.");
+        }
+        return call(function, args);
+    }
+
+    @Override
+    public <T> T getInterface(Class<T> type) {
+        return implement(type, null);
+    }
+
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> type) {
+        if (!(thiz instanceof StructValue)) throw new IllegalArgumentException("Only structs have methods.");
+        return implement(type, thiz);
+    }
+
+    //Every method of the interface calls the function of the same name, of the bindings or of the struct
+    private <T> T implement(Class<T> type, Object thiz) {
+        if (type == null || !type.isInterface()) throw new IllegalArgumentException("Expected an interface.");
+
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) return objectMethod(self, method, args);
+            Object[] arguments = args == null ? new Object[0] : args;
+            Object result = thiz == null
+                    ? invokeFunction(method.getName(), arguments)
+                    : invokeMethod(thiz, method.getName(), arguments);
+            return method.getReturnType() == void.class ? null : fromTekla(result, method.getReturnType());
+        });
+        return type.cast(proxy);
+    }
+
+    private static Object objectMethod(Object self, Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "equals" -> self == args[0];
+            case "hashCode" -> System.identityHashCode(self);
+            default -> "<tekla " + self.getClass().getInterfaces()[0].getSimpleName() + ">";
+        };
+    }
+
+    private Object call(Object function, Object[] args) throws ScriptException {
+        Object[] arguments = new Object[args.length];
+        for (int i = 0; i < args.length; i++) arguments[i] = toTekla(args[i]);
+
+        //A closure runs in the globals of the evaluation that created it, the interpreter only lends it a stack
+        PrintStream out = printStream(context.getWriter());
+        try {
+            Interpreter interpreter = new Interpreter(new Environment());
+            interpreter.out = out;
+            return interpreter.call(CALL, function, arguments);
+        } catch (Interpreter.RuntimeError err) {
+            throw scriptException(err);
+        } finally {
+            out.flush();
+        }
+    }
+
+    private static Object toTekla(Object value) {
+        if (value instanceof Double) return value;
+        if (value instanceof Number number) return number.doubleValue();
+        if (value instanceof Character character) return character.toString();
+        return value;
+    }
+
+    //Numbers go back as the boxed primitive the interface method returns
+    private static Object fromTekla(Object value, Class<?> type) {
+        if (!(value instanceof Double number)) return value;
+        if (type == int.class || type == Integer.class) return number.intValue();
+        if (type == long.class || type == Long.class) return number.longValue();
+        if (type == float.class || type == Float.class) return number.floatValue();
+        return number;
+    }
+
+    //The errors are printed with the colors of a terminal, which don't belong in an exception
+    private static ScriptException syntaxError(ByteArrayOutputStream errors) {
+        return new ScriptException(errors.toString(StandardCharsets.UTF_8).replaceAll("\033\\[[;\\d]*m", "").strip());
+    }
+
+    //The lexer counts lines from 0, a ScriptException from 1
+    private static ScriptException scriptException(Interpreter.RuntimeError err) {
+        ScriptException exception = new ScriptException(err.getMessage(), null, err.token.getPos() + 1);
+        exception.initCause(err);
+        return exception;
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringWriter source = new StringWriter();
+        try {
+            reader.transferTo(source);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return source.toString();
+    }
+
+    //Prints go through a PrintStream in the interpreter, this turns them into text for the writer of a context
+    private static PrintStream printStream(Writer writer) {
+        OutputStream bytes = new OutputStream() {
+            private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+            @Override
+            public void write(int b) {
+                pending.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                pending.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.write(pending.toString(StandardCharsets.UTF_8));
+                writer.flush();
+                pending.reset();
+            }
+        };
+        return new PrintStream(bytes, true, StandardCharsets.UTF_8);
+    }
+
+    private final class Script extends CompiledScript {
+        private final CompiledProgram program;
+        private final String[] globals;
+
+        private Script(CompiledProgram program, String[] globals) {
+            this.program = program;
+            this.globals = globals;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            Environment env = new ConcurrentEnvironment(BUILTINS);
+            for (String name : globals) {
+                if (context.getAttributesScope(name) != -1) env.define(name, toTekla(context.getAttribute(name)));
+            }
+
+            PrintStream out = printStream(context.getWriter());
+            try {
+                return program.eval(env, out);
+            } catch (Interpreter.RuntimeError err) {
+                throw scriptException(err);
+            } finally {
+                out.flush();
+                writeBack(env, context);
+            }
+        }
+
+        //What the script assigned goes back where it came from, and what it declared to the engine's own bindings
+        private void writeBack(Environment env, ScriptContext context) {
+            for (String name : globals) {
+                Object value = env.find(name);
+                if (value == Environment.ABSENT) continue;
+
+                int scope = context.getAttributesScope(name);
+                context.setAttribute(name, value, scope != -1 ? scope : ScriptContext.ENGINE_SCOPE);
+            }
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return TeklaScriptEngine.this;
+        }
+    }
+
+    /**
+     * The names a resolved program looks up in the globals, leaving out the builtins it only calls (so they don't end
+     * up in the bindings) and the variables the optimizer made up.
+     */
+    private static final class GlobalNames extends AstScanner {
+        private final Set<String> used = new LinkedHashSet<>();
+        private final Set<String> written = new LinkedHashSet<>();
+
+        static String[] of(List<Statement> statements) {
+            GlobalNames names = new GlobalNames();
+            names.scan(statements);
+
+            Set<String> globals = new LinkedHashSet<>(names.written);
+            for (String name : names.used) {
+                if (BUILTINS.find(name) == Environment.ABSENT) globals.add(name);
+            }
+            globals.removeIf(name -> name.startsWith("$"));
+            return globals.toArray(new String[0]);
+        }
+
+        @Override
+        public Void visitVarExpression(Expression.VarExpression varExpr) {
+            if (varExpr.slot < 0) used.add(varExpr.name.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpression(Expression.AssignExpression assignExpr) {
+            if (assignExpr.slot < 0) written.add(assignExpr.name.getValue());
+            return super.visitAssignExpression(assignExpr);
+        }
+
+        @Override
+        public Void visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpr) {
+            if (compoundExpr.slot < 0) written.add(compoundExpr.name.getValue());
+            return super.visitCompoundAssignExpression(compoundExpr);
+        }
+
+        @Override
+        public Void visitLetStatement(Statement.LetStatement letStatement) {
+            if (letStatement.slot < 0) written.add(letStatement.name.getValue());
+            return super.visitLetStatement(letStatement);
+        }
+
+        @Override
+        public Void visitFunctionStatement(Statement.FunctionStatement functionStatement) {
+            if (functionStatement.slot < 0) written.add(functionStatement.function.name.getValue());
+            return super.visitFunctionStatement(functionStatement);
+        }
+    }
+}
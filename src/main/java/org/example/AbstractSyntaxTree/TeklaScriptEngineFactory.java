@@ -0,0 +1,83 @@
+package org.example.AbstractSyntaxTree;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Makes {@link TeklaScriptEngine}s. It's registered as a service, so {@code new ScriptEngineManager()} finds it by
+ * the name {@code tekla}, the extension {@code tk} or its mime type.
+ */
+public class TeklaScriptEngineFactory implements ScriptEngineFactory {
+    private static final String VERSION = "1.0";
+
+    @Override
+    public String getEngineName() {
+        return "Tekla";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of("tk");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return List.of("application/x-tekla");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return List.of("tekla", "Tekla");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "Tekla";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        return switch (key) {
+            case ScriptEngine.ENGINE -> getEngineName();
+            case ScriptEngine.ENGINE_VERSION -> getEngineVersion();
+            case ScriptEngine.NAME -> getNames().get(0);
+            case ScriptEngine.LANGUAGE -> getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION -> getLanguageVersion();
+            //The compiled scripts can run on several threads at once, the bindings are the caller's to share or not
+            case "THREADING" -> "MULTITHREADED";
+            default -> null;
+        };
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        return obj + "." + m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print(\"" + toDisplay.replace("\"", "\\\"") + "\");";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        return List.of(statements).stream().map(st -> st + ";").collect(Collectors.joining("\n"));
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new TeklaScriptEngine(this);
+    }
+}
@@ -0,0 +1,657 @@
+package org.example.AbstractSyntaxTree;
+
+import org.example.Lexer.TokenUtils.TokenType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Flow-sensitive type inference.
+ * <p>
+ * Follows every path of the program keeping the set of types each variable may hold at that point (literals,
+ * results of arithmetic and variables that were only ever given numbers are known, globals coming from a previous
+ * line of the REPL are not). Loops are iterated until what their variables may hold doesn't change anymore.
+ * <p>
+ * The binary and unary nodes whose operands are proven to be numbers (or two strings, for a Plus) in every path that
+ * reaches them get their {@link Expression.OperandType} set, so the interpreter can run them without type checks.
+ * Everything else keeps its checks.
+ * <p>
+ * A function body is analyzed on its own, knowing nothing about its parameters or the variables it captures. A call
+ * may run any function, so after it nothing is known about the globals (the functions of a previous line of the REPL
+ * can assign them too) nor about the variables that some function of the program assigns.
+ * <p>
+ * Nothing is known about the globals, nor about the variables some function of the program assigns, when they're
+ * read either: a task may be running on another thread and assign them at any moment, between the line that gave
+ * them a number and the one that reads it.
+ */
+public class TypeInference implements ExpressionVisitor<Integer>, StatementVisitor {
+    //Types are sets, stored as bit masks
+    private static final int NUMBER = 1;
+    private static final int STRING = 1 << 1;
+    private static final int BOOLEAN = 1 << 2;
+    private static final int NIL = 1 << 3;
+    private static final int FUNCTION = 1 << 4;
+    private static final int ARRAY = 1 << 5;
+    private static final int MAP = 1 << 6;
+    private static final int STRUCT = 1 << 7;
+    private static final int ANY = -1;
+
+    //The union of the operand types each node has been reached with: [left, right] for binaries, [right] for unaries
+    private final Map<Expression, int[]> operands = new IdentityHashMap<>();
+    private List<Loop> loops = new ArrayList<>();
+    //null when the current point can't be reached (right after a break, a continue or a return)
+    private State state = new State();
+    //The names the functions of the program assign outside of themselves, which any call (or task) may change
+    private final Set<String> assignedByFunctions = new HashSet<>();
+
+    public List<Statement> infer(List<Statement> statements) {
+        new FunctionAssignments().scan(statements);
+        for (Statement st : statements) analyze(st);
+
+        for (Map.Entry<Expression, int[]> entry : operands.entrySet()) {
+            int[] types = entry.getValue();
+
+            if (entry.getKey() instanceof Expression.BinaryExpression bin) {
+                if (types[0] == NUMBER && types[1] == NUMBER) {
+                    bin.operandType = Expression.OperandType.Number;
+                } else if (types[0] == STRING && types[1] == STRING && bin.operator.getTokenType() == TokenType.Plus) {
+                    bin.operandType = Expression.OperandType.String;
+                }
+            } else if (entry.getKey() instanceof Expression.CompoundAssignExpression compound) {
+                if (types[0] == NUMBER && types[1] == NUMBER) {
+                    compound.operandType = Expression.OperandType.Number;
+                } else if (types[0] == STRING && types[1] == STRING && compound.operator.getTokenType() == TokenType.Plus) {
+                    compound.operandType = Expression.OperandType.String;
+                }
+            } else if (entry.getKey() instanceof Expression.UnaryExpression unary) {
+                if (types[0] == NUMBER) unary.operandType = Expression.OperandType.Number;
+            }
+        }
+
+        return statements;
+    }
+
+    private void analyze(Statement statement) {
+        if (statement == null || state == null) return;
+
+        try {
+            statement.accept(this);
+        } catch (Interpreter.ControlFlow cf) {
+            //Only the interpreter throws control flow, the analysis never does
+            throw new IllegalStateException(cf);
+        }
+    }
+
+    private int infer(Expression expr) {
+        return expr.accept(this);
+    }
+
+    private void record(Expression expr, int... types) {
+        int[] seen = operands.computeIfAbsent(expr, e -> new int[types.length]);
+        for (int i = 0; i < types.length; i++) seen[i] |= types[i];
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.ExpressionStatement statement) {
+        infer(statement.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.PrintStatement statement) {
+        infer(statement.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitLetStatement(Statement.LetStatement letStatement) {
+        int type = letStatement.initializer != null ? infer(letStatement.initializer) : NIL;
+        state.declare(letStatement.name.getValue(), type);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.BlockStatement blockStatement) {
+        state.push();
+        for (Statement st : blockStatement.statementList) analyze(st);
+        if (state != null) state.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.IfStatement ifStatement) {
+        infer(ifStatement.condit);
+
+        State beforeBranches = state.copy();
+        analyze(ifStatement.thenBranch);
+        State afterThen = state;
+
+        state = beforeBranches;
+        analyze(ifStatement.elseBranch);
+        state = State.join(afterThen, state);
+        return null;
+    }
+
+    @Override
+    public Void visitMatchStatement(Statement.MatchStatement matchStatement) {
+        infer(matchStatement.subject);
+
+        State beforeArms = state.copy();
+        //Without an else arm, no arm may run at all
+        State afterArms = matchStatement.elseBranch == null ? beforeArms.copy() : null;
+        for (Statement arm : matchStatement.arms) {
+            state = beforeArms.copy();
+            analyze(arm);
+            afterArms = State.join(afterArms, state);
+        }
+
+        state = beforeArms;
+        analyze(matchStatement.elseBranch);
+        state = matchStatement.elseBranch != null ? State.join(afterArms, state) : afterArms;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStatement(Statement.BreakStatement breakStatement) {
+        Loop loop = loops.get(loops.size() - 1);
+        loop.breaks = State.join(loop.breaks, state.truncate(loop.depth));
+        state = null;
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStatement(Statement.ContinueStatement continueStatement) {
+        Loop loop = loops.get(loops.size() - 1);
+        loop.continues = State.join(loop.continues, state.truncate(loop.depth));
+        state = null;
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.WhileStatement whileStatement) {
+        Loop loop = new Loop(state.depth());
+        loops.add(loop);
+
+        State head = state.copy();
+        while (true) {
+            state = head.copy();
+            infer(whileStatement.condition);
+            State exit = state.copy();
+
+            loop.breaks = null;
+            loop.continues = null;
+            analyze(whileStatement.body);
+
+            State next = State.join(head, State.join(state, loop.continues));
+            if (next.equals(head)) {
+                state = State.join(exit, loop.breaks);
+                break;
+            }
+            head = next;
+        }
+
+        loops.remove(loops.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitForRangeStatement(Statement.ForRangeStatement forRange) {
+        infer(forRange.start);
+        infer(forRange.end);
+
+        String name = forRange.name.getValue();
+        state.push();
+        state.declare(name, NUMBER);
+        Loop loop = new Loop(state.depth());
+        loops.add(loop);
+
+        State head = state.copy();
+        while (true) {
+            state = head.copy();
+            State exit = state.copy();
+
+            loop.breaks = null;
+            loop.continues = null;
+            analyze(forRange.body);
+
+            //Whatever the body did to it, the variable starts every iteration with the counter
+            State next = State.join(head, State.join(state, loop.continues));
+            next.declare(name, NUMBER);
+            if (next.equals(head)) {
+                state = State.join(exit, loop.breaks);
+                break;
+            }
+            head = next;
+        }
+
+        loops.remove(loops.size() - 1);
+        state.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.FunctionStatement functionStatement) {
+        state.declare(functionStatement.function.name.getValue(), FUNCTION);
+        analyzeFunction(functionStatement.function);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.ReturnStatement returnStatement) {
+        if (returnStatement.value != null) infer(returnStatement.value);
+        state = null;
+        return null;
+    }
+
+    //The module runs in the globals, where it may assign anything, like a call
+    @Override
+    public Void visitImportStatement(Statement.ImportStatement importStatement) {
+        state.clobber(assignedByFunctions);
+        return null;
+    }
+
+    private void analyzeFunction(Expression.FunctionExpression function) {
+        State outer = state;
+        List<Loop> outerLoops = loops;
+
+        //The first scope stands for the globals, and like them everything in it is unknown
+        state = new State();
+        state.push();
+        loops = new ArrayList<>();
+        for (var param : function.params) state.declare(param.getValue(), ANY);
+        for (Statement st : function.body) analyze(st);
+
+        state = outer;
+        loops = outerLoops;
+    }
+
+    @Override
+    public Integer visitAssignExpression(Expression.AssignExpression assignExpr) {
+        int type = infer(assignExpr.value);
+        state.assign(assignExpr.name.getValue(), type);
+        return type;
+    }
+
+    @Override
+    public Integer visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpr) {
+        String name = compoundExpr.name.getValue();
+        int old = lookup(name);
+        int value = infer(compoundExpr.value);
+        record(compoundExpr, old, value);
+
+        int type = resultType(compoundExpr.operator.getTokenType(), old, value);
+        state.assign(name, type);
+        return compoundExpr.postfix ? old : type;
+    }
+
+    @Override
+    public Integer visitVarExpression(Expression.VarExpression varExpr) {
+        return lookup(varExpr.name.getValue());
+    }
+
+    //What a variable holds when it's read, the globals and what functions assign may have been changed by a task
+    private int lookup(String name) {
+        if (assignedByFunctions.contains(name) || state.isGlobal(name)) return ANY;
+        return state.lookup(name);
+    }
+
+    @Override
+    public Integer visitBinary(Expression.BinaryExpression binExpr) {
+        int left = infer(binExpr.left);
+        int right = infer(binExpr.right);
+        record(binExpr, left, right);
+
+        return resultType(binExpr.operator.getTokenType(), left, right);
+    }
+
+    //What a binary operator gives back when it doesn't fail
+    private static int resultType(TokenType operator, int left, int right) {
+        switch (operator) {
+            case Minus, Slash, Star -> {
+                return NUMBER;
+            }
+            case Plus -> {
+                int type = 0;
+                if ((left & NUMBER) != 0 && (right & NUMBER) != 0) type |= NUMBER;
+                if ((left & STRING) != 0 && (right & STRING) != 0) type |= STRING;
+                return type;
+            }
+            case Greater, Greater_Equal, Less, Less_Equal, Not_Equal, Equal_Equal -> {
+                return BOOLEAN;
+            }
+        }
+
+        return NIL;
+    }
+
+    @Override
+    public Integer visitUnary(Expression.UnaryExpression unarExpr) {
+        int right = infer(unarExpr.right);
+
+        switch (unarExpr.operator.getTokenType()) {
+            case Minus -> {
+                record(unarExpr, right);
+                return NUMBER;
+            }
+            case Bang -> {
+                return BOOLEAN;
+            }
+        }
+
+        return NIL;
+    }
+
+    @Override
+    public Integer visitGrouping(Expression.GroupingExpression groupExpr) {
+        return infer(groupExpr.expr);
+    }
+
+    @Override
+    public Integer visitLiteral(Expression.LiteralExpression litExpr) {
+        return typeOf(litExpr.value);
+    }
+
+    @Override
+    public Integer visitLogicalExpression(Expression.LogicalExpression logicExp) {
+        infer(logicExp.left);
+
+        //The right side may not run at all
+        State afterLeft = state.copy();
+        infer(logicExp.right);
+        state = State.join(afterLeft, state);
+
+        return BOOLEAN;
+    }
+
+    @Override
+    public Integer visitCallExpression(Expression.CallExpression callExpr) {
+        infer(callExpr.callee);
+        for (Expression argument : callExpr.arguments) infer(argument);
+
+        state.clobber(assignedByFunctions);
+        return ANY;
+    }
+
+    @Override
+    public Integer visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+        analyzeFunction(functionExpr);
+        return FUNCTION;
+    }
+
+    @Override
+    public Integer visitArrayExpression(Expression.ArrayExpression arrayExpr) {
+        for (Expression element : arrayExpr.elements) infer(element);
+        return ARRAY;
+    }
+
+    @Override
+    public Integer visitMapExpression(Expression.MapExpression mapExpr) {
+        for (int i = 0; i < mapExpr.keys.size(); i++) {
+            infer(mapExpr.keys.get(i));
+            infer(mapExpr.values.get(i));
+        }
+        return MAP;
+    }
+
+    @Override
+    public Integer visitStructExpression(Expression.StructExpression structExpr) {
+        for (Expression value : structExpr.values) infer(value);
+        return STRUCT;
+    }
+
+    //Nor about the fields
+    @Override
+    public Integer visitGetExpression(Expression.GetExpression getExpr) {
+        infer(getExpr.object);
+        return ANY;
+    }
+
+    @Override
+    public Integer visitSetExpression(Expression.SetExpression setExpr) {
+        infer(setExpr.object);
+        int value = infer(setExpr.value);
+        return setExpr.operator == null ? value : ANY;
+    }
+
+    //Nothing is known about the elements
+    @Override
+    public Integer visitIndexExpression(Expression.IndexExpression indexExpr) {
+        infer(indexExpr.object);
+        infer(indexExpr.index);
+        return ANY;
+    }
+
+    @Override
+    public Integer visitIndexAssignExpression(Expression.IndexAssignExpression indexAssignExpr) {
+        infer(indexAssignExpr.object);
+        infer(indexAssignExpr.index);
+        int value = infer(indexAssignExpr.value);
+        return indexAssignExpr.operator == null ? value : ANY;
+    }
+
+    @Override
+    public Integer visitHoistedExpression(Expression.HoistedExpression hoistedExpr) {
+        //Whatever it reads is not assigned inside the loop, so its type is the same wherever it is used
+        return infer(hoistedExpr.expr);
+    }
+
+    private static int typeOf(Object value) {
+        if (value == null) return NIL;
+        if (value instanceof Double) return NUMBER;
+        if (value instanceof String) return STRING;
+        if (value instanceof Boolean) return BOOLEAN;
+        return ANY;
+    }
+
+    //The variables functions assign without declaring them: the globals and the ones they capture
+    private class FunctionAssignments extends AstScanner {
+        //The scopes of the function being scanned, the innermost last
+        private List<Set<String>> scopes = new ArrayList<>(List.of(new HashSet<>()));
+        private boolean inFunction = false;
+
+        @Override
+        public Void visitFunctionExpression(Expression.FunctionExpression functionExpr) {
+            List<Set<String>> outer = scopes;
+            boolean outerInFunction = inFunction;
+
+            scopes = new ArrayList<>(List.of(new HashSet<>()));
+            for (var param : functionExpr.params) declare(param.getValue());
+            inFunction = true;
+            super.visitFunctionExpression(functionExpr);
+
+            scopes = outer;
+            inFunction = outerInFunction;
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStatement(Statement.FunctionStatement functionStatement) {
+            declare(functionStatement.function.name.getValue());
+            return super.visitFunctionStatement(functionStatement);
+        }
+
+        @Override
+        public Void visitLetStatement(Statement.LetStatement letStatement) {
+            super.visitLetStatement(letStatement);
+            declare(letStatement.name.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStatement(Statement.BlockStatement blockStatement) {
+            scopes.add(new HashSet<>());
+            super.visitBlockStatement(blockStatement);
+            scopes.remove(scopes.size() - 1);
+            return null;
+        }
+
+        @Override
+        public Void visitForRangeStatement(Statement.ForRangeStatement forRange) {
+            scan(forRange.start);
+            scan(forRange.end);
+            scopes.add(new HashSet<>());
+            declare(forRange.name.getValue());
+            scan(forRange.body);
+            scopes.remove(scopes.size() - 1);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpression(Expression.AssignExpression assignExpr) {
+            assigned(assignExpr.name.getValue());
+            return super.visitAssignExpression(assignExpr);
+        }
+
+        @Override
+        public Void visitCompoundAssignExpression(Expression.CompoundAssignExpression compoundExpr) {
+            assigned(compoundExpr.name.getValue());
+            return super.visitCompoundAssignExpression(compoundExpr);
+        }
+
+        private void declare(String name) {
+            scopes.get(scopes.size() - 1).add(name);
+        }
+
+        private void assigned(String name) {
+            if (!inFunction) return;
+            for (Set<String> scope : scopes) {
+                if (scope.contains(name)) return;
+            }
+            assignedByFunctions.add(name);
+        }
+    }
+
+    private static class Loop {
+        final int depth;
+        State breaks;
+        State continues;
+
+        Loop(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * The types of the variables at some point of the program, one map per scope (like the environments).
+     */
+    private static class State {
+        private final List<Map<String, Integer>> scopes;
+
+        State() {
+            this.scopes = new ArrayList<>();
+            this.scopes.add(new HashMap<>());
+        }
+
+        private State(List<Map<String, Integer>> scopes) {
+            this.scopes = scopes;
+        }
+
+        int depth() {
+            return scopes.size();
+        }
+
+        void push() {
+            scopes.add(new HashMap<>());
+        }
+
+        void pop() {
+            scopes.remove(scopes.size() - 1);
+        }
+
+        void declare(String name, int type) {
+            scopes.get(scopes.size() - 1).put(name, type);
+        }
+
+        void assign(String name, int type) {
+            for (int i = scopes.size() - 1; i >= 0; i--) {
+                if (scopes.get(i).containsKey(name)) {
+                    scopes.get(i).put(name, type);
+                    return;
+                }
+            }
+
+            //Not declared by this program, so it lives in the global environment from now on
+            scopes.get(0).put(name, type);
+        }
+
+        //Declared in the first scope, or nowhere, so it lives in the global environment
+        boolean isGlobal(String name) {
+            for (int i = scopes.size() - 1; i > 0; i--) {
+                if (scopes.get(i).containsKey(name)) return false;
+            }
+            return true;
+        }
+
+        int lookup(String name) {
+            for (int i = scopes.size() - 1; i >= 0; i--) {
+                Integer type = scopes.get(i).get(name);
+                if (type != null) return type;
+            }
+
+            return ANY;
+        }
+
+        //What a call may have changed: the globals, and the given names wherever they are declared
+        void clobber(Set<String> names) {
+            scopes.get(0).replaceAll((name, type) -> ANY);
+            for (Map<String, Integer> scope : scopes) {
+                for (String name : names) {
+                    if (scope.containsKey(name)) scope.put(name, ANY);
+                }
+            }
+        }
+
+        State copy() {
+            return truncate(scopes.size());
+        }
+
+        State truncate(int depth) {
+            List<Map<String, Integer>> copied = new ArrayList<>();
+            for (int i = 0; i < depth; i++) copied.add(new HashMap<>(scopes.get(i)));
+            return new State(copied);
+        }
+
+        /**
+         * Both states must come from the same nesting of scopes. A variable only declared in one of them may or may
+         * not exist after the join, so nothing is known about it.
+         */
+        static State join(State a, State b) {
+            if (a == null) return b == null ? null : b.copy();
+            if (b == null) return a.copy();
+
+            List<Map<String, Integer>> joined = new ArrayList<>();
+            for (int i = 0; i < a.scopes.size(); i++) {
+                Map<String, Integer> scopeA = a.scopes.get(i);
+                Map<String, Integer> scopeB = b.scopes.get(i);
+                Map<String, Integer> scope = new HashMap<>();
+
+                for (Map.Entry<String, Integer> entry : scopeA.entrySet()) {
+                    Integer other = scopeB.get(entry.getKey());
+                    scope.put(entry.getKey(), other == null ? ANY : entry.getValue() | other);
+                }
+                for (String name : scopeB.keySet()) {
+                    if (!scopeA.containsKey(name)) scope.put(name, ANY);
+                }
+
+                joined.add(scope);
+            }
+
+            return new State(joined);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof State other && scopes.equals(other.scopes);
+        }
+
+        @Override
+        public int hashCode() {
+            return scopes.hashCode();
+        }
+    }
+}
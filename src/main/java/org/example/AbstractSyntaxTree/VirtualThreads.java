@@ -0,0 +1,31 @@
+package org.example.AbstractSyntaxTree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors that start a virtual thread for each task when the JVM has them. The project builds for an older Java,
+ * so the factory is looked up instead of being called directly, and older JVMs get a pool of daemon platform threads.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    public static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (Throwable noVirtualThreads) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable);
+                //Like virtual threads, they don't keep the program running
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -3,6 +3,8 @@ package org.example.Lexer;
 import org.example.Lexer.TokenUtils.TokenType;
 import org.example.Lexer.TokenUtils.Token;
 
+import java.io.PrintStream;
+
 public class IllegalToken implements Token {
     final String RED = "\033[1;91m";
     final String NO_COLOR = "\033[0m";
@@ -37,7 +39,11 @@ public class IllegalToken implements Token {
     }
 
     public void printIndexed(int num) {
-        System.err.printf("  [%sLEXING_ERROR:%s %d] => %s \n", RED, NO_COLOR, num,
+        printIndexed(System.err, num);
+    }
+
+    public void printIndexed(PrintStream out, int num) {
+        out.printf("  [%sLEXING_ERROR:%s %d] => %s \n", RED, NO_COLOR, num,
                 this);
     }
 
@@ -3,6 +3,7 @@ package org.example.Lexer;
 import static org.example.Lexer.TokenUtils.TokenType.*;
 import static org.example.Lexer.TokenUtils.*;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -15,6 +16,7 @@ public class Lexer {
     private int line;
     private int position;
     private char currChar;
+    private TokenType previous;
     private boolean hadError = false;
 
     public Lexer(String src) {
@@ -35,6 +37,12 @@ public class Lexer {
      * valid token or a IllegalToken).
      */
     public Token nextToken() {
+        Token token = this.readToken();
+        this.previous = token.getTokenType();
+        return token;
+    }
+
+    private Token readToken() {
         switch (this.currChar) {
             case '(' -> {
                 this.consumeChar();
@@ -52,14 +60,34 @@ public class Lexer {
                 this.consumeChar();
                 return new SimpleToken(this.line, RBrace);
             }
+            case '[' -> {
+                this.consumeChar();
+                return new SimpleToken(this.line, LBracket);
+            }
+            case ']' -> {
+                this.consumeChar();
+                return new SimpleToken(this.line, RBracket);
+            }
             case ',' -> {
                 this.consumeChar();
                 return new SimpleToken(this.line, Comma);
             }
+            case ':' -> {
+                this.consumeChar();
+                return new SimpleToken(this.line, Colon);
+            }
             case ';' -> {
                 this.consumeChar();
                 return new SimpleToken(this.line, Semicolon);
             }
+            case '.' -> {
+                if (nextMatches('.')) {
+                    consumeChar();
+                    return new SimpleToken(this.line, DotDot);
+                }
+
+                return new SimpleToken(this.line, Dot);
+            }
             case 0 -> {
                 this.consumeChar();
                 return new SimpleToken(this.line, EOF);
@@ -93,6 +121,9 @@ public class Lexer {
                 if (nextMatches('=')) {
                     consumeChar();
                     return new SimpleToken(this.line, Equal_Equal);
+                } else if (this.currChar == '>') {
+                    consumeChar();
+                    return new SimpleToken(this.line, Arrow);
                 } else {
                     return new SimpleToken(this.line, Equal);
                 }
@@ -101,6 +132,9 @@ public class Lexer {
                 if (nextMatches('=')) {
                     consumeChar();
                     return new SimpleToken(this.line, Plus_Equal);
+                } else if (this.currChar == '+' && this.incrementPossible()) {
+                    consumeChar();
+                    return new SimpleToken(this.line, Plus_Plus);
                 } else {
                     return new SimpleToken(this.line, Plus);
                 }
@@ -117,6 +151,9 @@ public class Lexer {
                 if (nextMatches('=')) {
                     consumeChar();
                     return new SimpleToken(this.line, Minus_Equal);
+                } else if (this.currChar == '-' && this.incrementPossible()) {
+                    consumeChar();
+                    return new SimpleToken(this.line, Minus_Minus);
                 } else {
                     return new SimpleToken(this.line, Minus);
                 }
@@ -133,12 +170,12 @@ public class Lexer {
             // the next valid token
             case ' ', '\t', '\r' -> {
                 this.consumeChar();
-                return nextToken();
+                return readToken();
             }
             case '\n' -> {
                 this.line += 1;
                 this.consumeChar();
-                return nextToken();
+                return readToken();
             }
 
             default -> {
@@ -209,11 +246,19 @@ public class Lexer {
             return;
         }
 
-        System.err.printf("\n[%sPARSING_ERRORS%s] %d errors found while parsing the file:\n", RED, NO_COLOR, errorList.size());
+        printErrors(System.err);
+        System.out.println();
+    }
+
+    //Prints the errors it found, all of them to out
+    public void printErrors(PrintStream out) {
+        final String RED = "\033[1;91m";
+        final String NO_COLOR = "\033[0m";
+
+        out.printf("\n[%sPARSING_ERRORS%s] %d errors found while parsing the file:\n", RED, NO_COLOR, errorList.size());
         for (int i = 0; i < errorList.size(); i++) {
-            errorList.get(i).printIndexed(i + 1);
+            errorList.get(i).printIndexed(out, i + 1);
         }
-        System.out.println();
     }
 
     private Token handleNumberToken() {
@@ -228,7 +273,8 @@ public class Lexer {
         while (this.currChar != ' ' && this.currChar != '/' && this.currChar != '*'
                 && this.currChar != '-' && this.currChar != '+' && this.currChar != ';'
                 && this.currChar != ')' && this.currChar != '|' && this.currChar != '&'
-                && this.currChar != '='
+                && this.currChar != '=' && this.currChar != '.' && this.currChar != ','
+                && this.currChar != ']' && this.currChar != ':' && this.currChar != '}'
                 && this.position <= this.source.length()) {
 
             if (!isDigit(this.currChar)) isValid = false;
@@ -293,14 +339,33 @@ public class Lexer {
                 this.consumeChar();
             }
 
-            return nextToken();
+            return readToken();
         } else if ('=' == this.currChar) {
+            this.consumeChar();
             return new SimpleToken(this.line, Slash_Equal);
         } else {
             return new SimpleToken(this.line, Slash);
         }
     }
 
+    /*
+     * Two signs are only an increment where one can stand: after a variable, element or field it would update, or
+     * before a name. Anywhere else they are two operators, so 5--3 is still 5 - -3 and a--b is a - -b.
+     */
+    private boolean incrementPossible() {
+        int i = this.position;
+        while (i < this.source.length() && Character.isWhitespace(this.source.charAt(i))) i++;
+        char after = i < this.source.length() ? this.source.charAt(i) : '\0';
+
+        if (this.previous == Identifier || this.previous == RBracket) {
+            return !(isAlphabetic(after) || isDigit(after) || after == '_' || after == '(' || after == '['
+                    || after == '"');
+        }
+        boolean operandBefore = this.previous == RParen || this.previous == Integer || this.previous == String
+                || this.previous == True || this.previous == False || this.previous == Nil;
+        return !operandBefore && (isAlphabetic(after) || after == '_');
+    }
+
     // Move the pointer a single char.
     private void consumeChar() {
         if (this.position >= this.source.length()) {
@@ -43,6 +43,7 @@ public class TokenUtils {
         keywords.put("if", TokenType.If);
         keywords.put("else", TokenType.Else);
         keywords.put("for", TokenType.For);
+        keywords.put("pfor", TokenType.Pfor);
         keywords.put("func", TokenType.Function);
         keywords.put("while", TokenType.While);
         keywords.put("return", TokenType.Return);
@@ -52,6 +53,10 @@ public class TokenUtils {
         keywords.put("break", TokenType.Break);
         keywords.put("continue", TokenType.Continue);
         keywords.put("nil", TokenType.Nil);
+        keywords.put("in", TokenType.In);
+        keywords.put("match", TokenType.Match);
+        keywords.put("struct", TokenType.Struct);
+        keywords.put("import", TokenType.Import);
         return keywords;
     }
 
@@ -62,7 +67,7 @@ public class TokenUtils {
 
         Integer, String, True, False,
 
-        For, If, Else,
+        For, Pfor, In, If, Else, Match, Struct, Import,
         While, Return,
         Bang,
 
@@ -73,10 +78,11 @@ public class TokenUtils {
         Greater, Less, Equal, Plus, Minus, Slash, Star,
         Greater_Equal, Less_Equal, Equal_Equal, Star_Equal,
         Plus_Equal, Minus_Equal, Slash_Equal,
+        Plus_Plus, Minus_Minus,
         Not_Equal, Nil,
 
-        Comma, Semicolon,
-        LParen, RParen, LBrace, RBrace,
+        Comma, Colon, Semicolon, Dot, DotDot, Arrow,
+        LParen, RParen, LBrace, RBrace, LBracket, RBracket,
     }
 
     public interface Token {
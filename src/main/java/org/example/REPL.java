@@ -1,5 +1,8 @@
 package org.example;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -17,9 +20,19 @@ public class REPL {
     public static void main(String[] args) {
         if (args.length == 0) interactivePrompt();
         else if (args.length == 1) { // Read from file
-
+            runFile(args[0]);
+        } else if (args.length == 2 && args[0].equals("--serve")) { // Run the scripts other processes send
+            serve(args[1]);
+        } else if (args.length == 3 && args[0].equals("--snapshot")) { // Run a prelude and keep the globals it leaves
+            snapshot(args[1], args[2]);
+        } else if (args.length == 3 && args[0].equals("--prelude")) { // Run a file from the globals of a snapshot
+            runFile(args[2], args[1]);
+        } else if (args.length == 2 && args[0].equals("--share")) { // Run a big generated file with less memory
+            runFile(args[1], true);
         } else { // Bad usage
-            throw new RuntimeException("Invalid args (use with no args or with a file)");
+            throw new RuntimeException("Invalid args (use with no args, with a file, with --serve <port or socket path>,"
+                    + " with --snapshot <prelude file> <snapshot file>, with --prelude <snapshot file> <file> or with"
+                    + " --share <file>)");
         }
 
     }
@@ -36,6 +49,98 @@ public class REPL {
         }
     }
 
+    private static void runFile(String path) {
+        runFile(path, false);
+    }
+
+    //Sharing the identical subexpressions of the file, see Parser(List, boolean)
+    private static void runFile(String path, boolean share) {
+        CompiledProgram program = compileFile(path, share);
+        if (program != null) program.run();
+    }
+
+    private static void runFile(String path, String snapshotPath) {
+        Snapshot prelude;
+        try {
+            prelude = Snapshot.read(Path.of(snapshotPath));
+        } catch (IOException e) {
+            System.out.println("Couldn't read " + snapshotPath + ": " + e.getMessage());
+            return;
+        }
+
+        CompiledProgram program = compileFile(path, false);
+        if (program != null) program.run(prelude, System.out);
+    }
+
+    private static void snapshot(String preludePath, String snapshotPath) {
+        CompiledProgram prelude = compileFile(preludePath, false);
+        if (prelude == null) return;
+
+        Snapshot snapshot = prelude.snapshot(System.out);
+        if (snapshot == null) return;
+        try {
+            snapshot.write(Path.of(snapshotPath));
+            System.out.println("Wrote " + snapshot.size() + " bytes to " + snapshotPath);
+        } catch (IOException e) {
+            System.out.println("Couldn't write " + snapshotPath + ": " + e.getMessage());
+        }
+    }
+
+    //Null, with the errors printed, when it can't be read or doesn't lex or parse
+    private static CompiledProgram compileFile(String path, boolean share) {
+        String source;
+        try {
+            source = Files.readString(Path.of(path));
+        } catch (IOException e) {
+            System.out.println("Couldn't read " + path + ": " + e.getMessage());
+            return null;
+        }
+
+        Lexer lex = new Lexer(source);
+        List<Token> tokens = lex.readUntilEOF();
+        if (lex.hadError()) {
+            lex.printErrors();
+            return null;
+        }
+
+        Parser parser = new Parser(tokens, share);
+        List<Statement> statements = parser.parse();
+        if (parser.hadErrors()) {
+            parser.printErrors();
+            return null;
+        }
+
+        return CompiledProgram.compile(statements, Path.of(path).toAbsolutePath().getParent());
+    }
+
+    private static void serve(String portOrPath) {
+        ScriptServer server;
+        try {
+            server = ScriptServer.open(portOrPath);
+        } catch (IOException e) {
+            System.out.println("Couldn't serve on " + portOrPath + ": " + e.getMessage());
+            return;
+        }
+
+        //Closed by the hook when it's stopped with a signal, so the socket file of a Unix domain socket is still removed
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> close(server)));
+        try {
+            System.out.println("Serving scripts on " + server.address());
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Couldn't serve on " + portOrPath + ": " + e.getMessage());
+        } finally {
+            close(server);
+        }
+    }
+
+    private static void close(ScriptServer server) {
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+    }
+
     private static void run(List<Token> tokens) {
         Parser parser = new Parser(tokens);
         List<Statement> statements = parser.parse();
@@ -44,6 +149,7 @@ public class REPL {
             parser.printErrors();
         } else {
             if (statements.size() > 0) {
+                Optimizer.optimize(statements);
                 //interpreter.print(statements);
                 interpreter.interpret(statements);
                 if (interpreter.hadError()) interpreter.printErrors();
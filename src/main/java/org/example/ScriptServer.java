@@ -0,0 +1,220 @@
+package org.example;
+
+import org.example.AbstractSyntaxTree.CompiledProgram;
+import org.example.AbstractSyntaxTree.Parser;
+import org.example.AbstractSyntaxTree.Statement;
+import org.example.AbstractSyntaxTree.VirtualThreads;
+import org.example.Lexer.Lexer;
+import org.example.Lexer.TokenUtils.Token;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs scripts for other processes, so they don't pay for starting a JVM (and warming it up) every time. It listens
+ * on a local port or on a Unix domain socket, and each connection is one request, handled on a virtual thread of its
+ * own.
+ * <p>
+ * The client sends the request and shuts down its side of the connection. The first line of the request is either
+ * {@code run}, with the source of the script after it, or {@code id <id>}, to run again a script it sent before. The
+ * response starts with a line with how it went and the id of the script, then has everything the script printed
+ * (its errors too), and ends when the server closes the connection:
+ * <ul>
+ *     <li>{@code ok <id>}: it ran without errors.</li>
+ *     <li>{@code failed <id>}: it stopped on a runtime error.</li>
+ *     <li>{@code invalid <id>}: it didn't lex or parse, or the request is malformed (then there's no id).</li>
+ *     <li>{@code unknown <id>}: there's no script with that id.</li>
+ * </ul>
+ * Scripts are kept compiled by the SHA-256 of their source, which is their id, so sending the same source twice only
+ * parses it once. Every run gets its own globals and interpreter (see {@link CompiledProgram}).
+ */
+public final class ScriptServer implements Closeable {
+    private static final int MAX_REQUEST = 16 * 1024 * 1024;
+    private static final int MAX_PROGRAMS = 256;
+
+    private final ServerSocketChannel channel;
+    private final SocketAddress address;
+    private final ExecutorService requests = VirtualThreads.newExecutor();
+    private final Map<String, CompiledProgram> programs = new ConcurrentHashMap<>();
+
+    private ScriptServer(ServerSocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.address = channel.getLocalAddress();
+    }
+
+    /**
+     * Listens on the given port of the loopback address (0 picks a free one), or on a Unix domain socket when given
+     * anything that isn't a number.
+     */
+    public static ScriptServer open(String portOrPath) throws IOException {
+        SocketAddress address;
+        if (portOrPath.chars().allMatch(Character::isDigit)) {
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(portOrPath));
+        } else {
+            address = UnixDomainSocketAddress.of(portOrPath);
+        }
+        return open(address);
+    }
+
+    public static ScriptServer open(SocketAddress address) throws IOException {
+        ServerSocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+        try {
+            channel.bind(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new ScriptServer(channel);
+    }
+
+    public SocketAddress address() {
+        return address;
+    }
+
+    //Takes requests until the server is closed
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                SocketChannel client = channel.accept();
+                requests.submit(() -> handle(client));
+            }
+        } catch (ClosedChannelException closed) {
+            //Closed from another thread, the requests already taken still get their responses
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            byte[] request = Channels.newInputStream(client).readNBytes(MAX_REQUEST + 1);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            String status;
+            try (PrintStream out = new PrintStream(output, true, StandardCharsets.UTF_8)) {
+                status = respond(request, out);
+            }
+
+            byte[] head = (status + "\n").getBytes(StandardCharsets.UTF_8);
+            ByteBuffer[] response = {ByteBuffer.wrap(head), ByteBuffer.wrap(output.toByteArray())};
+            while (response[0].hasRemaining() || response[1].hasRemaining()) client.write(response);
+        } catch (IOException e) {
+            //The client went away, there's no one left to tell
+        }
+    }
+
+    private String respond(byte[] request, PrintStream out) {
+        if (request.length > MAX_REQUEST) {
+            out.println("The request is over " + MAX_REQUEST + " bytes.");
+            return "invalid";
+        }
+
+        String text = new String(request, StandardCharsets.UTF_8);
+        int newline = text.indexOf('\n');
+        String command = (newline < 0 ? text : text.substring(0, newline)).strip();
+
+        if (command.equals("run")) {
+            String source = newline < 0 ? "" : text.substring(newline + 1);
+            String id = hash(source);
+            CompiledProgram program = programs.get(id);
+            if (program == null) {
+                program = compile(source, out);
+                if (program == null) return "invalid " + id;
+                program = cache(id, program);
+            }
+            return run(id, program, out);
+        }
+
+        if (command.startsWith("id ")) {
+            String id = command.substring(3).strip();
+            CompiledProgram program = programs.get(id);
+            if (program == null) return "unknown " + id;
+            return run(id, program, out);
+        }
+
+        out.println("A request starts with a line that's either run or id <id>.");
+        return "invalid";
+    }
+
+    private static String run(String id, CompiledProgram program, PrintStream out) {
+        try {
+            return (program.run(out) ? "ok " : "failed ") + id;
+        } catch (RuntimeException | StackOverflowError e) {
+            //A bug of the interpreter, or a recursion too deep: it fails this request, not the server
+            out.println("The script stopped: " + e + ".");
+            return "failed " + id;
+        }
+    }
+
+    //Null, with its errors printed to out, when it doesn't lex or parse
+    private static CompiledProgram compile(String source, PrintStream out) {
+        Lexer lex = new Lexer(source);
+        List<Token> tokens = lex.readUntilEOF();
+        if (lex.hadError()) {
+            lex.printErrors(out);
+            return null;
+        }
+
+        Parser parser = new Parser(tokens);
+        List<Statement> statements = parser.parse();
+        if (parser.hadErrors()) {
+            parser.printErrors(out);
+            return null;
+        }
+
+        return CompiledProgram.compile(statements);
+    }
+
+    //Two requests may compile the same source at once, the one that gets there first is the one that's kept
+    private CompiledProgram cache(String id, CompiledProgram program) {
+        if (programs.size() >= MAX_PROGRAMS) {
+            Iterator<String> ids = programs.keySet().iterator();
+            if (ids.hasNext()) {
+                ids.next();
+                ids.remove();
+            }
+        }
+
+        CompiledProgram cached = programs.putIfAbsent(id, program);
+        return cached != null ? cached : program;
+    }
+
+    private static String hash(String source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            //Every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        requests.shutdown();
+        if (address instanceof UnixDomainSocketAddress socket) Files.deleteIfExists(socket.getPath());
+    }
+}
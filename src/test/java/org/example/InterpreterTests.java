@@ -6,9 +6,29 @@ import org.example.Lexer.SimpleToken;
 import org.example.Lexer.TokenUtils;
 import org.junit.jupiter.api.Test;
 
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -276,6 +296,1471 @@ public class InterpreterTests {
         assertEquals(exp, outContent.toString());
     }
 
+    @Test
+    public void testRangeLoops() {
+        String[] src = {
+                "let n = 3; for (i in 0..n) { print(i); n = 1; }",
+                "for (let i = 1; i <= 7; i = i + 3) print(i);",
+                "for (i in 0..10) { if (i == 1) { continue; } if (i == 4) { break; } print(i); }",
+                "let i = \"outer\"; for (i in 0..2) { i = i * 10; print(i); } print(i);",
+                "for (let i = 0; i < 2; i = i + 1) { let x = i; } print(x);",
+                "for (i in 0..\"3\") print(i);",
+        };
+        String[] exp = {
+                """
+                0
+                1
+                2
+                """,
+                """
+                1
+                4
+                7
+                """,
+                """
+                0
+                2
+                3
+                """,
+                """
+                0
+                10
+                outer
+                """,
+                "",
+                "",
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("runs counted loops with the bounds computed once", src[i]);
+
+            Lexer lex = new Lexer(src[i]);
+
+            List<TokenUtils.Token> tokens = lex.readUntilEOF();
+            Parser parser = new Parser(tokens);
+            Interpreter interpreter = new Interpreter();
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            //x is out of scope, and the bounds of a range must be numbers
+            assertEquals(i >= 4, interpreter.hadError());
+        }
+    }
+
+    @Test
+    public void testCompoundAssignments() {
+        String[] src = {
+                "let x = 10; x += 5; print(x); x -= 3; print(x); x *= 2; print(x); x /= 4; print(x);",
+                "let x = 1; print(x++); print(x); print(++x); print(x--); print(--x);",
+                "let s = \"a\"; { { s += \"b\"; } } print(s); let n = 1; print(n += n += 1); print(n);",
+                "let total = 0; for (let i = 0; i < 5; i++) { total += i; } print(total);",
+                "print(5--3); let a = 2; let b = 1; print(a--b); print(a - --b); print(b);",
+                "print(undefinedVariable += 1);",
+                "let s = \"a\"; s -= 1;",
+        };
+        String[] exp = {
+                """
+                15
+                12
+                24
+                6
+                """,
+                """
+                1
+                2
+                3
+                3
+                1
+                """,
+                """
+                ab
+                3
+                3
+                """,
+                """
+                10
+                """,
+                """
+                8
+                3
+                2
+                0
+                """,
+                "",
+                "",
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("updates variables in place with compound assignments and increments", src[i]);
+
+            Lexer lex = new Lexer(src[i]);
+
+            List<TokenUtils.Token> tokens = lex.readUntilEOF();
+            Parser parser = new Parser(tokens);
+            Interpreter interpreter = new Interpreter();
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertEquals(i >= 5, interpreter.hadError());
+        }
+
+        String invalid = "1++; (a) += 2;";
+        printTestInfo("rejects compound assignments to anything but a variable", invalid);
+        Parser parser = new Parser(new Lexer(invalid).readUntilEOF());
+        parser.parse();
+        assertTrue(parser.hadErrors());
+    }
+
+    @Test
+    public void testMatch() {
+        String[] src = {
+                """
+                let i = -3;
+                while (i < 12) {
+                    match (i) {
+                        0 => { print("zero"); }
+                        1, 2, 3 => { print("small"); }
+                        -2 => { print("minus two"); }
+                        10 => { print("ten"); break; }
+                        else => { print(i); }
+                    }
+                    i += 1;
+                }
+                """,
+                """
+                let route = "b";
+                match (route) { "a" => { print("A"); } "b", "c" => { print("B or C"); } }
+                match (1000000) { 1 => { print("one"); } 1000000 => { print("million"); } }
+                match (nil) { false => { print("false"); } nil => { print("nil"); } }
+                match (1 / 2) { 0 => { print("zero"); } else => { print("half"); } }
+                match (0 * -1) { 0 => { print("zero"); } else => { print("negative zero"); } }
+                match ("1") { 1 => { print("number"); } }
+                match (1) { 1 => { print("first"); } 1 => { print("second"); } }
+                """,
+        };
+        String[] exp = {
+                """
+                -3
+                minus two
+                -1
+                zero
+                small
+                small
+                small
+                4
+                5
+                6
+                7
+                8
+                9
+                ten
+                """,
+                """
+                B or C
+                million
+                nil
+                half
+                negative zero
+                first
+                """,
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("runs the arm of a match whose key is equal to the value", src[i]);
+
+            Lexer lex = new Lexer(src[i]);
+
+            List<TokenUtils.Token> tokens = lex.readUntilEOF();
+            Parser parser = new Parser(tokens);
+            Interpreter interpreter = new Interpreter();
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertFalse(interpreter.hadError());
+        }
+    }
+
+    @Test
+    public void testFunctions() {
+        String[] src = {
+                """
+                func fib(n) {
+                    if (n < 2) { return n; }
+                    return fib(n - 1) + fib(n - 2);
+                }
+                print(fib(15));
+                print(fib);
+                """,
+                """
+                func counter() {
+                    let count = 0;
+                    return func () {
+                        count += 1;
+                        return count;
+                    };
+                }
+                let a = counter();
+                let b = counter();
+                a();
+                a();
+                print(a());
+                print(b());
+                """,
+                """
+                func adder(x) {
+                    return func (y) { return x + y; };
+                }
+                print(adder(3)(4));
+                print(func (a, b) { return a * b; }(6, 7));
+                func nothing() { let unused = 1; }
+                print(nothing());
+                """,
+                """
+                func sumTo(n) {
+                    func add(i) {
+                        if (i == 0) { return 0; }
+                        return i + add(i - 1);
+                    }
+                    let total = 0;
+                    for (i in 0..n) {
+                        total += add(i);
+                        if (i == 4) { return total; }
+                    }
+                    return -1;
+                }
+                print(sumTo(10));
+                print(sumTo(2));
+                let late = func () { let v = 1; let get = func () { return v; }; v = 2; return get; };
+                print(late()());
+                """,
+                """
+                let g = 10;
+                func setGlobal() { g = "changed"; }
+                setGlobal();
+                print(g + "!");
+                """,
+                //A closure captures the counter of a for loop as the one variable the loop increments, whether the
+                //loop counts (i = i + 1) or not (i = 1 + i)
+                """
+                let fs = [];
+                for (let i = 0; i < 3; i = i + 1) { append(fs, func () { return i; }); }
+                for (let i = 0; i < 3; i = 1 + i) { append(fs, func () { return i; }); }
+                print(fs[0]());
+                print(fs[3]());
+                """,
+                """
+                func capture() {
+                    let fs = [];
+                    for (let i = 0; i < 3; i = i + 1) { append(fs, func () { return i; }); }
+                    for (let i = 0; i < 3; i = 1 + i) { append(fs, func () { return i; }); }
+                    return fs;
+                }
+                let fs = capture();
+                print(fs[0]());
+                print(fs[3]());
+                """,
+                //A range loop gives each iteration a variable of its own, at the top level and in functions
+                """
+                let fs = [];
+                for (i in 0..3) { append(fs, func () { return i; }); }
+                print(fs[0]());
+                print(fs[2]());
+                """,
+                """
+                func ranges() {
+                    let fs = [];
+                    for (i in 0..3) { append(fs, func () { return i; }); }
+                    return fs;
+                }
+                let fs = ranges();
+                print(fs[0]());
+                print(fs[2]());
+                """,
+        };
+        String[] exp = {
+                """
+                610
+                <fn fib>
+                """,
+                """
+                3
+                1
+                """,
+                """
+                7
+                42
+                nil
+                """,
+                """
+                20
+                -1
+                2
+                """,
+                """
+                changed!
+                """,
+                """
+                3
+                3
+                """,
+                """
+                3
+                3
+                """,
+                """
+                0
+                2
+                """,
+                """
+                0
+                2
+                """,
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("calls functions and closures", src[i]);
+
+            //With and without the optimizer passes
+            for (boolean optimize : new boolean[]{false, true}) {
+                Parser parser = new Parser(new Lexer(src[i]).readUntilEOF());
+                List<Statement> statements = parser.parse();
+                assertFalse(parser.hadErrors());
+                if (optimize) Optimizer.optimize(statements);
+
+                ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+                System.setOut(new PrintStream(outContent));
+
+                Interpreter interpreter = new Interpreter();
+                interpreter.interpret(statements);
+
+                assertEquals(exp[i], outContent.toString());
+                assertFalse(interpreter.hadError());
+            }
+        }
+
+        String[] invalid = {"func f(a) { return a; } f(1, 2);", "let x = 1; x();", "func f() { return f(); } f();"};
+        for (String source : invalid) {
+            printTestInfo("reports calls that can't run", source);
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(new Parser(new Lexer(source).readUntilEOF()).parse());
+            assertTrue(interpreter.hadError());
+        }
+
+        String returnOutside = "return 1;";
+        printTestInfo("rejects a return outside of a function", returnOutside);
+        Parser parser = new Parser(new Lexer(returnOutside).readUntilEOF());
+        parser.parse();
+        assertTrue(parser.hadErrors());
+    }
+
+    @Test
+    public void testArrays() {
+        String[] src = {
+                """
+                let a = [1, 2, 3];
+                append(a, 4);
+                a[0] = 10;
+                a[1] += 5;
+                print(a[1]++);
+                print(a);
+                print(len(a));
+                """,
+                """
+                let mixed = [1, nil];
+                append(mixed, "text");
+                mixed[2] += "!";
+                print(mixed);
+                print([[1, 2], [3, 4]][1][0]);
+                print(len([]));
+                """,
+                """
+                let squares = [];
+                for (i in 0..100) { append(squares, i * i); }
+                let total = 0;
+                for (i in 0..len(squares)) { total += squares[i]; }
+                print(total);
+                """,
+        };
+        String[] exp = {
+                """
+                7
+                [10, 8, 3, 4]
+                4
+                """,
+                """
+                [1, nil, text!]
+                3
+                0
+                """,
+                """
+                328350
+                """,
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("stores, reads and appends the elements of arrays", src[i]);
+
+            Parser parser = new Parser(new Lexer(src[i]).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+            Optimizer.optimize(statements);
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertFalse(interpreter.hadError());
+        }
+
+        String[] invalid = {"let a = [1]; a[1];", "let a = [1]; a[-1] = 2;", "let a = [1]; a[\"0\"];", "let n = 1; n[0];"};
+        for (String source : invalid) {
+            printTestInfo("reports indexes that don't refer to an element", source);
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(new Parser(new Lexer(source).readUntilEOF()).parse());
+            assertTrue(interpreter.hadError());
+        }
+    }
+
+    @Test
+    public void testMaps() {
+        String[] src = {
+                """
+                let m = {"a": 1, "b": 2, 3: "three"};
+                m["c"] = 4;
+                m["a"] += 10;
+                print(m);
+                print(m[3]);
+                print(m["missing"]);
+                print(remove(m, "b"));
+                print(has(m, "b"));
+                print(len(m));
+                print(keys(m));
+                print(values(m));
+                """,
+                """
+                let counts = {};
+                let words = ["to", "be", "or", "not", "to", "be"];
+                for (i in 0..len(words)) {
+                    if (has(counts, words[i])) { counts[words[i]]++; } else { counts[words[i]] = 1; }
+                }
+                print(counts);
+                """,
+                """
+                let squares = {};
+                for (i in 0..1000) { squares[i] = i * i; }
+                for (i in 0..500) { remove(squares, i * 2); }
+                squares[0] = "back";
+                print(len(squares));
+                print(squares[999]);
+                print(squares[998]);
+                print(keys(squares)[500]);
+                """,
+        };
+        String[] exp = {
+                """
+                {a: 11, b: 2, 3: three, c: 4}
+                three
+                nil
+                2
+                false
+                3
+                [a, 3, c]
+                [11, three, 4]
+                """,
+                """
+                {to: 2, be: 2, or: 1, not: 1}
+                """,
+                """
+                501
+                998001
+                nil
+                0
+                """,
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("puts, reads and removes the keys of maps", src[i]);
+
+            Parser parser = new Parser(new Lexer(src[i]).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+            Optimizer.optimize(statements);
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertFalse(interpreter.hadError());
+        }
+    }
+
+    @Test
+    public void testStructs() {
+        String[] src = {
+                """
+                let p = struct { x: 1, y: 2 };
+                p.x = 10;
+                p.label = "origin";
+                p.y += 5;
+                print(p.y++);
+                print(p);
+                print(p.missing);
+                """,
+                """
+                func point(x, y) { return struct { x: x, y: y }; }
+                let points = [point(1, 2), struct { y: 20, x: 10 }, point(3, 4)];
+                points[1].extra = true;
+                let sum = 0;
+                for (i in 0..len(points)) { sum += points[i].x * points[i].y; }
+                print(sum);
+                """,
+        };
+        String[] exp = {
+                """
+                7
+                struct {x: 10, y: 8, label: origin}
+                """,
+                """
+                214
+                """,
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("reads and assigns the fields of structs", src[i]);
+
+            Parser parser = new Parser(new Lexer(src[i]).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+            Optimizer.optimize(statements);
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertEquals(i == 0, interpreter.hadError());
+        }
+
+        String duplicate = "let p = struct { x: 1, x: 2 };";
+        printTestInfo("rejects a struct with the same field twice", duplicate);
+        Parser parser = new Parser(new Lexer(duplicate).readUntilEOF());
+        parser.parse();
+        assertTrue(parser.hadErrors());
+    }
+
+    @Test
+    public void testBuffers() throws IOException {
+        Path file = Files.createTempFile("numbers", ".bin");
+        ByteBuffer numbers = ByteBuffer.allocate(4 * 1000).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 1000; i++) numbers.putInt(i);
+        Files.write(file, numbers.array());
+
+        String[] src = {
+                """
+                let b = buffer(5, "f64");
+                b[0] = 3;
+                b[1] += 2;
+                b[2]++;
+                let s = slice(b, 1, 4);
+                s[2] = 7;
+                print(b[3]);
+                print(len(s));
+                print(s);
+                let bytes = buffer(2, "u8");
+                bytes[0] = 300;
+                print(bytes[0]);
+                print(bytes[1]++);
+                print(bytes[1]);
+                """,
+                """
+                let numbers = mapfile("%s", "i32");
+                let sum = 0;
+                for (i in 0..len(numbers)) { sum += numbers[i]; }
+                print(sum);
+                print(slice(numbers, 990, 1000)[9]);
+                """.formatted(file),
+        };
+        String[] exp = {
+                """
+                7
+                3
+                <buffer f64 x 3>
+                44
+                0
+                1
+                """,
+                """
+                499500
+                999
+                """,
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("reads and writes off-heap buffers", src[i]);
+
+            Parser parser = new Parser(new Lexer(src[i]).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+            Optimizer.optimize(statements);
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertFalse(interpreter.hadError());
+        }
+
+        String[] failing = {
+                """
+                let b = buffer(4, "i32");
+                let s = slice(b, 1, 3);
+                free(b);
+                print(s[0]);
+                """,
+                """
+                let numbers = mapfile("%s", "i32");
+                numbers[0] = 1;
+                """.formatted(file),
+                "let b = buffer(4, \"f64\"); b[4] = 1;",
+                "let b = buffer(4, \"f64\"); b[0] = \"text\";",
+        };
+
+        for (String source : failing) {
+            printTestInfo("rejects freed, read only and out of bounds buffers", source);
+
+            Parser parser = new Parser(new Lexer(source).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+            assertTrue(interpreter.hadError());
+        }
+
+        Files.delete(file);
+    }
+
+    @Test
+    public void testSequences() {
+        String[] src = {
+                """
+                let big = filter(range(0, 20), func (x) { return x > 14; });
+                print(collect(map(big, func (x) { return x * x; })));
+                print(collect(take(filter([1, 2, 3, 4], func (x) { return x != 2; }), 2)));
+                print(collect(take(range(0, 5), 0)));
+                let b = buffer(3, "i32");
+                b[1] = 5;
+                print(reduce(b, func (sum, x) { return sum + x; }, 100));
+                """,
+                """
+                let triples = map(range(1, 1000000000), func (x) { return x * 3; });
+                print(reduce(take(triples, 5), func (sum, x) { return sum + x; }, 0));
+                let calls = 0;
+                let counted = map(range(0, 1000), func (x) { calls++; return x; });
+                print(collect(take(counted, 3)));
+                print(calls);
+                """,
+        };
+        String[] exp = {
+                """
+                [225, 256, 289, 324, 361]
+                [1, 3]
+                []
+                105
+                """,
+                """
+                45
+                [0, 1, 2]
+                3
+                """,
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("fuses the stages of lazy sequences", src[i]);
+
+            Parser parser = new Parser(new Lexer(src[i]).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+            Optimizer.optimize(statements);
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertFalse(interpreter.hadError());
+        }
+    }
+
+    @Test
+    public void testPfor() {
+        String[] src = {
+                """
+                let total = 0;
+                let product = 1;
+                let text = "";
+                let squares = buffer(100, "f64");
+                pfor (i in 0..100; total, product, text) {
+                    let square = i * i;
+                    total += square;
+                    if (i < 10) {
+                        product *= i + 1;
+                        text += "x";
+                    }
+                    squares[i] = square;
+                }
+                print(total);
+                print(product);
+                print(text);
+                print(squares[99]);
+                """,
+                """
+                let sum = 0;
+                pfor (i in 0..1000; sum) {
+                    let k = 0;
+                    for (j in 0..4) { k += j; }
+                    if (k > 100) { continue; }
+                    sum += i + k;
+                }
+                print(sum);
+                func inside(n) {
+                    let acc = 0;
+                    pfor (i in 0..n; acc) { acc += i; }
+                    return acc;
+                }
+                print(inside(10));
+                """,
+                """
+                let sum = 0;
+                func square(x) {
+                    let y = x * x;
+                    return y;
+                }
+                pfor (i in 0..100; sum) { sum += square(i); }
+                print(sum);
+                let getters = [];
+                for (i in 0..100) { append(getters, nil); }
+                pfor (i in 0..100) { getters[i] = func () { return i; }; }
+                print(getters[0]() + getters[99]());
+                """,
+        };
+        String[] exp = {
+                """
+                328350
+                3628800
+                xxxxxxxxxx
+                9801
+                """,
+                """
+                505500
+                45
+                """,
+                """
+                328350
+                99
+                """,
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("runs the iterations of pfor loops in parallel", src[i]);
+
+            Parser parser = new Parser(new Lexer(src[i]).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+            Optimizer.optimize(statements);
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertFalse(interpreter.hadError());
+        }
+
+        String[] rejected = {
+                "let t = 0; pfor (i in 0..10; t) { print(t); }",
+                "let u = 0; pfor (i in 0..10) { u = i; }",
+                "let t = 0; pfor (i in 0..10; t) { t -= 1; }",
+                "let t = 0; pfor (i in 0..10; t) { t += 1; t *= 2; }",
+                "let t = 0; pfor (i in 0..10; t) { let t = 1; }",
+                "let t = 0; pfor (i in 0..10; t) { print(t += 1); }",
+                "pfor (i in 0..10) { break; }",
+        };
+
+        for (String source : rejected) {
+            printTestInfo("rejects pfor loops whose iterations depend on each other", source);
+
+            Parser parser = new Parser(new Lexer(source).readUntilEOF());
+            parser.parse();
+            assertTrue(parser.hadErrors());
+        }
+
+        String[] failing = {
+                "let g = 0; func f() { g = g + 1; } pfor (i in 0..1000) { f(); }",
+                "let g = 0; func f() { g += 1; } pfor (i in 0..1000) { f(); }",
+                """
+                func counter() {
+                    let c = 0;
+                    return func () { c = c + 1; return c; };
+                }
+                let next = counter();
+                pfor (i in 0..1000) { next(); }
+                """,
+        };
+
+        for (String source : failing) {
+            printTestInfo("stops pfor loops whose iterations call functions that assign outer variables", source);
+
+            Parser parser = new Parser(new Lexer(source).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+
+            assertTrue(interpreter.hadError());
+        }
+    }
+
+    @Test
+    public void testTasks() {
+        String[] src = {
+                """
+                let results = channel(10);
+                let tasks = [];
+                for (i in 0..2000) {
+                    let n = i;
+                    append(tasks, spawn(func () { send(results, n); return n * 2; }));
+                }
+                let sum = 0;
+                for (i in 0..2000) { sum += receive(results); }
+                print(sum);
+                let doubled = 0;
+                for (i in 0..len(tasks)) { doubled += join(tasks[i]); }
+                print(doubled);
+                """,
+                """
+                let numbers = channel(2);
+                let producer = spawn(func () {
+                    for (i in 1..6) { send(numbers, i); }
+                    close(numbers);
+                });
+                let product = 1;
+                let next = receive(numbers);
+                while (next) {
+                    product *= next;
+                    next = receive(numbers);
+                }
+                print(product);
+                print(join(producer));
+                """,
+        };
+        String[] exp = {
+                """
+                1999000
+                3998000
+                """,
+                """
+                120
+                nil
+                """,
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("runs tasks that talk through channels", src[i]);
+
+            Parser parser = new Parser(new Lexer(src[i]).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+            Optimizer.optimize(statements);
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertFalse(interpreter.hadError());
+        }
+
+        String[] failing = {
+                "print(join(spawn(func () { return 1 + nil; })));",
+                "let c = channel(1); close(c); send(c, 1);",
+                "spawn(func (x) { return x; });",
+        };
+
+        for (String source : failing) {
+            printTestInfo("reports what goes wrong in tasks and channels", source);
+
+            Parser parser = new Parser(new Lexer(source).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+            assertTrue(interpreter.hadError());
+        }
+    }
+
+    @Test
+    public void testSharedGlobals() {
+        String src = """
+                let counter = 0;
+                let names = "";
+                let tasks = [];
+                for (t in 0..50) {
+                    append(tasks, spawn(func () {
+                        for (i in 0..1000) { counter += 1; }
+                        counter++;
+                        names += "t";
+                    }));
+                }
+                for (t in 0..len(tasks)) { join(tasks[t]); }
+                print(counter);
+                print(len(names));
+                """;
+        printTestInfo("updates global variables from many tasks without losing any update", src);
+
+        Parser parser = new Parser(new Lexer(src).readUntilEOF());
+        List<Statement> statements = parser.parse();
+        assertFalse(parser.hadErrors());
+        Optimizer.optimize(statements);
+
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+
+        Interpreter interpreter = new Interpreter();
+        interpreter.interpret(statements);
+
+        assertEquals("50050\n50\n", outContent.toString());
+        assertFalse(interpreter.hadError());
+
+        String race = """
+                let x = 1;
+                let y = 0;
+                let i = 0;
+                let started = channel(1);
+                let flipper = spawn(func () {
+                    send(started, true);
+                    for (k in 0..1000000) { x = "s"; x = 1; }
+                });
+                receive(started);
+                while (i < 300000) { x = 2; y = x + 1; i += 1; }
+                join(flipper);
+                print(y);
+                """;
+        printTestInfo("checks the types of globals a task may change between two lines", race);
+
+        List<Statement> racingStatements = Optimizer.optimize(new Parser(new Lexer(race).readUntilEOF()).parse());
+        outContent.reset();
+
+        Interpreter racing = new Interpreter();
+        //The task may or may not get in between, but when it does it's an error of the program, not of the interpreter
+        assertDoesNotThrow(() -> racing.interpret(racingStatements));
+        assertTrue(racing.hadError() || outContent.toString().equals("3\n"), outContent.toString());
+    }
+
+    @Test
+    public void testCompiledProgram() throws InterruptedException {
+        String src = """
+                func fib(n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }
+                let point = struct { x: 3, y: 4 };
+                let seen = {};
+                let total = 0;
+                for (i in 0..200) {
+                    seen[i] = i * 2;
+                    total += seen[i] + point.x * point.y;
+                }
+                print(total + fib(15));
+                """;
+        printTestInfo("runs one compiled program on many threads at once", src);
+
+        Parser parser = new Parser(new Lexer(src).readUntilEOF());
+        List<Statement> statements = parser.parse();
+        assertFalse(parser.hadErrors());
+        CompiledProgram program = CompiledProgram.compile(statements);
+
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+
+        int runs = 40;
+        AtomicInteger succeeded = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < runs; i++) {
+            threads.submit(() -> {
+                if (program.run()) succeeded.incrementAndGet();
+            });
+        }
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(runs, succeeded.get());
+        assertEquals("42810\n".repeat(runs), outContent.toString());
+    }
+
+    public interface Pricing {
+        double price(double quantity);
+    }
+
+    @Test
+    public void testScriptEngine() throws Exception {
+        String src = """
+                let total = base;
+                for (i in 0..count) total += i * rate;
+                func price(quantity) { return quantity * rate + base; }
+                print("computed");
+                total;
+                """;
+        printTestInfo("the javax.script engine, with compiled scripts and bindings", src);
+
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("tekla");
+        assertNotNull(engine);
+        StringWriter output = new StringWriter();
+        engine.getContext().setWriter(output);
+
+        CompiledScript script = ((Compilable) engine).compile(src);
+        Bindings bindings = engine.createBindings();
+        for (int count = 1; count <= 3; count++) {
+            bindings.put("base", 10);
+            bindings.put("count", count);
+            bindings.put("rate", 2.0);
+            engine.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+            assertEquals(10.0 + count * (count - 1), script.eval());
+        }
+        assertEquals("computed\n".repeat(3), output.toString());
+        //What the script declared is in the bindings afterwards, builtins it only called are not
+        assertEquals(16.0, bindings.get("total"));
+        assertFalse(bindings.containsKey("len"));
+
+        assertEquals(16.0, ((Invocable) engine).invokeFunction("price", 3));
+        assertEquals(20.0, ((Invocable) engine).getInterface(Pricing.class).price(5));
+
+        assertEquals(7.0, engine.eval("3 + 4;"));
+        //The builtins are shared by every evaluation, one that assigns their names only changes its own globals
+        assertEquals(6.0, engine.eval("len = 5;\nlen += 1;\nlen;", engine.createBindings()));
+        assertEquals(3.0, engine.eval("len([1, 2, 3]);", engine.createBindings()));
+        ScriptException error = assertThrows(ScriptException.class, () -> engine.eval("let x = 1;\nprint(y);"));
+        assertEquals(2, error.getLineNumber());
+        assertThrows(ScriptException.class, () -> engine.eval("let = ;"));
+        assertThrows(NoSuchMethodException.class, () -> ((Invocable) engine).invokeFunction("missing"));
+    }
+
+    @Test
+    public void testColumnExpressions() {
+        printTestInfo("expressions evaluated over columns", "(price * quantity - discount) / 2 > limit && !(flagged || price == 0)");
+
+        int rows = 2500;
+        double[] price = new double[rows];
+        double[] quantity = new double[rows];
+        boolean[] flagged = new boolean[rows];
+        for (int i = 0; i < rows; i++) {
+            price[i] = i % 7 == 0 ? 0 : i % 50;
+            quantity[i] = i % 13;
+            flagged[i] = i % 11 == 0;
+        }
+        Map<String, Object> columns = Map.of("price", price, "quantity", quantity, "flagged", flagged,
+                "discount", 3, "limit", 40.0);
+
+        ColumnExpression total = ColumnExpression.parse("-(price * quantity - discount) / 2");
+        double[] totals = total.numbers(columns);
+        boolean[] selected = ColumnExpression.parse("(price * quantity - discount) / 2 > limit && !(flagged || price == 0)")
+                .conditions(columns);
+        for (int i = 0; i < rows; i++) {
+            assertEquals(-(price[i] * quantity[i] - 3) / 2, totals[i]);
+            assertEquals((price[i] * quantity[i] - 3) / 2 > 40 && !(flagged[i] || price[i] == 0), selected[i], "row " + i);
+        }
+
+        //== is the interpreter's: 0 and -0 are different, NaN is NaN
+        boolean[] equal = ColumnExpression.parse("x == y").conditions(Map.of(
+                "x", new double[]{0.0, Double.NaN, 2}, "y", new double[]{-0.0, Double.NaN, 2}));
+        assertArrayEquals(new boolean[]{false, true, true}, equal);
+
+        assertThrows(RuntimeException.class, () -> ColumnExpression.parse("flagged + 1").numbers(columns));
+        assertThrows(RuntimeException.class, () -> ColumnExpression.parse("missing > 1").conditions(columns));
+        assertThrows(IllegalArgumentException.class, () -> ColumnExpression.parse("len(price)"));
+        assertThrows(IllegalArgumentException.class, () -> total.conditions(columns));
+    }
+
+    @Test
+    public void testJavaCalls() {
+        String src = """
+                let Math = java("java.lang.Math");
+                let Integer = java("java.lang.Integer");
+                let total = 0;
+                for (i in 0..100) total += Math.max(i, 50) + Math.abs(0 - i);
+                print(total);
+                print(Integer.toHexString(255));
+                print(Integer.parseInt("42") + 1);
+                let builder = java("java.lang.StringBuilder")("ab");
+                print(java("java.lang.String").valueOf(builder));
+                print(java("java.lang.Character").toUpperCase("q"));
+                print(Math.floorDiv(7, 2));
+                """;
+        printTestInfo("calls to static Java methods and constructors", src);
+        String exp = "11175\nff\n43\nab\nQ\n3\n";
+
+        Parser parser = new Parser(new Lexer(src).readUntilEOF());
+        List<Statement> statements = parser.parse();
+        assertFalse(parser.hadErrors());
+        Optimizer.optimize(statements);
+
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+
+        Interpreter interpreter = new Interpreter();
+        interpreter.interpret(statements);
+
+        assertEquals(exp, outContent.toString());
+        assertFalse(interpreter.hadError());
+
+        for (String failing : new String[]{
+                "java(\"java.lang.Runtime\");",
+                "java(\"java.lang.Math\").nope(1);",
+                "java(\"java.lang.Integer\").toHexString(5 / 2);",
+                "java(\"java.lang.Math\").max(\"a\", 1);",
+                "java(\"java.lang.Integer\").parseInt(\"x\");"}) {
+            Parser failingParser = new Parser(new Lexer(failing).readUntilEOF());
+            List<Statement> failingStatements = failingParser.parse();
+            assertFalse(failingParser.hadErrors());
+
+            Interpreter failingInterpreter = new Interpreter();
+            failingInterpreter.interpret(failingStatements);
+            assertTrue(failingInterpreter.hadError(), failing);
+        }
+    }
+
+    @Test
+    public void testReaders() throws IOException {
+        Path records = Files.createTempFile("records", ".csv");
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 3000; i++) rows.append(i).append(",name ").append(i).append(',').append(i).append(".5\n");
+        Files.writeString(records, rows);
+
+        //The long line doesn't fit a block of the reader
+        Path text = Files.createTempFile("text", ".txt");
+        Files.writeString(text, "first\r\n" + "x".repeat(70000) + "\nlast");
+
+        String[] src = {
+                """
+                let r = open("%s");
+                let total = 0;
+                let count = 0;
+                let rec = readrecord(r, ",");
+                print(field(rec, 1));
+                print(len(rec));
+                while (rec) {
+                    total += fieldnum(rec, 2);
+                    count++;
+                    rec = readrecord(r, ",");
+                }
+                close(r);
+                print(count);
+                print(total);
+                """.formatted(records),
+                """
+                let r = open("%s");
+                print(readline(r));
+                print(len(readline(r)));
+                print(readline(r));
+                print(readline(r));
+                """.formatted(text),
+                """
+                let lines = map(open("%s"), func (line) { return len(line); });
+                print(reduce(lines, func (a, b) { return a + b; }, 0));
+                """.formatted(text),
+        };
+        String[] exp = {
+                """
+                name 0
+                3
+                3000
+                4500000
+                """,
+                """
+                first
+                70000
+                last
+                nil
+                """,
+                """
+                70009
+                """,
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("reads files a line or a record at a time", src[i]);
+
+            Parser parser = new Parser(new Lexer(src[i]).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+            Optimizer.optimize(statements);
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertFalse(interpreter.hadError());
+        }
+
+        String[] failing = {
+                "let r = open(\"%s\"); close(r); readline(r);".formatted(text),
+                "let r = open(\"%s\"); field(readrecord(r, \",\"), 3);".formatted(records),
+                "let r = open(\"%s\"); fieldnum(readrecord(r, \",\"), 1);".formatted(records),
+                "let r = open(\"%s\"); readrecord(r, \", \");".formatted(records),
+        };
+
+        for (String source : failing) {
+            printTestInfo("rejects closed readers and missing or malformed fields", source);
+
+            Parser parser = new Parser(new Lexer(source).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+            assertTrue(interpreter.hadError(), source);
+        }
+
+        Files.delete(records);
+        Files.delete(text);
+    }
+
+    @Test
+    public void testImports() throws IOException {
+        Path directory = Files.createTempDirectory("modules");
+        Files.createDirectory(directory.resolve("lib"));
+        //They import each other, and shapes.tk imports both
+        Files.writeString(directory.resolve("lib/shapes.tk"), """
+                import "area.tk";
+                import "../names.tk";
+                func describe(w, h) { return name + " of area"; }
+                print("shapes loaded");
+                """);
+        Files.writeString(directory.resolve("lib/area.tk"), """
+                import "shapes.tk";
+                func area(w, h) { return w * h; }
+                """);
+        Files.writeString(directory.resolve("names.tk"), "let name = \"rect\";");
+
+        String[] src = {
+                """
+                import "%1$s/lib/shapes.tk";
+                import "%1$s/lib/area.tk";
+                print(describe(3, 4));
+                name = "square";
+                print(describe(2, 2));
+                print(area(3, 4));
+                """.formatted(directory),
+                """
+                import "%s/names.tk";
+                let name = "shadowed";
+                print(name);
+                """.formatted(directory),
+        };
+        String[] exp = {
+                """
+                shapes loaded
+                rect of area
+                square of area
+                12
+                """,
+                """
+                shadowed
+                """,
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("imports modules once per run", src[i]);
+
+            Parser parser = new Parser(new Lexer(src[i]).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+            Optimizer.optimize(statements);
+
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertFalse(interpreter.hadError());
+        }
+
+        //Relative to the directory it's compiled for, every run imports it again, and a changed file is parsed again
+        String source = "import \"lib/area.tk\"; print(area(2, 5));";
+        printTestInfo("imports modules relative to the program's directory", source);
+        CompiledProgram program = CompiledProgram.compile(new Parser(new Lexer(source).readUntilEOF()).parse(), directory);
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(outContent);
+        assertTrue(program.run(out));
+        assertTrue(program.run(out));
+        assertEquals("shapes loaded\n10\nshapes loaded\n10\n", outContent.toString());
+
+        Files.writeString(directory.resolve("lib/area.tk"), "func area(w, h) { return w + h; }");
+        outContent.reset();
+        assertTrue(CompiledProgram.compile(new Parser(new Lexer(source).readUntilEOF()).parse(), directory).run(out));
+        assertEquals("7\n", outContent.toString());
+
+        Files.writeString(directory.resolve("broken.tk"), "func (");
+        String[] failing = {
+                "import \"%s/missing.tk\";".formatted(directory),
+                "import \"%s/broken.tk\";".formatted(directory),
+        };
+
+        for (String failingSource : failing) {
+            printTestInfo("rejects modules that aren't there or don't parse", failingSource);
+
+            Parser parser = new Parser(new Lexer(failingSource).readUntilEOF());
+            List<Statement> statements = parser.parse();
+            assertFalse(parser.hadErrors());
+
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(statements);
+            assertTrue(interpreter.hadError(), failingSource);
+        }
+
+        for (String nested : new String[]{"{ import \"names.tk\"; }", "func f() { import \"names.tk\"; }", "import names;"}) {
+            printTestInfo("only parses imports of a path at the top level", nested);
+            Parser parser = new Parser(new Lexer(nested).readUntilEOF());
+            parser.parse();
+            assertTrue(parser.hadErrors(), nested);
+        }
+    }
+
+    @Test
+    public void testSnapshots() throws IOException {
+        String prelude = """
+                let table = [];
+                for (i in 0..1000) { append(table, i * i); }
+                let names = {"a": "first", "b": "second"};
+                let point = struct { x: 1, y: 2 };
+                let shared = [point, point];
+                let cycle = ["head"];
+                append(cycle, cycle);
+                let size = len;
+                let flag = true;
+                let nothing = nil;
+                """;
+        printTestInfo("snapshots the globals a prelude leaves", prelude);
+        Snapshot snapshot = CompiledProgram.compile(new Parser(new Lexer(prelude).readUntilEOF()).parse())
+                .snapshot(System.out);
+        assertNotNull(snapshot);
+
+        Path file = Files.createTempFile("prelude", ".snap");
+        snapshot.write(file);
+        Snapshot restored = Snapshot.read(file);
+        assertEquals(snapshot.size(), restored.size());
+
+        //The second run doesn't see what the first one changed
+        String source = """
+                print(table[999]);
+                print(names["b"]);
+                shared[0].x = 5;
+                print(shared[1].x);
+                point.z = 3;
+                print(point);
+                print(cycle[1][1][0]);
+                print(size(table));
+                print(flag);
+                print(nothing);
+                append(table, 1);
+                """;
+        printTestInfo("runs from the globals of a snapshot", source);
+        CompiledProgram program = CompiledProgram.compile(new Parser(new Lexer(source).readUntilEOF()).parse());
+        for (int run = 0; run < 2; run++) {
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            assertTrue(program.run(restored, new PrintStream(outContent)));
+            assertEquals("""
+                    998001
+                    second
+                    5
+                    struct {x: 5, y: 2, z: 3}
+                    head
+                    1000
+                    true
+                    nil
+                    """, outContent.toString());
+        }
+
+        for (String failing : new String[]{"func f() { return 1; }", "let r = channel(1);", "undefined;"}) {
+            printTestInfo("doesn't snapshot functions, resources or preludes that fail", failing);
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            Snapshot failed = CompiledProgram.compile(new Parser(new Lexer(failing).readUntilEOF()).parse())
+                    .snapshot(new PrintStream(outContent));
+            assertNull(failed, failing);
+            assertFalse(outContent.toString().isEmpty());
+        }
+
+        //The loops leave the bindings of what was hoisted out of them in the globals, unset when they never ran
+        String hoisting = """
+                let i = 0;
+                let total = 0;
+                while (i < 0) { total = total + 2 * 3; i = i + 1; }
+                let j = 0;
+                while (j < 2) { total = total + 3 * 4; j = j + 1; }
+                """;
+        printTestInfo("leaves the variables of the optimizer out of snapshots", hoisting);
+        List<Statement> hoistingStatements = new Parser(new Lexer(hoisting).readUntilEOF()).parse();
+        Snapshot withoutHoisted = CompiledProgram.compile(hoistingStatements).snapshot(System.out);
+        assertTrue(hoistingStatements.toString().contains("$licm1"), hoistingStatements.toString());
+        assertNotNull(withoutHoisted);
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        assertTrue(CompiledProgram.compile(new Parser(new Lexer("print(total);").readUntilEOF()).parse())
+                .run(withoutHoisted, new PrintStream(printed)));
+        assertEquals("24\n", printed.toString());
+        //Nothing but the variables of the prelude is in it
+        Snapshot same = CompiledProgram.compile(new Parser(new Lexer("let i = 0; let j = 2; let total = 24;")
+                .readUntilEOF()).parse()).snapshot(System.out);
+        assertEquals(same.size(), withoutHoisted.size());
+
+        Files.writeString(file, "let x = 1;");
+        assertThrows(IOException.class, () -> Snapshot.read(file));
+        Files.delete(file);
+    }
+
     @Test
     public void testControlFlow() {
         String[] src = {
@@ -182,6 +182,68 @@ public class LexerTests {
         }
     }
 
+    @Test
+    public void testLexesRanges() {
+        String src = "for (i in 0..n) 10..20;";
+
+        printTestInfo("lexes ranges", src);
+
+        Lexer lex = new Lexer(src);
+
+        ArrayList<Token> tokens = lex.readUntilEOF();
+
+        TokenType[] expectedTypes = {For, LParen, Identifier, In, Integer, DotDot, Identifier, RParen,
+                Integer, DotDot, Integer, Semicolon, EOF};
+
+        assertEquals(expectedTypes.length, tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(expectedTypes[i], tokens.get(i).getTokenType(), "Token " + i);
+        }
+        assertFalse(lex.hadError());
+    }
+
+    @Test
+    public void testLexesCompoundOperators() {
+        String src = "a += 1; b -= 2; c *= 3; d /= 4; e++; --f;";
+
+        printTestInfo("lexes compound assignments and increments", src);
+
+        Lexer lex = new Lexer(src);
+
+        ArrayList<Token> tokens = lex.readUntilEOF();
+
+        TokenType[] expectedTypes = {Identifier, Plus_Equal, Integer, Semicolon, Identifier, Minus_Equal, Integer,
+                Semicolon, Identifier, Star_Equal, Integer, Semicolon, Identifier, Slash_Equal, Integer, Semicolon,
+                Identifier, Plus_Plus, Semicolon, Minus_Minus, Identifier, Semicolon, EOF};
+
+        assertEquals(expectedTypes.length, tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(expectedTypes[i], tokens.get(i).getTokenType(), "Token " + i);
+        }
+    }
+
+    @Test
+    public void testLexesDoubleSignsAsOperators() {
+        String[] srcs = {"5--3", "a - -b", "a--b", "x - --y", "a[i]++;"};
+        TokenType[][] expectedTypes = {
+                {Integer, Minus, Minus, Integer, EOF},
+                {Identifier, Minus, Minus, Identifier, EOF},
+                {Identifier, Minus, Minus, Identifier, EOF},
+                {Identifier, Minus, Minus_Minus, Identifier, EOF},
+                {Identifier, LBracket, Identifier, RBracket, Plus_Plus, Semicolon, EOF}};
+
+        for (int i = 0; i < srcs.length; i++) {
+            printTestInfo("double signs where no increment can be", srcs[i]);
+
+            ArrayList<Token> tokens = new Lexer(srcs[i]).readUntilEOF();
+
+            assertEquals(expectedTypes[i].length, tokens.size(), srcs[i]);
+            for (int j = 0; j < tokens.size(); j++) {
+                assertEquals(expectedTypes[i][j], tokens.get(j).getTokenType(), srcs[i] + ", token " + j);
+            }
+        }
+    }
+
     @Test
     public void testPartEqInIdentifiers() {
         Lexer lex = new Lexer("aaa");
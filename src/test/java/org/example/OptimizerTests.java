@@ -0,0 +1,379 @@
+package org.example;
+
+import org.example.AbstractSyntaxTree.*;
+import org.example.Lexer.Lexer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.List;
+
+import static org.example.InterpreterTests.printTestInfo;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OptimizerTests {
+
+    private static List<Statement> parse(String src) {
+        Lexer lex = new Lexer(src);
+        Parser parser = new Parser(lex.readUntilEOF());
+        List<Statement> statements = parser.parse();
+        assertFalse(parser.hadErrors());
+        return statements;
+    }
+
+    private static List<Statement> parseShared(String src) {
+        Lexer lex = new Lexer(src);
+        Parser parser = new Parser(lex.readUntilEOF(), true);
+        List<Statement> statements = parser.parse();
+        assertFalse(parser.hadErrors());
+        return statements;
+    }
+
+    private static String run(List<Statement> statements) {
+        Interpreter interpreter = new Interpreter();
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+
+        interpreter.interpret(statements);
+        if (interpreter.hadError()) interpreter.printErrors();
+
+        return outContent.toString();
+    }
+
+    @Test
+    public void testLoopInvariantCodeMotion() {
+        String src = """
+                func f() {
+                    let limit = 3;
+                    let prefix = "id-";
+                    let s = 0;
+                    let out = "";
+                    for (let i = 0; i < limit * 2; i = i + 1) {
+                        s = s + i * (limit + 1);
+                        let j = 0;
+                        while (j < limit - 1) { out = out + prefix + "x"; j = j + 1; }
+                    }
+                    print(s);
+                    print(out);
+                    let k = 0;
+                    while (k < 3) { let limit = k; print(limit * 2); k = k + 1; }
+                }
+                f();
+                let global = 2;
+                let g = 0;
+                while (g < 2) { print(global + 1); g = g + 1; }
+                """;
+        printTestInfo("hoists the loop invariants out of while and for loops", src);
+
+        String expected = run(parse(src));
+
+        List<Statement> statements = new LoopInvariantCodeMotion().optimize(parse(src));
+        String printed = statements.toString();
+        //The bound of a counted loop is computed once anyway
+        assertTrue(printed.contains("range: 0.0..(Star (Var limit) 2.0)"), printed);
+        assertTrue(printed.contains("(Hoisted $licm0 (group (Plus (Var limit) 1.0)))"), printed);
+        assertTrue(printed.contains("(Hoisted $licm1 (Minus (Var limit) 1.0))"), printed);
+        //out is assigned inside the loop, only the prefix is invariant
+        assertTrue(printed.contains("(Plus (Var out) (Var prefix))"), printed);
+        //limit is redeclared inside the last loop, so it can't be hoisted
+        assertTrue(printed.contains("Print statement: expression: (Star (Var limit) 2.0)"), printed);
+        //A task may assign a global while the loop runs
+        assertTrue(printed.contains("Print statement: expression: (Plus (Var global) 1.0)"), printed);
+
+        assertEquals(expected, run(statements));
+    }
+
+    @Test
+    public void testHoistedExpressionsAreLazy() {
+        String src = """
+                func f() {
+                    let missing = nil;
+                    let i = 0;
+                    while (i < 3) {
+                        if (i > 5) { print(missing * 2); }
+                        i = i + 1;
+                    }
+                    print(i);
+                }
+                f();
+                """;
+        printTestInfo("only evaluates the hoisted expressions when the loop reaches them", src);
+
+        List<Statement> statements = new LoopInvariantCodeMotion().optimize(parse(src));
+        assertTrue(statements.toString().contains("(Hoisted $licm0 (Star (Var missing) 2.0))"), statements.toString());
+        assertEquals("3\n", run(statements));
+    }
+
+    @Test
+    public void testGlobalsAreNotHoisted() {
+        String src = """
+                let done = false;
+                let spins = 0;
+                spawn(func () {
+                    let k = 0;
+                    while (k < 1000) { k = k + 1; }
+                    done = true;
+                });
+                while (!done) { spins = spins + 1; }
+                print(done);
+                func wait() {
+                    let ready = false;
+                    spawn(func () { ready = true; });
+                    while (!ready) { spins = spins + 1; }
+                    return ready;
+                }
+                print(wait());
+                """;
+        printTestInfo("reads the variables a task may assign on every iteration", src);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(20),
+                () -> assertEquals("true\ntrue\n", run(Optimizer.optimize(parse(src)))));
+    }
+
+    @Test
+    public void testTypeInference() {
+        String src = """
+                func f() {
+                    let n = 10;
+                    let s = "a";
+                    let i = 0;
+                    let total = 0;
+                    let mixed = 1;
+                    while (i < n) {
+                        total = total + i * 2;
+                        s = s + "b";
+                        if (i == 5) { mixed = "five"; }
+                        print(mixed);
+                        i = i + 1;
+                    }
+                    print(total - -n);
+                    print(mixed + "!");
+                    print(previousLine + 1);
+                }
+                let global = 1;
+                print(global * 2);
+                """;
+        printTestInfo("proves the operand types of numbers and strings, but not of the dynamic variables", src);
+
+        List<Statement> statements = new TypeInference().infer(parse(src));
+        String printed = statements.toString();
+
+        assertTrue(printed.contains("condition: (Less:Number (Var i) (Var n))"), printed);
+        assertTrue(printed.contains("(Equal total (Plus:Number (Var total) (Star:Number (Var i) 2.0)))"), printed);
+        assertTrue(printed.contains("(Equal s (Plus:String (Var s) b))"), printed);
+        assertTrue(printed.contains("(Minus:Number (Var total) (Minus:Number (Var n)))"), printed);
+        //mixed may be a number or a string, and previousLine comes from outside of this program
+        assertTrue(printed.contains("(Plus (Var mixed) !)"), printed);
+        assertTrue(printed.contains("(Plus (Var previousLine) 1.0)"), printed);
+        //A task may assign a global between the two lines
+        assertTrue(printed.contains("(Star (Var global) 2.0)"), printed);
+    }
+
+    @Test
+    public void testTypeInferenceKeepsRuntimeErrors() {
+        String[] src = {
+                "let a = 1; let i = 0; while (i < 3) { print(a - 1); a = \"x\"; i = i + 1; }",
+                "let a = 1; { let a = \"x\"; } print(a * 2);",
+                "let a = 1; for (let i = 0; i < 3; i = i + 1) { if (i == 1) { break; } a = nil; } print(-a);",
+        };
+        String[] exp = {
+                "0\n",
+                "2\n",
+                "",
+        };
+
+        for (int i = 0; i < src.length; i++) {
+            printTestInfo("keeps the type checks of the values that may change type", src[i]);
+            List<Statement> statements = Optimizer.optimize(parse(src[i]));
+
+            Interpreter interpreter = new Interpreter();
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+            interpreter.interpret(statements);
+
+            assertEquals(exp[i], outContent.toString());
+            assertEquals(i != 1, interpreter.hadError());
+        }
+    }
+
+    private static String runIr(List<Statement> statements) {
+        Ir.Program program = IrOptimizer.optimize(IrBuilder.build(statements));
+
+        IrInterpreter interpreter = new IrInterpreter();
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+
+        interpreter.interpret(program);
+        if (interpreter.hadError()) interpreter.printErrors();
+
+        return outContent.toString();
+    }
+
+    @Test
+    public void testSsaIr() {
+        String[] src = {
+                """
+                let n = 10;
+                let i = 0;
+                let s = 0;
+                let t = "";
+                while (i < n) {
+                    if (i == 3) { i = i + 1; continue; }
+                    if (i > 7 && true) { break; }
+                    s = s + i * 2 + i * 2;
+                    t = t + "x";
+                    i = i + 1;
+                }
+                print(s);
+                print(t);
+                print(i);
+                """,
+                "let a = 1; { let a = 2; a = a + 1; print(a); } print(a); if (a > 0) { a = -a; } else { a = 5; } print(a);",
+                "let x = 0; while (true) { x = x + 1; if (x < 5 || x == 6) { continue; } if (!(x < 7)) { break; } } print(x);",
+                "print(1 - 1 == 0 || undefinedVariable);",
+                "let a = \"s\"; let i = 0; while (i < 2) { print(i); i = i + 1; } print(-a);",
+                "1 + 2 * 3;",
+        };
+
+        for (String s : src) {
+            printTestInfo("runs the same lowered to SSA form as in the interpreter", s);
+            assertEquals(run(parse(s)), runIr(parse(s)));
+        }
+
+        //The compiled programs only run in SSA form when it's asked for, and fall back on the interpreter
+        System.setProperty("tekla.ssa", "true");
+        try {
+            for (String s : new String[]{src[0], src[3], "print(len(\"abc\") + 1);"}) {
+                printTestInfo("runs compiled programs in SSA form when they can be", s);
+                ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+                CompiledProgram.compile(parse(s)).run(new PrintStream(outContent));
+                assertEquals(run(parse(s)), outContent.toString());
+            }
+        } finally {
+            System.clearProperty("tekla.ssa");
+        }
+
+        Ir.Program program = IrOptimizer.optimize(IrBuilder.build(parse(src[0])));
+        String dump = program.toString();
+        assertTrue(dump.contains("phi"), dump);
+        //i * 2 is computed once, and the constants are numbered with each other
+        assertEquals(1, dump.split("star").length - 1, dump);
+        assertEquals(1, dump.split("const 2\n").length - 1, dump);
+        //The short circuit on true is folded into the branch
+        assertFalse(dump.contains("truthy"), dump);
+    }
+
+    @Test
+    public void testSsaIrUnsupported() {
+        printTestInfo("leaves what it can't lower to the interpreter", "break;");
+        assertThrows(IrBuilder.Unsupported.class, () -> IrBuilder.build(parse("break;")));
+    }
+
+    @Test
+    public void testHashConsedParsing() {
+        String[] src = {
+                """
+                let t = 0;
+                let i = 0;
+                while (i < 3) { t = t + (2 * 3 + 1); i = i + 1; }
+                print(t);
+                print((2 * 3 + 1) == 7 && !false);
+                print(-(2 * 3 + 1));
+                print("a" + "b" + "a" + "b");
+                let j = 0;
+                for (let i = 0; i < 3; i = i + 1) { if (i == 1 || nil) { j = j + i * i; } }
+                print(j + i * i);
+                """,
+                "let a = 1;\nprint(a - 1);\nprint(a - \"x\");",
+                "print(1);\nprint(-(\"a\" + \"b\"));\nprint(-(\"a\" + \"b\"));",
+                "let a = 2;\nprint(a * a + 1);\nprint(-(a * a + 1));\na = 3;\nprint(a * a + 1);",
+                //The error is on the line of the second one
+                "let a = 1;\nprint(a - 1);\na = \"x\";\nprint(a - 1);",
+                "let b = 1;\nprint(2 * 3 + b);\nprint(2 * 3 + 1);\nprint(2 * 3 - undefinedVariable);",
+        };
+
+        for (String s : src) {
+            printTestInfo("runs the same with the identical subexpressions shared", s);
+            String expected = run(parse(s));
+            assertEquals(expected, run(parseShared(s)));
+            assertEquals(expected, run(Optimizer.optimize(parseShared(s))));
+        }
+    }
+
+    @Test
+    public void testParallelLoops() {
+        String[] src = {
+                """
+                let n = 20000;
+                let s = 0;
+                let best = 1000000000;
+                let last = -1;
+                let str = "";
+                for (let i = 0; i < n; i = i + 1) {
+                    let v = i * 7919 - (i * 7919 / 10007) * 10007;
+                    let k = 0;
+                    let t = 0;
+                    while (k < 3) { t = t + k * i; k = k + 1; }
+                    s = s + i + t;
+                    if (v < best) { best = v; }
+                    if (last <= v) { last = v; }
+                }
+                print(s);
+                print(best);
+                print(last);
+                let j = 0;
+                for (j = 0; j <= 40000; j = j + 3) { str = str + "ab"; }
+                print(j);
+                """,
+                //Sums of fractions depend on the order, so this one has to run sequentially after all
+                "let s = 0; for (let i = 0; i < 30000; i = i + 1) { s = s + 1 / 3; } print(s);",
+                "let s = 0; for (let i = 0; i < 30000; i = i + 1) { if (i == 15000) { s = s + \"a\"; } s = s + i; } print(s);",
+                "let s = 0; let i = 0; while (i < 30000) { s += i * 2; i++; } print(s); print(i);",
+                //The minimum of the elements of an array, compared and assigned as the same element
+                """
+                let a = [];
+                for (let i = 0; i < 30000; i = i + 1) { append(a, (i * 7919) - ((i * 7919) / 10007) * 10007 + 5); }
+                let n = len(a);
+                let m = 1000000000;
+                for (let i = 0; i < n; i = i + 1) { if (a[i] < m) { m = a[i]; } }
+                print(m);
+                """,
+                //The same with the field of a struct
+                """
+                let s = struct { x: 7 };
+                let m = 1000000000;
+                for (let i = 0; i < 30000; i = i + 1) { if (s.x + i < m) { m = s.x + i; } }
+                print(m);
+                """,
+        };
+
+        for (String s : src) {
+            printTestInfo("gives the same result with the independent loops split across threads", s);
+
+            List<Statement> statements = Optimizer.optimize(parse(s));
+            assertTrue(statements.toString().contains("Parallel"), statements.toString());
+
+            Interpreter sequential = new Interpreter();
+            sequential.setParallelLoops(false);
+            ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(outContent));
+            sequential.interpret(parse(s));
+            if (sequential.hadError()) sequential.printErrors();
+
+            assertEquals(outContent.toString(), run(statements));
+        }
+
+        String[] dependent = {
+                "let s = 1; for (let i = 0; i < 10; i = i + 1) { s = s * 2 + i; }",
+                "let s = 0; for (let i = 0; i < 10; i = i + 1) { s = s + i; print(s); }",
+                "let s = 0; let t = 0; for (let i = 0; i < 10; i = i + 1) { s = s + i; t = t + s; }",
+                "let s = 0; for (let i = 0; i < 10; i = i + 1) { if (i > 5) { break; } s = s + i; }",
+                "let n = 10; let s = 0; for (let i = 0; i < n; i = i + 1) { s = s + i; n = n - 1; }",
+        };
+        for (String s : dependent) {
+            printTestInfo("keeps the loops with dependences between iterations sequential", s);
+            assertFalse(Optimizer.optimize(parse(s)).toString().contains("Parallel"));
+        }
+    }
+}
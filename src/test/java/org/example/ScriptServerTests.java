@@ -0,0 +1,60 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScriptServerTests {
+
+    private static String send(ScriptServer server, String request) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(server.address())) {
+            ByteBuffer bytes = ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) channel.write(bytes);
+            channel.shutdownOutput();
+            return new String(Channels.newInputStream(channel).readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testServesScripts() throws Exception {
+        InterpreterTests.printTestInfo("the script server", "");
+
+        try (ScriptServer server = ScriptServer.open("0")) {
+            Thread serving = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            serving.start();
+
+            String response = send(server, "run\nlet n = 0; for (let i = 1; i <= 10; i++) n += i; print(n); print(\"done\");");
+            assertTrue(response.startsWith("ok "), response);
+            String id = response.substring(3, response.indexOf('\n'));
+            assertEquals(64, id.length());
+            assertEquals("55\ndone\n", response.substring(response.indexOf('\n') + 1));
+
+            //Run again by its id, with globals of its own
+            assertEquals("ok " + id + "\n55\ndone\n", send(server, "id " + id + "\n"));
+
+            String failed = send(server, "run\nprint(1); print(missing);");
+            assertTrue(failed.startsWith("failed "), failed);
+            assertTrue(failed.contains("1\n") && failed.contains("Undefined variable 'missing'."), failed);
+
+            assertTrue(send(server, "run\nlet = ;").startsWith("invalid "));
+            assertEquals("unknown abc\n", send(server, "id abc\n"));
+            assertTrue(send(server, "compile\n").startsWith("invalid\n"));
+
+            server.close();
+            serving.join(5000);
+            assertFalse(serving.isAlive());
+        }
+    }
+}